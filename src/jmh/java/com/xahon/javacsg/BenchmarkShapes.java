@@ -0,0 +1,38 @@
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+
+/**
+ * Primitives used by the benchmarks.
+ */
+final class BenchmarkShapes {
+
+    private BenchmarkShapes() {
+        throw new AssertionError("Don't instantiate me", null);
+    }
+
+    /**
+     * Creates a primitive with size 2 that is centered at the origin.
+     *
+     * @param shape one of {@code sphere}, {@code cylinder},
+     * {@code roundedCube} and {@code cube}
+     * @param tessellation number of slices (ignored by {@code cube})
+     * @return the primitive as csg
+     */
+    static CSG create(String shape, int tessellation) {
+        switch (shape) {
+            case "sphere":
+                return new Sphere(1, tessellation, tessellation / 2).toCSG();
+            case "cylinder":
+                return new Cylinder(Vector3d.xyz(0, 0, -1), Vector3d.xyz(0, 0, 1),
+                        1, tessellation).toCSG();
+            case "roundedCube":
+                return new RoundedCube(2).cornerRadius(0.25)
+                        .resolution(Math.max(2, tessellation / 2)).toCSG();
+            case "cube":
+                return new Cube(2).toCSG();
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Transform;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures union, difference and intersection of two equal primitives. The
+ * second primitive is shifted along the x axis such that the bounds of both
+ * primitives overlap by the specified ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BooleanBenchmark {
+
+    @Param({"sphere", "cylinder", "roundedCube", "cube"})
+    public String shape;
+
+    @Param({"16", "32", "64"})
+    public int tessellation;
+
+    @Param({"0.25", "0.5", "0.9"})
+    public double overlap;
+
+    @Param({"NONE", "CSG_BOUND", "POLYGON_BOUND", "MESH"})
+    public CSG.OptType optType;
+
+    private CSG a;
+    private CSG b;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        a = BenchmarkShapes.create(shape, tessellation).optimization(optType);
+        b = BenchmarkShapes.create(shape, tessellation).transformed(
+                Transform.unity().translateX(2 * (1 - overlap)));
+    }
+
+    @Benchmark
+    public CSG union() {
+        return a.union(b);
+    }
+
+    @Benchmark
+    public CSG difference() {
+        return a.difference(b);
+    }
+
+    @Benchmark
+    public CSG intersect() {
+        return a.intersect(b);
+    }
+}
@@ -0,0 +1,85 @@
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the building blocks of the boolean operations: building a BSP
+ * tree, copying and inverting it and splitting polygons by a plane.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BspBenchmark {
+
+    @Param({"sphere", "cylinder", "roundedCube"})
+    public String shape;
+
+    @Param({"16", "32", "64"})
+    public int tessellation;
+
+    @Param({"FIRST_POLYGON", "SAMPLED"})
+    public String selector;
+
+    private List<Polygon> polygons;
+    private SplitPlaneSelector splitPlaneSelector;
+    private Node tree;
+    private Plane splitPlane;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        polygons = BenchmarkShapes.create(shape, tessellation).getPolygons();
+        splitPlaneSelector = "SAMPLED".equals(selector)
+                ? SplitPlaneSelector.SAMPLED
+                : SplitPlaneSelector.FIRST_POLYGON;
+        tree = new Node(polygons, splitPlaneSelector);
+        // oblique plane through the center, splits about half of the polygons
+        splitPlane = new Plane(Vector3d.xyz(1, 0.5, 0.25), 0);
+    }
+
+    @Benchmark
+    public Node build() {
+        return new Node(polygons, splitPlaneSelector);
+    }
+
+    @Benchmark
+    public Node cloneTree() {
+        return tree.clone();
+    }
+
+    @Benchmark
+    public Node cloneAndInvert() {
+        Node copy = tree.clone();
+        copy.invert();
+        return copy;
+    }
+
+    @Benchmark
+    public void splitPolygons(Blackhole bh) {
+        List<Polygon> front = new ArrayList<>();
+        List<Polygon> back = new ArrayList<>();
+        for (Polygon p : polygons) {
+            splitPlane.splitPolygon(p, front, back, front, back);
+        }
+        bh.consume(front);
+        bh.consume(back);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Aabb.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Transform;
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.List;
+
+/**
+ * Axis aligned bounding box stored as six doubles. Unlike {@link Bounds} it allocates no vectors or
+ * primitives and is therefore used by the algorithms that test many boxes. Instances are immutable.
+ */
+final class Aabb {
+
+  /** Empty box at the origin, used for csgs without polygons. */
+  static final Aabb ZERO = new Aabb(0, 0, 0, 0, 0, 0);
+
+  final double minX;
+  final double minY;
+  final double minZ;
+  final double maxX;
+  final double maxY;
+  final double maxZ;
+
+  /**
+   * Constructor.
+   *
+   * @param minX min x value
+   * @param minY min y value
+   * @param minZ min z value
+   * @param maxX max x value
+   * @param maxY max y value
+   * @param maxZ max z value
+   */
+  Aabb(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+    this.minX = minX;
+    this.minY = minY;
+    this.minZ = minZ;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.maxZ = maxZ;
+  }
+
+  /**
+   * Returns the bounding box of the specified vertices.
+   *
+   * @param vertices vertices (must not be empty)
+   * @return the bounding box of the specified vertices
+   */
+  static Aabb of(List<Vertex> vertices) {
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double minZ = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    double maxZ = Double.NEGATIVE_INFINITY;
+
+    for (int i = 0; i < vertices.size(); i++) {
+      Vector3d pos = vertices.get(i).pos;
+      double x = pos.x();
+      double y = pos.y();
+      double z = pos.z();
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      minZ = Math.min(minZ, z);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+      maxZ = Math.max(maxZ, z);
+    }
+
+    return new Aabb(minX, minY, minZ, maxX, maxY, maxZ);
+  }
+
+  /**
+   * Returns the smallest box that contains this box and the specified box.
+   *
+   * @param other other box
+   * @return the union of both boxes
+   */
+  Aabb union(Aabb other) {
+    return new Aabb(
+        Math.min(minX, other.minX),
+        Math.min(minY, other.minY),
+        Math.min(minZ, other.minZ),
+        Math.max(maxX, other.maxX),
+        Math.max(maxY, other.maxY),
+        Math.max(maxZ, other.maxZ));
+  }
+
+  /**
+   * Returns this box enlarged by the specified distance in each direction.
+   *
+   * @param distance distance
+   * @return the enlarged box
+   */
+  Aabb expand(double distance) {
+    return new Aabb(
+        minX - distance,
+        minY - distance,
+        minZ - distance,
+        maxX + distance,
+        maxY + distance,
+        maxZ + distance);
+  }
+
+  /**
+   * Indicates whether the specified box intersects with this box (check includes box boundary).
+   *
+   * @param other box to check
+   * @return {@code true} if the boxes intersect; {@code false} otherwise
+   */
+  boolean intersects(Aabb other) {
+    return other.minX <= maxX
+        && other.maxX >= minX
+        && other.minY <= maxY
+        && other.maxY >= minY
+        && other.minZ <= maxZ
+        && other.maxZ >= minZ;
+  }
+
+  /**
+   * Returns the intersection of this box and the specified box.
+   *
+   * @param other other box
+   * @return the intersection of both boxes or {@code null} if the boxes do not intersect
+   */
+  Aabb intersection(Aabb other) {
+    if (!intersects(other)) {
+      return null;
+    }
+
+    return new Aabb(
+        Math.max(minX, other.minX),
+        Math.max(minY, other.minY),
+        Math.max(minZ, other.minZ),
+        Math.min(maxX, other.maxX),
+        Math.min(maxY, other.maxY),
+        Math.min(maxZ, other.maxZ));
+  }
+
+  /**
+   * Returns the bounding box of this box after applying the specified transform, i.e., the box of
+   * the eight transformed corners.
+   *
+   * @param transform transform to apply
+   * @return the bounding box of the transformed box
+   */
+  Aabb transformed(Transform transform) {
+    double[] min = {
+      Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY
+    };
+    double[] max = {
+      Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    for (int i = 0; i < 8; i++) {
+      Vector3d corner =
+          Vector3d.xyz(
+                  (i & 1) == 0 ? minX : maxX,
+                  (i & 2) == 0 ? minY : maxY,
+                  (i & 4) == 0 ? minZ : maxZ)
+              .transformed(transform);
+
+      for (int j = 0; j < 3; j++) {
+        min[j] = Math.min(min[j], corner.get(j));
+        max[j] = Math.max(max[j], corner.get(j));
+      }
+    }
+
+    return new Aabb(min[0], min[1], min[2], max[0], max[1], max[2]);
+  }
+
+  /** @return the center of this box */
+  Vector3d getCenter() {
+    return Vector3d.xyz((minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2);
+  }
+
+  /** @return this box as {@link Bounds} */
+  Bounds toBounds() {
+    return new Bounds(Vector3d.xyz(minX, minY, minZ), Vector3d.xyz(maxX, maxY, maxZ));
+  }
+
+  @Override
+  public String toString() {
+    return "[min: "
+        + minX
+        + ", "
+        + minY
+        + ", "
+        + minZ
+        + ", max: "
+        + maxX
+        + ", "
+        + maxY
+        + ", "
+        + maxZ
+        + "]";
+  }
+}
@@ -47,7 +47,7 @@ public class Bounds {
     private final Vector3d min;
     private final Vector3d max;
     private CSG csg;
-    private final Cube cube;
+    private Cube cube;
 
     /**
      * Constructor.
@@ -68,9 +68,6 @@ public class Bounds {
 
         this.min = min.clone();
         this.max = max.clone();
-
-        cube = new Cube(center, bounds);
-
     }
 
     @Override
@@ -104,18 +101,21 @@ public class Bounds {
     public CSG toCSG() {
 
         if (csg == null) {
-            csg = cube.toCSG();
+            csg = toCube().toCSG();
         }
 
         return csg;
     }
 
     /**
-     * Returns this bounding box as cube.
+     * Returns this bounding box as cube. The cube is created on first use.
      *
      * @return this bounding box as cube
      */
     public Cube toCube() {
+        if (cube == null) {
+            cube = new Cube(center, bounds);
+        }
         return cube;
     }
 
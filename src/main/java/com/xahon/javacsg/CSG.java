@@ -29,6 +29,8 @@
  */
 package com.xahon.javacsg;
 
+import com.xahon.javacsg.OperationMetrics.Path;
+import com.xahon.javacsg.OperationMetrics.Phase;
 import com.xahon.javacsg.ext.quickhull3d.HullUtil;
 
 import eu.mihosoft.vvecmath.Vector3d;
@@ -39,7 +41,11 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.TriangleMesh;
@@ -91,13 +97,40 @@ import javafx.scene.shape.TriangleMesh;
  * Subtraction and intersection naturally follow from set operations. If union is {@code A | B},
  * differenceion is {@code A - B = ~(~A | B)} and intersection is {@code A & B = ~(~A | ~B)} where
  * {@code ~} is the complement operator.
+ *
+ * <p><b>Polygon sharing</b>
+ *
+ * <p>Boolean operations never modify their operands. Inverting a BSP tree replaces its polygons by
+ * their inverses and splitting a polygon creates new fragments, so the operands do not have to be
+ * copied and can be used from several threads at once. The result of an operation consists of its
+ * own polygons (see {@link Polygon#copy()}) but may share vertices with its operands. The in-place
+ * methods of {@link Polygon} ({@link
+ * Polygon#translate(Vector3d)}, {@link Polygon#transform(Transform)} and {@link Polygon#flip()})
+ * replace the vertices of the modified polygon by copies, i.e., they do not affect other csgs.
+ * Vertices must not be modified directly. Use {@link #clone()} to obtain an independent copy.
  */
 public class CSG {
 
   private List<Polygon> polygons;
   private static OptType defaultOptType = OptType.NONE;
   private OptType optType = null;
+  private static SplitPlaneSelector defaultSplitPlaneSelector = SplitPlaneSelector.SAMPLED;
+  private SplitPlaneSelector splitPlaneSelector = null;
+  private static boolean defaultParallel = false;
+  private Boolean parallel = null;
+  private static CSGCache defaultCache = null;
+  private CSGCache cache = null;
+  private static CSGListener defaultListener = null;
+  private CSGListener listener = null;
+  private static boolean defaultCoplanarMerge = false;
+  private Boolean coplanarMerge = null;
+  private static double defaultWeldTolerance = Plane.EPSILON;
+  private Double weldTolerance = null;
   private PropertyStorage storage;
+  /** Cached bounding box (see {@link #getAabb()}), or {@code null}. */
+  private Aabb aabb;
+  /** Cached fingerprint (see {@link #fingerprint()}), or {@code null}. */
+  private Fingerprint fingerprint;
 
   private CSG() {
     storage = new PropertyStorage();
@@ -164,6 +197,12 @@ public class CSG {
     CSG csg = new CSG();
 
     csg.setOptType(this.getOptType());
+    csg.setSplitPlaneSelector(this.splitPlaneSelector);
+    csg.parallel = this.parallel;
+    csg.cache = this.cache;
+    csg.listener = this.listener;
+    csg.coplanarMerge = this.coplanarMerge;
+    csg.weldTolerance = this.weldTolerance;
 
     // sequential code
     //        csg.polygons = new ArrayList<>();
@@ -179,6 +218,8 @@ public class CSG {
     }
 
     csg.polygons = polygonStream.map((Polygon p) -> p.clone()).collect(Collectors.toList());
+    csg.aabb = aabb;
+    csg.fingerprint = fingerprint;
 
     return csg;
   }
@@ -188,6 +229,47 @@ public class CSG {
     return polygons;
   }
 
+  /**
+   * Returns the geometric fingerprint of this csg (see {@link Fingerprint}). Geometrically identical
+   * csgs have equal fingerprints, regardless of the order of their polygons. The fingerprint is
+   * computed on first use and cached, i.e., the polygons of this csg must not be modified
+   * afterwards.
+   *
+   * @return the fingerprint of this csg
+   */
+  public Fingerprint fingerprint() {
+    Fingerprint result = fingerprint;
+
+    if (result == null) {
+      Stream<Polygon> polygonStream;
+
+      if (polygons.size() > 200) {
+        polygonStream = polygons.parallelStream();
+      } else {
+        polygonStream = polygons.stream();
+      }
+
+      result = polygonStream.map(Polygon::fingerprint).reduce(Fingerprint.EMPTY, Fingerprint::plus);
+      fingerprint = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the fingerprint of the attributes of this csg that are not part of its geometric
+   * fingerprint, e.g., the colors of its polygons (see {@link Fingerprint#ofAttributes(List,
+   * PropertyStorage)}). In contrast to {@link #fingerprint()} it is not cached since properties may
+   * be changed at any time.
+   *
+   * @param withStorage whether the properties of this csg itself are included (they are only
+   *     inherited by the polygons of the convex hull)
+   * @return the fingerprint of the attributes of this csg
+   */
+  Fingerprint attributeFingerprint(boolean withStorage) {
+    return Fingerprint.ofAttributes(polygons, withStorage ? storage : null);
+  }
+
   /**
    * Defines the CSg optimization type.
    *
@@ -199,6 +281,150 @@ public class CSG {
     return this;
   }
 
+  /**
+   * Defines the split plane selector used for building the BSP trees of CSG operations invoked on
+   * this csg.
+   *
+   * @param selector split plane selector
+   * @return this CSG
+   */
+  public CSG splitPlaneSelector(SplitPlaneSelector selector) {
+    this.setSplitPlaneSelector(selector);
+    return this;
+  }
+
+  /**
+   * Defines whether CSG operations invoked on this csg use multiple threads. In parallel mode the
+   * front and back subtrees of large BSP trees are built by separate fork/join tasks and the clip
+   * passes process the nodes of a tree as well as large fragment lists concurrently.
+   *
+   * @param parallel whether to use multiple threads
+   * @return this CSG
+   */
+  public CSG parallel(boolean parallel) {
+    this.setParallel(parallel);
+    return this;
+  }
+
+  /**
+   * Defines the cache used by CSG operations invoked on this csg. If a cache is defined, {@link
+   * #union(CSG)}, {@link #difference(CSG)}, {@link #intersect(CSG)} and {@link #hull()} return the
+   * cached result if the operation has already been executed with geometrically identical operands.
+   *
+   * @param cache the cache to use or {@code null} to use the default cache
+   * @return this CSG
+   */
+  public CSG cache(CSGCache cache) {
+    this.setCache(cache);
+    return this;
+  }
+
+  /**
+   * Defines whether the results of CSG operations invoked on this csg are post-processed with
+   * {@link #mergeCoplanarPolygons()}. This keeps the number of polygons bounded if many operations
+   * are chained, e.g., if dozens of holes are subtracted one after another.
+   *
+   * @param merge whether to merge coplanar fragments of the results
+   * @return this CSG
+   */
+  public CSG coplanarMerge(boolean merge) {
+    this.setCoplanarMerge(merge);
+    return this;
+  }
+
+  /**
+   * Defines the tolerance used by the STL and OBJ exporters of this csg. Vertices closer than the
+   * tolerance are welded and T-junctions are repaired before the polygons are written (see {@link
+   * #toMesh()}).
+   *
+   * @param tolerance maximum distance of welded vertices (positive)
+   * @return this CSG
+   */
+  public CSG weldTolerance(double tolerance) {
+    this.setWeldTolerance(tolerance);
+    return this;
+  }
+
+  /**
+   * Returns a csg that consists of the polygons of this csg with adjacent coplanar polygons of the
+   * same material merged into larger convex polygons. The solid is not changed, only the fragments
+   * created by splitting polygons in previous operations are regrouped. Vertices closer than
+   * {@link Plane#EPSILON} are welded, collinear vertices of merged polygons are removed. Polygons
+   * that cannot be merged are copied (see {@link Polygon#copy()}).
+   *
+   * @return a csg with merged coplanar polygons
+   */
+  public CSG mergeCoplanarPolygons() {
+    CSG result =
+        inheritSettings(fromPolygons(copies(CoplanarMerger.merge(this.polygons, isParallel()))));
+    result.storage = storage;
+    return result;
+  }
+
+  /**
+   * Defines the listener of CSG operations invoked on this csg. If a listener is defined, {@link
+   * #union(CSG)}, {@link #difference(CSG)}, {@link #intersect(CSG)}, their variants for prepared
+   * csgs and {@link #difference(List)} report their metrics (phase timings, BSP tree sizes, split
+   * polygons) to the listener (see {@link OperationMetrics}). Metrics are not collected if neither
+   * this csg nor the default settings define a listener.
+   *
+   * @param listener the listener to use or {@code null} to use the default listener
+   * @return this CSG
+   */
+  public CSG listener(CSGListener listener) {
+    this.setListener(listener);
+    return this;
+  }
+
+  /**
+   * Prepares this csg for being used as the second operand of many CSG operations. The BSP tree of
+   * this csg is built once (with the split plane selector and the parallel mode of this csg) and
+   * reused by {@link #union(PreparedCSG)}, {@link #difference(PreparedCSG)} and {@link
+   * #intersect(PreparedCSG)}.
+   *
+   * <blockquote>
+   *
+   * <pre>
+   *     PreparedCSG hole = holeCSG.prepare();
+   *
+   *     for (CSG plate : plates) {
+   *         results.add(plate.difference(hole));
+   *     }
+   * </pre>
+   *
+   * </blockquote>
+   *
+   * @return the prepared csg
+   */
+  public PreparedCSG prepare() {
+    return new PreparedCSG(this, new Node(polygons, getSplitPlaneSelector(), isParallel()));
+  }
+
+  /**
+   * Returns a deferred expression that consists of this csg only. Operations invoked on the
+   * returned expression are not executed immediately. Instead, they are recorded and evaluated on
+   * demand (see {@link LazyCSG}):
+   *
+   * <blockquote>
+   *
+   * <pre>
+   *     LazyCSG part = base.lazy();
+   *
+   *     for (CSG hole : holes) {
+   *         part = part.difference(hole);
+   *     }
+   *
+   *     String stl = part.toStlString(); // evaluates the expression
+   * </pre>
+   *
+   * </blockquote>
+   *
+   * @return a deferred expression that consists of this csg
+   */
+  public LazyCSG lazy() {
+    return LazyCSG.of(this);
+  }
+
   /**
    * Return a new CSG solid representing the union of this csg and the specified csg.
    *
@@ -225,18 +451,48 @@ public class CSG {
    * @return union of this csg and the specified csg
    */
   public CSG union(CSG csg) {
+    OperationMetrics metrics =
+        metrics(OperationMetrics.Operation.UNION, null, csg.polygons.size());
+    return report(metrics, cached(CSGCache.Operation.UNION, csg, () -> _union(csg, metrics)));
+  }
+
+  private CSG _union(CSG csg, OperationMetrics metrics) {
 
     switch (getOptType()) {
       case CSG_BOUND:
-        return _unionCSGBoundsOpt(csg);
+        metrics.path(Path.CSG_BOUND);
+        return _unionCSGBoundsOpt(csg, metrics);
       case POLYGON_BOUND:
-        return _unionPolygonBoundsOpt(csg);
+        metrics.path(Path.POLYGON_BOUND);
+        return _unionPolygonBoundsOpt(csg, metrics);
+      case MESH:
+        metrics.path(Path.MESH);
+        return result(
+            MeshBoolean.union(this.polygons, csg.polygons, isParallel(), metrics), metrics);
       default:
         //                return _unionIntersectOpt(csg);
-        return _unionNoOpt(csg);
+        metrics.path(Path.NO_OPT);
+        return _unionNoOpt(csg, metrics);
     }
   }
 
+  /**
+   * Return a new CSG solid representing the union of this csg and the specified prepared csg. The
+   * BSP tree of the prepared csg is reused, i.e., only the tree of this csg is built.
+   *
+   * <p><b>Note:</b> the optimization type of this csg is ignored.
+   *
+   * @param csg prepared csg
+   * @return union of this csg and the specified prepared csg
+   * @see #union(CSG)
+   * @see #prepare()
+   */
+  public CSG union(PreparedCSG csg) {
+    OperationMetrics metrics =
+        metrics(OperationMetrics.Operation.UNION, Path.PREPARED, csg.getCSG().polygons.size());
+    return report(metrics, _unionNoOpt(csg.newTree(metrics), metrics));
+  }
+
   /**
    * Returns a csg consisting of the polygons of this csg and the specified csg.
    *
@@ -251,12 +507,11 @@ public class CSG {
    */
   public CSG dumbUnion(CSG csg) {
 
-    CSG result = this.clone();
-    CSG other = csg.clone();
-
-    result.polygons.addAll(other.polygons);
+    List<Polygon> allPolygons = new ArrayList<>(polygons.size() + csg.polygons.size());
+    allPolygons.addAll(copies(this.polygons));
+    allPolygons.addAll(copies(csg.polygons));
 
-    return result;
+    return inheritSettings(fromPolygons(allPolygons));
   }
 
   /**
@@ -281,18 +536,51 @@ public class CSG {
    *
    * </blockquote>
    *
+   * <p>The operands are combined pairwise in a balanced tree, i.e., {@code N} operands are unioned
+   * in {@code log(N)} rounds instead of unioning each operand with the accumulated result. Operands
+   * are paired by the position of their bounds, so each union combines nearby parts. If this csg is
+   * in parallel mode (see {@link #parallel(boolean)}), the pairwise unions are executed by separate
+   * fork/join tasks.
+   *
    * @param csgs other csgs
    * @return union of this csg and the specified csgs
    */
   public CSG union(List<CSG> csgs) {
 
-    CSG result = this;
+    if (csgs.isEmpty()) {
+      return this;
+    }
+
+    List<CSG> operands = new ArrayList<>(csgs.size() + 1);
+    operands.add(this);
+    operands.addAll(csgs);
 
-    for (CSG csg : csgs) {
-      result = result.union(csg);
+    return unionAll(operands);
+  }
+
+  /**
+   * Returns the union of the specified csgs (see {@link #union(List)}). The unions are performed
+   * with the settings of this csg.
+   *
+   * @param csgs csgs to combine (must not be empty)
+   * @return the union of the specified csgs
+   */
+  private CSG unionAll(List<CSG> csgs) {
+    Vector3d[] centers = new Vector3d[csgs.size()];
+    Integer[] order = new Integer[csgs.size()];
+
+    for (int i = 0; i < centers.length; i++) {
+      centers[i] = csgs.get(i).getAabb().getCenter();
+      order[i] = i;
     }
 
-    return result;
+    UnionTask task = new UnionTask(this, csgs, centers, order, 0, order.length);
+
+    if (isParallel()) {
+      return ForkJoinPool.commonPool().invoke(task);
+    } else {
+      return task.invoke();
+    }
   }
 
   /**
@@ -330,8 +618,10 @@ public class CSG {
    * @return the convex hull of this csg
    */
   public CSG hull() {
-
-    return HullUtil.hull(this, storage);
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.HULL, null);
+    CSG result = cached(CSGCache.Operation.HULL, null, () -> HullUtil.hull(this, storage));
+    span.end(polygons.size(), result.polygons.size());
+    return result;
   }
 
   /**
@@ -345,15 +635,20 @@ public class CSG {
     CSG csgsUnion = new CSG();
     csgsUnion.storage = storage;
     csgsUnion.optType = optType;
-    csgsUnion.polygons = this.clone().polygons;
+    csgsUnion.splitPlaneSelector = splitPlaneSelector;
+    csgsUnion.parallel = parallel;
+    csgsUnion.cache = cache;
+    csgsUnion.listener = listener;
+    csgsUnion.coplanarMerge = coplanarMerge;
+    csgsUnion.weldTolerance = weldTolerance;
+    csgsUnion.polygons = new ArrayList<>(this.polygons);
 
     csgs.stream()
         .forEach(
             (csg) -> {
-              csgsUnion.polygons.addAll(csg.clone().polygons);
+              csgsUnion.polygons.addAll(csg.polygons);
             });
 
-    csgsUnion.polygons.forEach(p -> p.setStorage(storage));
     return csgsUnion.hull();
 
     //        CSG csgsUnion = this;
@@ -376,44 +671,106 @@ public class CSG {
     return hull(Arrays.asList(csgs));
   }
 
-  private CSG _unionCSGBoundsOpt(CSG csg) {
-    System.err.println(
-        "WARNING: using "
-            + CSG.OptType.NONE
-            + " since other optimization types missing for union operation.");
-    return _unionIntersectOpt(csg);
-  }
+  /**
+   * Optimizes the union by restricting the clipping to the overlap box of the bounds of both csgs.
+   * Polygons outside of the overlap box are outside of the other csg and are passed through as
+   * they are. The BSP trees of both csgs are still built from all polygons since they have to
+   * classify the polygons inside the overlap box.
+   *
+   * @param csg csg
+   * @param metrics metrics of the operation
+   * @return the union of this csg and the specified csg
+   */
+  private CSG _unionCSGBoundsOpt(CSG csg, OperationMetrics metrics) {
+    long start = metrics.start();
+    Aabb bounds = getAabb().expand(Plane.EPSILON);
+    Aabb otherBounds = csg.getAabb().expand(Plane.EPSILON);
+    metrics.lap(Phase.BOUNDS, start);
 
-  private CSG _unionPolygonBoundsOpt(CSG csg) {
-    List<Polygon> inner = new ArrayList<>();
-    List<Polygon> outer = new ArrayList<>();
+    List<Polygon> allPolygons = new ArrayList<>();
+
+    if (!bounds.intersects(otherBounds)) {
+      metrics.path(Path.DISJOINT);
+      allPolygons.addAll(this.polygons);
+      allPolygons.addAll(csg.polygons);
+      return result(allPolygons, metrics);
+    }
 
-    Bounds bounds = csg.getBounds();
+    Node a = newTree(this.polygons, metrics);
+    Node b = newTree(csg.polygons, metrics);
 
-    this.polygons
-        .stream()
-        .forEach(
-            (p) -> {
-              if (bounds.intersects(p.getBounds())) {
-                inner.add(p);
-              } else {
-                outer.add(p);
-              }
-            });
+    // the polygons of a csg are inside of its bounds, i.e., a polygon intersects
+    // the overlap box iff it intersects the bounds of the other csg
+    start = metrics.start();
+    allPolygons.addAll(clip(b, otherBounds, this.polygons, false));
+    start = metrics.lap(Phase.CLIP, start);
+    allPolygons.addAll(clip(a, bounds, csg.polygons, true));
+    metrics.lap(Phase.CLIP, start);
+
+    return result(allPolygons, metrics);
+  }
+
+  /**
+   * Optimizes the union by clipping only the polygons that may touch the surface of the other csg.
+   * These are found with a {@link PolygonBvh} over the polygons of the other csg. The remaining
+   * polygons are either completely inside or completely outside of the other csg, which is decided
+   * by classifying a single point of each polygon with the BSP tree of the other csg.
+   *
+   * @param csg csg
+   * @param metrics metrics of the operation
+   * @return the union of this csg and the specified csg
+   */
+  private CSG _unionPolygonBoundsOpt(CSG csg, OperationMetrics metrics) {
+    Node a = newTree(this.polygons, metrics);
+    Node b = newTree(csg.polygons, metrics);
+
+    long start = metrics.start();
+    PolygonBvh bvh = new PolygonBvh(this.polygons);
+    PolygonBvh otherBvh = new PolygonBvh(csg.polygons);
 
     List<Polygon> allPolygons = new ArrayList<>();
 
-    if (!inner.isEmpty()) {
-      CSG innerCSG = CSG.fromPolygons(inner);
+    // a.clipTo(b)
+    List<Polygon> inner = new ArrayList<>();
+    partition(this.polygons, otherBvh, b, inner, allPolygons);
+    start = metrics.lap(Phase.BOUNDS, start);
+    allPolygons.addAll(b.clipPolygons(inner));
+    start = metrics.lap(Phase.CLIP, start);
+
+    // b.clipTo(a); b.invert(); b.clipTo(a); b.invert()
+    List<Polygon> otherInner = new ArrayList<>();
+    partition(csg.polygons, bvh, a, otherInner, allPolygons);
+    start = metrics.lap(Phase.BOUNDS, start);
+    allPolygons.addAll(inverse(a.clipPolygons(inverse(a.clipPolygons(otherInner)))));
+    metrics.lap(Phase.CLIP, start);
+
+    return result(allPolygons, metrics);
+  }
 
-      allPolygons.addAll(outer);
-      allPolygons.addAll(innerCSG._unionNoOpt(csg).polygons);
-    } else {
-      allPolygons.addAll(this.polygons);
-      allPolygons.addAll(csg.polygons);
+  /**
+   * Partitions the specified polygons into polygons that may touch the surface of a solid and
+   * polygons that do not. The latter are only added to {@code outside} if they are outside of the
+   * solid.
+   *
+   * @param polygons polygons to partition
+   * @param bvh hierarchy over the polygons of the solid
+   * @param tree BSP tree of the solid
+   * @param inner polygons that may touch the surface of the solid (output)
+   * @param outside polygons that are outside of the solid (output)
+   */
+  private static void partition(
+      List<Polygon> polygons,
+      PolygonBvh bvh,
+      Node tree,
+      List<Polygon> inner,
+      List<Polygon> outside) {
+    for (Polygon p : polygons) {
+      if (bvh.intersects(p)) {
+        inner.add(p);
+      } else if (!tree.contains(p.centroid())) {
+        outside.add(p);
+      }
     }
-
-    return CSG.fromPolygons(allPolygons).optimization(getOptType());
   }
 
   /**
@@ -422,15 +779,16 @@ public class CSG {
    * performed.
    *
    * @param csg csg
+   * @param metrics metrics of the operation
    * @return the union of this csg and the specified csg
    */
-  private CSG _unionIntersectOpt(CSG csg) {
+  private CSG _unionIntersectOpt(CSG csg, OperationMetrics metrics) {
     boolean intersects = false;
 
-    Bounds bounds = csg.getBounds();
+    Aabb bounds = csg.getAabb();
 
     for (Polygon p : polygons) {
-      if (bounds.intersects(p.getBounds())) {
+      if (bounds.intersects(p.getAabb())) {
         intersects = true;
         break;
       }
@@ -439,25 +797,44 @@ public class CSG {
     List<Polygon> allPolygons = new ArrayList<>();
 
     if (intersects) {
-      return _unionNoOpt(csg);
+      return _unionNoOpt(csg, metrics);
     } else {
       allPolygons.addAll(this.polygons);
       allPolygons.addAll(csg.polygons);
     }
 
-    return CSG.fromPolygons(allPolygons).optimization(getOptType());
+    return result(allPolygons, metrics);
   }
 
-  private CSG _unionNoOpt(CSG csg) {
-    Node a = new Node(this.clone().polygons);
-    Node b = new Node(csg.clone().polygons);
+  private CSG _unionNoOpt(CSG csg, OperationMetrics metrics) {
+    return _unionNoOpt(newTree(csg.polygons, metrics), metrics);
+  }
+
+  /**
+   * Returns the union of this csg and the solid represented by the specified BSP tree.
+   *
+   * @param b BSP tree of the other operand (modified by this method)
+   * @param metrics metrics of the operation
+   * @return the union of this csg and the specified tree
+   */
+  private CSG _unionNoOpt(Node b, OperationMetrics metrics) {
+    Node a = newTree(this.polygons, metrics);
+    long start = metrics.start();
     a.clipTo(b);
+    start = metrics.lap(Phase.CLIP, start);
     b.clipTo(a);
+    start = metrics.lap(Phase.CLIP, start);
     b.invert();
+    start = metrics.lap(Phase.INVERT, start);
     b.clipTo(a);
+    start = metrics.lap(Phase.CLIP, start);
     b.invert();
-    a.build(b.allPolygons());
-    return fromPolygons(a.allPolygons()).optimization(getOptType());
+    start = metrics.lap(Phase.INVERT, start);
+    a.build(b);
+    start = metrics.lap(Phase.BUILD, start);
+    List<Polygon> allPolygons = a.allPolygons();
+    metrics.lap(Phase.ALL_POLYGONS, start);
+    return result(allPolygons, metrics);
   }
 
   /**
@@ -482,6 +859,13 @@ public class CSG {
    *
    * </blockquote>
    *
+   * <p>The specified csgs are not unioned. Instead, each part of this csg is only clipped against
+   * the csgs whose bounds it intersects, and each csg is only clipped against this csg and the
+   * csgs it overlaps. The overlapping csgs are found with a bounding volume hierarchy over the
+   * bounds of the csgs. This is much cheaper than a single difference with the union of all csgs if
+   * the csgs are small compared to this csg, e.g., holes in a plate. Csgs that do not touch the
+   * bounds of this csg are ignored.
+   *
    * @param csgs other csgs
    * @return difference of this csg and the specified csgs
    */
@@ -491,13 +875,192 @@ public class CSG {
       return this.clone();
     }
 
-    CSG csgsUnion = csgs.get(0);
+    if (csgs.size() == 1) {
+      return difference(csgs.get(0));
+    }
 
-    for (int i = 1; i < csgs.size(); i++) {
-      csgsUnion = csgsUnion.union(csgs.get(i));
+    int operandPolygons = 0;
+    for (CSG csg : csgs) {
+      operandPolygons += csg.polygons.size();
     }
 
-    return difference(csgsUnion);
+    OperationMetrics metrics =
+        metrics(OperationMetrics.Operation.DIFFERENCE, Path.BATCH, operandPolygons);
+    return report(metrics, _differenceBatch(csgs, metrics));
+  }
+
+  /**
+   * Returns the difference of this csg and the union of the specified csgs without computing the
+   * union.
+   *
+   * <p>The result consists of the polygons of this csg outside of all csgs and the (flipped)
+   * polygons of the csgs inside this csg and outside of all other csgs. Overlapping coplanar
+   * polygons of two csgs are handled as in {@link #union(CSG)}, i.e., only the polygons of the
+   * first of both csgs are kept.
+   *
+   * @param csgs csgs to subtract
+   * @param metrics metrics of the operation
+   * @return the difference of this csg and the specified csgs
+   */
+  private CSG _differenceBatch(List<CSG> csgs, OperationMetrics metrics) {
+    long start = metrics.start();
+    Aabb bounds = getAabb().expand(Plane.EPSILON);
+
+    List<CSG> tools = new ArrayList<>();
+    List<Aabb> toolBounds = new ArrayList<>();
+
+    for (CSG csg : csgs) {
+      Aabb b = csg.getAabb().expand(Plane.EPSILON);
+      if (!csg.polygons.isEmpty() && b.intersects(bounds)) {
+        tools.add(csg);
+        toolBounds.add(b);
+      }
+    }
+
+    if (tools.isEmpty()) {
+      metrics.lap(Phase.BOUNDS, start);
+      return result(new ArrayList<>(polygons), metrics);
+    }
+
+    PolygonBvh index = PolygonBvh.of(toolBounds);
+    metrics.lap(Phase.BOUNDS, start);
+
+    Node a = newTree(this.polygons, metrics);
+    start = metrics.start();
+    a.invert();
+    metrics.lap(Phase.INVERT, start);
+
+    Stream<CSG> toolStream = isParallel() ? tools.parallelStream() : tools.stream();
+    List<Node> trees =
+        toolStream.map(tool -> newTree(tool.polygons, metrics)).collect(Collectors.toList());
+
+    start = metrics.start();
+    a.clipTo(trees, toolBounds, index);
+    start = metrics.lap(Phase.CLIP, start);
+
+    Stream<Integer> indexStream =
+        isParallel()
+            ? IntStream.range(0, tools.size()).boxed().parallel()
+            : IntStream.range(0, tools.size()).boxed();
+
+    List<List<Polygon>> toolPolygons =
+        indexStream
+            .map(
+                i -> {
+                  // polygons outside of the bounds of this csg are outside of this csg
+                  List<Polygon> toolP = new ArrayList<>();
+                  for (Polygon p : tools.get(i).polygons) {
+                    if (bounds.intersects(p.getAabb())) {
+                      toolP.add(p);
+                    }
+                  }
+
+                  // a is inverted, i.e., this removes the parts outside of this csg
+                  toolP = a.clipPolygons(toolP);
+                  toolP = inverse(a.clipPolygons(inverse(toolP)));
+
+                  IntList overlapping = new IntList();
+                  index.overlapping(toolBounds.get(i), overlapping);
+
+                  for (int k = 0; k < overlapping.size(); k++) {
+                    int j = overlapping.get(k);
+                    if (j != i) {
+                      // the polygons of the first csg of a pair are kept if coplanar
+                      toolP = clip(trees.get(j), toolBounds.get(j), toolP, j < i);
+                    }
+                  }
+
+                  return toolP;
+                })
+            .collect(Collectors.toList());
+
+    start = metrics.lap(Phase.CLIP, start);
+    a.invert();
+    start = metrics.lap(Phase.INVERT, start);
+
+    List<Polygon> allPolygons = a.allPolygons();
+
+    for (List<Polygon> toolP : toolPolygons) {
+      for (Polygon p : toolP) {
+        allPolygons.add(p.inverse());
+      }
+    }
+
+    metrics.lap(Phase.ALL_POLYGONS, start);
+
+    return result(allPolygons, metrics);
+  }
+
+  /**
+   * Removes the parts of the specified polygons that are inside the specified BSP tree. Polygons
+   * outside of the specified bounds are not clipped.
+   *
+   * <p>If {@code removeCoplanar} is {@code true}, the polygons are inverted, clipped again and
+   * inverted back. This removes polygons that are coplanar with polygons of the tree (see {@link
+   * #union(CSG)}).
+   *
+   * @param tree BSP tree to clip against
+   * @param bounds bounds of the solid represented by the tree
+   * @param polygons polygons to clip
+   * @param removeCoplanar whether to remove coplanar polygons
+   * @return the clipped polygons
+   */
+  private static List<Polygon> clip(
+      Node tree, Aabb bounds, List<Polygon> polygons, boolean removeCoplanar) {
+    List<Polygon> inside = new ArrayList<>();
+    List<Polygon> outside = new ArrayList<>();
+
+    for (Polygon p : polygons) {
+      if (bounds.intersects(p.getAabb())) {
+        inside.add(p);
+      } else {
+        outside.add(p);
+      }
+    }
+
+    if (inside.isEmpty()) {
+      return polygons;
+    }
+
+    inside = tree.clipPolygons(inside);
+
+    if (removeCoplanar) {
+      inside = inverse(tree.clipPolygons(inverse(inside)));
+    }
+
+    outside.addAll(inside);
+
+    return outside;
+  }
+
+  /**
+   * Returns copies of the specified polygons that share their vertices with the specified polygons
+   * (see {@link Polygon#copy()}). Results are built from copies so that modifying the polygons of
+   * a result does not modify the operands or cached results.
+   *
+   * @param polygons polygons
+   * @return copies of the specified polygons
+   */
+  static List<Polygon> copies(List<Polygon> polygons) {
+    List<Polygon> result = new ArrayList<>(polygons.size());
+    for (Polygon p : polygons) {
+      result.add(p.copy());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the inverses of the specified polygons (see {@link Polygon#inverse()}).
+   *
+   * @param polygons polygons
+   * @return the inverses of the specified polygons
+   */
+  private static List<Polygon> inverse(List<Polygon> polygons) {
+    List<Polygon> result = new ArrayList<>(polygons.size());
+    for (Polygon p : polygons) {
+      result.add(p.inverse());
+    }
+    return result;
   }
 
   /**
@@ -556,68 +1119,134 @@ public class CSG {
    * @return difference of this csg and the specified csg
    */
   public CSG difference(CSG csg) {
+    OperationMetrics metrics =
+        metrics(OperationMetrics.Operation.DIFFERENCE, null, csg.polygons.size());
+    return report(
+        metrics, cached(CSGCache.Operation.DIFFERENCE, csg, () -> _difference(csg, metrics)));
+  }
+
+  private CSG _difference(CSG csg, OperationMetrics metrics) {
 
     switch (getOptType()) {
       case CSG_BOUND:
-        return _differenceCSGBoundsOpt(csg);
+        metrics.path(Path.CSG_BOUND);
+        return _differenceCSGBoundsOpt(csg, metrics);
       case POLYGON_BOUND:
-        return _differencePolygonBoundsOpt(csg);
+        metrics.path(Path.POLYGON_BOUND);
+        return _differencePolygonBoundsOpt(csg, metrics);
+      case MESH:
+        metrics.path(Path.MESH);
+        return result(
+            MeshBoolean.difference(this.polygons, csg.polygons, isParallel(), metrics), metrics);
       default:
-        return _differenceNoOpt(csg);
+        metrics.path(Path.NO_OPT);
+        return _differenceNoOpt(csg, metrics);
     }
   }
 
-  private CSG _differenceCSGBoundsOpt(CSG csg) {
+  /**
+   * Return a new CSG solid representing the difference of this csg and the specified prepared csg.
+   * The BSP tree of the prepared csg is reused, i.e., only the tree of this csg is built.
+   *
+   * <p><b>Note:</b> the optimization type of this csg is ignored.
+   *
+   * @param csg prepared csg
+   * @return difference of this csg and the specified prepared csg
+   * @see #difference(CSG)
+   * @see #prepare()
+   */
+  public CSG difference(PreparedCSG csg) {
+    OperationMetrics metrics =
+        metrics(
+            OperationMetrics.Operation.DIFFERENCE, Path.PREPARED, csg.getCSG().polygons.size());
+    return report(metrics, _differenceNoOpt(csg.newTree(metrics), metrics));
+  }
+
+  private CSG _differenceCSGBoundsOpt(CSG csg, OperationMetrics metrics) {
     CSG b = csg;
 
-    CSG a1 = this._differenceNoOpt(csg.getBounds().toCSG());
-    CSG a2 = this.intersect(csg.getBounds().toCSG());
+    CSG a1 = this._differenceNoOpt(csg.getBounds().toCSG(), metrics);
+    CSG bounds = csg.getBounds().toCSG();
+    CSG a2 = _intersectNoOpt(newTree(bounds.polygons, metrics), metrics);
 
-    return a2._differenceNoOpt(b)._unionIntersectOpt(a1).optimization(getOptType());
+    return inheritSettings(a2._differenceNoOpt(b, metrics)._unionIntersectOpt(a1, metrics));
   }
 
-  private CSG _differencePolygonBoundsOpt(CSG csg) {
-    List<Polygon> inner = new ArrayList<>();
-    List<Polygon> outer = new ArrayList<>();
+  /**
+   * Optimizes the difference by clipping only the polygons that may touch the surface of the other
+   * csg (see {@link #_unionPolygonBoundsOpt(CSG)}).
+   *
+   * @param csg csg
+   * @param metrics metrics of the operation
+   * @return the difference of this csg and the specified csg
+   */
+  private CSG _differencePolygonBoundsOpt(CSG csg, OperationMetrics metrics) {
+    Node a = newTree(this.polygons, metrics);
+    Node b = newTree(csg.polygons, metrics);
 
-    Bounds bounds = csg.getBounds();
+    long start = metrics.start();
+    PolygonBvh bvh = new PolygonBvh(this.polygons);
+    PolygonBvh otherBvh = new PolygonBvh(csg.polygons);
 
-    this.polygons
-        .stream()
-        .forEach(
-            (p) -> {
-              if (bounds.intersects(p.getBounds())) {
-                inner.add(p);
-              } else {
-                outer.add(p);
-              }
-            });
+    List<Polygon> allPolygons = new ArrayList<>();
 
-    CSG innerCSG = CSG.fromPolygons(inner);
+    // a.invert(); a.clipTo(b); ... a.invert()
+    List<Polygon> inner = new ArrayList<>();
+    partition(this.polygons, otherBvh, b, inner, allPolygons);
+    start = metrics.lap(Phase.BOUNDS, start);
+    allPolygons.addAll(inverse(b.clipPolygons(inverse(inner))));
+    start = metrics.lap(Phase.CLIP, start);
 
-    List<Polygon> allPolygons = new ArrayList<>();
-    allPolygons.addAll(outer);
-    allPolygons.addAll(innerCSG._differenceNoOpt(csg).polygons);
+    // b.clipTo(a); b.invert(); b.clipTo(a); b.invert(); ... a.invert()
+    a.invert();
+    start = metrics.lap(Phase.INVERT, start);
+    List<Polygon> otherInner = new ArrayList<>();
+    List<Polygon> otherInside = new ArrayList<>();
+    partition(csg.polygons, bvh, a, otherInner, otherInside);
+    start = metrics.lap(Phase.BOUNDS, start);
+    otherInside.addAll(inverse(a.clipPolygons(inverse(a.clipPolygons(otherInner)))));
+    allPolygons.addAll(inverse(otherInside));
+    metrics.lap(Phase.CLIP, start);
+
+    return result(allPolygons, metrics);
+  }
 
-    return CSG.fromPolygons(allPolygons).optimization(getOptType());
+  private CSG _differenceNoOpt(CSG csg, OperationMetrics metrics) {
+    return _differenceNoOpt(newTree(csg.polygons, metrics), metrics);
   }
 
-  private CSG _differenceNoOpt(CSG csg) {
+  /**
+   * Returns the difference of this csg and the solid represented by the specified BSP tree.
+   *
+   * @param b BSP tree of the other operand (modified by this method)
+   * @param metrics metrics of the operation
+   * @return the difference of this csg and the specified tree
+   */
+  private CSG _differenceNoOpt(Node b, OperationMetrics metrics) {
 
-    Node a = new Node(this.clone().polygons);
-    Node b = new Node(csg.clone().polygons);
+    Node a = newTree(this.polygons, metrics);
 
+    long start = metrics.start();
     a.invert();
+    start = metrics.lap(Phase.INVERT, start);
     a.clipTo(b);
+    start = metrics.lap(Phase.CLIP, start);
     b.clipTo(a);
+    start = metrics.lap(Phase.CLIP, start);
     b.invert();
+    start = metrics.lap(Phase.INVERT, start);
     b.clipTo(a);
+    start = metrics.lap(Phase.CLIP, start);
     b.invert();
-    a.build(b.allPolygons());
+    start = metrics.lap(Phase.INVERT, start);
+    a.build(b);
+    start = metrics.lap(Phase.BUILD, start);
     a.invert();
+    start = metrics.lap(Phase.INVERT, start);
+    List<Polygon> allPolygons = a.allPolygons();
+    metrics.lap(Phase.ALL_POLYGONS, start);
 
-    CSG csgA = fromPolygons(a.allPolygons()).optimization(getOptType());
-    return csgA;
+    return result(allPolygons, metrics);
   }
 
   /**
@@ -647,17 +1276,104 @@ public class CSG {
    * @return intersection of this csg and the specified csg
    */
   public CSG intersect(CSG csg) {
+    OperationMetrics metrics =
+        metrics(OperationMetrics.Operation.INTERSECTION, null, csg.polygons.size());
+    return report(
+        metrics, cached(CSGCache.Operation.INTERSECTION, csg, () -> _intersect(csg, metrics)));
+  }
 
-    Node a = new Node(this.clone().polygons);
-    Node b = new Node(csg.clone().polygons);
+  private CSG _intersect(CSG csg, OperationMetrics metrics) {
+    if (getOptType() == OptType.MESH) {
+      metrics.path(Path.MESH);
+      return result(
+          MeshBoolean.intersect(this.polygons, csg.polygons, isParallel(), metrics), metrics);
+    }
+    metrics.path(Path.NO_OPT);
+    return _intersectNoOpt(newTree(csg.polygons, metrics), metrics);
+  }
+
+  /**
+   * Executes the specified operation or returns its cached result if this csg has a cache (see
+   * {@link #cache(CSGCache)}). Cached results are returned as a new csg with the settings of this
+   * csg that consists of copies of the polygons of the cached result.
+   *
+   * @param type operation type
+   * @param csg second operand or {@code null}
+   * @param operation the operation
+   * @return the result of the operation
+   */
+  private CSG cached(CSGCache.Operation type, CSG csg, Supplier<CSG> operation) {
+    CSGCache c = getCache();
+
+    if (c == null) {
+      return operation.get();
+    }
+
+    // convex hulls are not merged and do not depend on the optimization or the split planes
+    boolean hull = type == CSGCache.Operation.HULL;
+    CSG cachedResult =
+        c.get(
+            type,
+            this,
+            csg,
+            !hull && isCoplanarMerge(),
+            hull ? null : getOptType(),
+            hull ? null : getSplitPlaneSelector(),
+            operation);
+    CSG result = inheritSettings(fromPolygons(copies(cachedResult.polygons)));
+    result.storage = cachedResult.storage;
+    result.aabb = cachedResult.aabb;
+    result.fingerprint = cachedResult.fingerprint;
+
+    return result;
+  }
+
+  /**
+   * Return a new CSG solid representing the intersection of this csg and the specified prepared
+   * csg. The BSP tree of the prepared csg is reused, i.e., only the tree of this csg is built.
+   *
+   * <p><b>Note:</b> the optimization type of this csg is ignored.
+   *
+   * @param csg prepared csg
+   * @return intersection of this csg and the specified prepared csg
+   * @see #intersect(CSG)
+   * @see #prepare()
+   */
+  public CSG intersect(PreparedCSG csg) {
+    OperationMetrics metrics =
+        metrics(
+            OperationMetrics.Operation.INTERSECTION, Path.PREPARED, csg.getCSG().polygons.size());
+    return report(metrics, _intersectNoOpt(csg.newTree(metrics), metrics));
+  }
+
+  /**
+   * Returns the intersection of this csg and the solid represented by the specified BSP tree.
+   *
+   * @param b BSP tree of the other operand (modified by this method)
+   * @param metrics metrics of the operation
+   * @return the intersection of this csg and the specified tree
+   */
+  private CSG _intersectNoOpt(Node b, OperationMetrics metrics) {
+
+    Node a = newTree(this.polygons, metrics);
+    long start = metrics.start();
     a.invert();
+    start = metrics.lap(Phase.INVERT, start);
     b.clipTo(a);
+    start = metrics.lap(Phase.CLIP, start);
     b.invert();
+    start = metrics.lap(Phase.INVERT, start);
     a.clipTo(b);
+    start = metrics.lap(Phase.CLIP, start);
     b.clipTo(a);
-    a.build(b.allPolygons());
+    start = metrics.lap(Phase.CLIP, start);
+    a.build(b);
+    start = metrics.lap(Phase.BUILD, start);
     a.invert();
-    return fromPolygons(a.allPolygons()).optimization(getOptType());
+    start = metrics.lap(Phase.INVERT, start);
+    List<Polygon> allPolygons = a.allPolygons();
+    metrics.lap(Phase.ALL_POLYGONS, start);
+    return result(allPolygons, metrics);
   }
 
   /**
@@ -692,13 +1408,7 @@ public class CSG {
       return this.clone();
     }
 
-    CSG csgsUnion = csgs.get(0);
-
-    for (int i = 1; i < csgs.size(); i++) {
-      csgsUnion = csgsUnion.union(csgs.get(i));
-    }
-
-    return intersect(csgsUnion);
+    return intersect(unionAll(csgs));
   }
 
   /**
@@ -750,17 +1460,25 @@ public class CSG {
    * @return the specified string builder
    */
   public StringBuilder toStlString(StringBuilder sb) {
-    sb.append("solid v3d.csg\n");
-    this.polygons
-        .stream()
-        .forEach(
-            (Polygon p) -> {
-              p.toStlString(sb);
-            });
-    sb.append("endsolid v3d.csg\n");
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.STL_EXPORT, null);
+    int start = sb.length();
+    toMesh().appendStl(sb);
+    span.end(polygons.size(), sb.length() - start);
     return sb;
   }
 
+  /**
+   * Returns an indexed mesh of this csg that is used by the STL and OBJ exporters. Vertices closer
+   * than the weld tolerance (see {@link #weldTolerance(double)}) are welded and T-junctions are
+   * repaired, i.e., the mesh of a closed csg is watertight.
+   *
+   * @return packed mesh with shared vertices
+   * @see PackedMesh#fromCSG(CSG, double)
+   */
+  public PackedMesh toMesh() {
+    return PackedMesh.fromCSG(this, getWeldTolerance());
+  }
+
   public CSG color(Color c) {
 
     CSG result = this.clone();
@@ -782,114 +1500,15 @@ public class CSG {
       throw new UnsupportedOperationException("maxNumberOfVerts > 3 not supported yet");
     }
 
-    StringBuilder objSb = new StringBuilder();
-
-    objSb.append("mtllib " + ObjFile.MTL_NAME);
-
-    objSb.append("# Group").append("\n");
-    objSb.append("g v3d.csg\n");
-
-    class PolygonStruct {
-
-      PropertyStorage storage;
-      List<Integer> indices;
-      String materialName;
-
-      public PolygonStruct(PropertyStorage storage, List<Integer> indices, String materialName) {
-        this.storage = storage;
-        this.indices = indices;
-        this.materialName = materialName;
-      }
-    }
-
-    List<Vertex> vertices = new ArrayList<>();
-    List<PolygonStruct> indices = new ArrayList<>();
-
-    objSb.append("\n# Vertices\n");
-
-    Map<PropertyStorage, Integer> materialNames = new HashMap<>();
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.OBJ_EXPORT, null);
 
-    int materialIndex = 0;
-
-    for (Polygon p : polygons) {
-      List<Integer> polyIndices = new ArrayList<>();
-
-      p.vertices
-          .stream()
-          .forEach(
-              (v) -> {
-                if (!vertices.contains(v)) {
-                  vertices.add(v);
-                  v.toObjString(objSb);
-                  polyIndices.add(vertices.size());
-                } else {
-                  polyIndices.add(vertices.indexOf(v) + 1);
-                }
-              });
-
-      if (!materialNames.containsKey(p.getStorage())) {
-        materialIndex++;
-        materialNames.put(p.getStorage(), materialIndex);
-        p.getStorage().set("material:name", materialIndex);
-      }
-
-      indices.add(
-          new PolygonStruct(
-              p.getStorage(), polyIndices, "material-" + materialNames.get(p.getStorage())));
-    }
-
-    objSb.append("\n# Faces").append("\n");
-
-    for (PolygonStruct ps : indices) {
-
-      // add mtl info
-      ps.storage
-          .getValue("material:color")
-          .ifPresent((v) -> objSb.append("usemtl ").append(ps.materialName).append("\n"));
-
-      // we triangulate the polygon to ensure
-      // compatibility with 3d printer software
-      List<Integer> pVerts = ps.indices;
-      int index1 = pVerts.get(0);
-      for (int i = 0; i < pVerts.size() - 2; i++) {
-        int index2 = pVerts.get(i + 1);
-        int index3 = pVerts.get(i + 2);
-
-        objSb
-            .append("f ")
-            .append(index1)
-            .append(" ")
-            .append(index2)
-            .append(" ")
-            .append(index3)
-            .append("\n");
-      }
-      //
-      //            objSb.append("f ");
-      //            for (int i = 0; i < pVerts.size(); i++) {
-      //                objSb.append(pVerts.get(i)).append(" ");
-      //            }
-      objSb.append("\n");
-    }
-
-    objSb.append("\n# End Group v3d.csg").append("\n");
-
-    StringBuilder mtlSb = new StringBuilder();
+    // triangles are created by the mesh to ensure
+    // compatibility with 3d printer software
+    ObjFile obj = toMesh().createObj();
 
-    materialNames
-        .keySet()
-        .forEach(
-            s -> {
-              if (s.contains("material:color")) {
-                mtlSb
-                    .append("newmtl material-")
-                    .append(s.getValue("material:name").get())
-                    .append("\n");
-                mtlSb.append("Kd ").append(s.getValue("material:color").get()).append("\n");
-              }
-            });
+    span.end(polygons.size(), obj.getObj().length() + obj.getMtl().length());
 
-    return new ObjFile(objSb.toString(), mtlSb.toString());
+    return obj;
   }
 
   /**
@@ -899,67 +1518,10 @@ public class CSG {
    * @return the specified string builder
    */
   public StringBuilder toObjString(StringBuilder sb) {
-    sb.append("# Group").append("\n");
-    sb.append("g v3d.csg\n");
-
-    class PolygonStruct {
-
-      PropertyStorage storage;
-      List<Integer> indices;
-      String materialName;
-
-      public PolygonStruct(PropertyStorage storage, List<Integer> indices, String materialName) {
-        this.storage = storage;
-        this.indices = indices;
-        this.materialName = materialName;
-      }
-    }
-
-    List<Vertex> vertices = new ArrayList<>();
-    List<PolygonStruct> indices = new ArrayList<>();
-
-    sb.append("\n# Vertices\n");
-
-    for (Polygon p : polygons) {
-      List<Integer> polyIndices = new ArrayList<>();
-
-      p.vertices
-          .stream()
-          .forEach(
-              (v) -> {
-                if (!vertices.contains(v)) {
-                  vertices.add(v);
-                  v.toObjString(sb);
-                  polyIndices.add(vertices.size());
-                } else {
-                  polyIndices.add(vertices.indexOf(v) + 1);
-                }
-              });
-    }
-
-    sb.append("\n# Faces").append("\n");
-
-    for (PolygonStruct ps : indices) {
-      // we triangulate the polygon to ensure
-      // compatibility with 3d printer software
-      List<Integer> pVerts = ps.indices;
-      int index1 = pVerts.get(0);
-      for (int i = 0; i < pVerts.size() - 2; i++) {
-        int index2 = pVerts.get(i + 1);
-        int index3 = pVerts.get(i + 2);
-
-        sb.append("f ")
-            .append(index1)
-            .append(" ")
-            .append(index2)
-            .append(" ")
-            .append(index3)
-            .append("\n");
-      }
-    }
-
-    sb.append("\n# End Group v3d.csg").append("\n");
-
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.OBJ_EXPORT, null);
+    int start = sb.length();
+    toMesh().appendObj(sb, null);
+    span.end(polygons.size(), sb.length() - start);
     return sb;
   }
 
@@ -992,7 +1554,7 @@ public class CSG {
     List<Polygon> newpolygons =
         this.polygons.stream().map(p -> p.transformed(transform)).collect(Collectors.toList());
 
-    CSG result = CSG.fromPolygons(newpolygons).optimization(getOptType());
+    CSG result = inheritSettings(CSG.fromPolygons(newpolygons));
 
     result.storage = storage;
 
@@ -1158,53 +1720,42 @@ public class CSG {
   /**
    * Returns the bounds of this csg.
    *
+   * <p><b>Note:</b> the bounds are computed on first use and cached (polygons of a csg must not be
+   * modified in place).
+   *
    * @return bouds of this csg
    */
   public Bounds getBounds() {
+    return getAabb().toBounds();
+  }
 
-    if (polygons.isEmpty()) {
-      return new Bounds(Vector3d.ZERO, Vector3d.ZERO);
-    }
-
-    Vector3d initial = polygons.get(0).vertices.get(0).pos;
-
-    double minX = initial.x();
-    double minY = initial.y();
-    double minZ = initial.z();
-
-    double maxX = initial.x();
-    double maxY = initial.y();
-    double maxZ = initial.z();
-
-    for (Polygon p : getPolygons()) {
-
-      for (int i = 0; i < p.vertices.size(); i++) {
-
-        Vertex vert = p.vertices.get(i);
-
-        if (vert.pos.x() < minX) {
-          minX = vert.pos.x();
-        }
-        if (vert.pos.y() < minY) {
-          minY = vert.pos.y();
-        }
-        if (vert.pos.z() < minZ) {
-          minZ = vert.pos.z();
+  /**
+   * Returns the bounding box of this csg. The box is computed on first use by merging the cached
+   * boxes of the polygons (in parallel for large csgs).
+   *
+   * @return bounding box of this csg
+   */
+  Aabb getAabb() {
+    Aabb result = aabb;
+
+    if (result == null) {
+      if (polygons.isEmpty()) {
+        result = Aabb.ZERO;
+      } else {
+        Stream<Polygon> polygonStream;
+
+        if (polygons.size() > 200) {
+          polygonStream = polygons.parallelStream();
+        } else {
+          polygonStream = polygons.stream();
         }
 
-        if (vert.pos.x() > maxX) {
-          maxX = vert.pos.x();
-        }
-        if (vert.pos.y() > maxY) {
-          maxY = vert.pos.y();
-        }
-        if (vert.pos.z() > maxZ) {
-          maxZ = vert.pos.z();
-        }
-      } // end for vertices
-    } // end for polygon
+        result = polygonStream.map(Polygon::getAabb).reduce(Aabb::union).get();
+      }
+      aabb = result;
+    }
 
-    return new Bounds(Vector3d.xyz(minX, minY, minZ), Vector3d.xyz(maxX, maxY, maxZ));
+    return result;
   }
 
   /** @return the optType */
@@ -1222,9 +1773,296 @@ public class CSG {
     this.optType = optType;
   }
 
+  /**
+   * Copies the settings of this csg (optimization type, split plane selector, parallel mode,
+   * cache, listener, coplanar merging) to the specified result of an operation.
+   *
+   * @param result result of an operation invoked on this csg
+   * @return the specified csg
+   */
+  CSG inheritSettings(CSG result) {
+    result.setOptType(getOptType());
+    result.setSplitPlaneSelector(splitPlaneSelector);
+    result.parallel = parallel;
+    result.cache = cache;
+    result.listener = listener;
+    result.coplanarMerge = coplanarMerge;
+    result.weldTolerance = weldTolerance;
+    return result;
+  }
+
+  /** @return the split plane selector */
+  private SplitPlaneSelector getSplitPlaneSelector() {
+    return splitPlaneSelector != null ? splitPlaneSelector : defaultSplitPlaneSelector;
+  }
+
+  /** @param selector the default split plane selector to set */
+  public static void setDefaultSplitPlaneSelector(SplitPlaneSelector selector) {
+    defaultSplitPlaneSelector = selector;
+  }
+
+  /** @param selector the split plane selector to set */
+  public void setSplitPlaneSelector(SplitPlaneSelector selector) {
+    this.splitPlaneSelector = selector;
+  }
+
+  /** @return whether operations invoked on this csg use multiple threads */
+  boolean isParallel() {
+    return parallel != null ? parallel : defaultParallel;
+  }
+
+  /** @param parallel the default parallel mode to set */
+  public static void setDefaultParallel(boolean parallel) {
+    defaultParallel = parallel;
+  }
+
+  /** @param parallel the parallel mode to set */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /** @return the cache used by operations invoked on this csg, or {@code null} */
+  private CSGCache getCache() {
+    return cache != null ? cache : defaultCache;
+  }
+
+  /** @param cache the default cache to set ({@code null} disables caching) */
+  public static void setDefaultCache(CSGCache cache) {
+    defaultCache = cache;
+  }
+
+  /** @param cache the cache to set */
+  public void setCache(CSGCache cache) {
+    this.cache = cache;
+  }
+
+  /** @return whether the results of operations invoked on this csg are merged */
+  private boolean isCoplanarMerge() {
+    return coplanarMerge != null ? coplanarMerge : defaultCoplanarMerge;
+  }
+
+  /** @param merge the default coplanar merging mode to set */
+  public static void setDefaultCoplanarMerge(boolean merge) {
+    defaultCoplanarMerge = merge;
+  }
+
+  /** @param merge the coplanar merging mode to set */
+  public void setCoplanarMerge(boolean merge) {
+    this.coplanarMerge = merge;
+  }
+
+  /** @return the tolerance used to weld the vertices of exported meshes */
+  private double getWeldTolerance() {
+    return weldTolerance != null ? weldTolerance : defaultWeldTolerance;
+  }
+
+  /** @param tolerance the default weld tolerance to set (positive) */
+  public static void setDefaultWeldTolerance(double tolerance) {
+    if (!(tolerance > 0)) {
+      throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+    }
+    defaultWeldTolerance = tolerance;
+  }
+
+  /** @param tolerance the weld tolerance to set (positive) */
+  public void setWeldTolerance(double tolerance) {
+    if (!(tolerance > 0)) {
+      throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+    }
+    this.weldTolerance = tolerance;
+  }
+
+  /** @return the listener of operations invoked on this csg, or {@code null} */
+  private CSGListener getListener() {
+    return listener != null ? listener : defaultListener;
+  }
+
+  /** @param listener the default listener to set ({@code null} disables metrics) */
+  public static void setDefaultListener(CSGListener listener) {
+    defaultListener = listener;
+  }
+
+  /** @param listener the listener to set */
+  public void setListener(CSGListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Creates the metrics of an operation invoked on this csg.
+   *
+   * @param operation the operation
+   * @param path the code path or {@code null} if it is chosen by the optimization type
+   * @param operandPolygons number of polygons of the other operands
+   * @return the metrics, or a disabled instance if this csg has no listener and the operation is
+   *     not recorded by the flight recorder
+   */
+  private OperationMetrics metrics(
+      OperationMetrics.Operation operation, Path path, int operandPolygons) {
+    CSGEvents.Span span = CSGEvents.beginBoolean();
+
+    if (getListener() == null && !span.isEnabled()) {
+      return OperationMetrics.NONE;
+    }
+
+    return new OperationMetrics(
+        operation, path, getOptType(), polygons.size(), operandPolygons, span);
+  }
+
+  /**
+   * Reports the metrics of an operation to the listener of this csg and the flight recorder.
+   *
+   * @param metrics metrics of the operation
+   * @param result result of the operation
+   * @return the specified result
+   */
+  private CSG report(OperationMetrics metrics, CSG result) {
+    if (metrics.isEnabled()) {
+      metrics.finish(result);
+
+      CSGListener l = getListener();
+      if (l != null) {
+        l.operationFinished(metrics);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Builds a BSP tree with the settings of this csg.
+   *
+   * @param polygons polygons of the tree
+   * @param metrics metrics of the operation the tree is used by
+   * @return the tree
+   */
+  private Node newTree(List<Polygon> polygons, OperationMetrics metrics) {
+    long start = metrics.start();
+    Node tree = new Node(polygons, getSplitPlaneSelector(), isParallel(), metrics);
+    metrics.lap(Phase.BUILD, start);
+    metrics.tree(tree);
+    return tree;
+  }
+
+  /**
+   * Constructs the result of an operation invoked on this csg.
+   *
+   * @param polygons polygons of the result
+   * @param metrics metrics of the operation
+   * @return the result
+   */
+  private CSG result(List<Polygon> polygons, OperationMetrics metrics) {
+    long start = metrics.start();
+
+    if (isCoplanarMerge()) {
+      polygons = CoplanarMerger.merge(polygons, isParallel());
+      start = metrics.lap(Phase.MERGE, start);
+    }
+
+    CSG result = inheritSettings(fromPolygons(copies(polygons)));
+    metrics.lap(Phase.RESULT, start);
+    return result;
+  }
+
+  /**
+   * Unions a range of operands. The range is split at the median of the operand centers along the
+   * axis with the largest extent, the halves are unioned by separate tasks and the results are
+   * combined.
+   */
+  private static final class UnionTask extends RecursiveTask<CSG> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CSG settings;
+    private final List<CSG> csgs;
+    private final Vector3d[] centers;
+    private final Integer[] order;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor.
+     *
+     * @param settings csg whose settings are used for the unions
+     * @param csgs all operands
+     * @param centers bounds centers of all operands
+     * @param order operand indices (the range of this task is sorted in place)
+     * @param from first index of the range (inclusive)
+     * @param to last index of the range (exclusive)
+     */
+    UnionTask(
+        CSG settings, List<CSG> csgs, Vector3d[] centers, Integer[] order, int from, int to) {
+      this.settings = settings;
+      this.csgs = csgs;
+      this.centers = centers;
+      this.order = order;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected CSG compute() {
+      if (to - from == 1) {
+        return csgs.get(order[from]);
+      }
+
+      if (to - from > 2) {
+        sortAlongLargestExtent();
+      }
+
+      int mid = (from + to) >>> 1;
+
+      UnionTask left = new UnionTask(settings, csgs, centers, order, from, mid);
+      UnionTask right = new UnionTask(settings, csgs, centers, order, mid, to);
+
+      if (settings.isParallel()) {
+        invokeAll(left, right);
+      } else {
+        left.invoke();
+        right.invoke();
+      }
+
+      return settings.inheritSettings(fromPolygons(left.join().polygons)).union(right.join());
+    }
+
+    /** Sorts the range of this task along the axis with the largest extent of the centers. */
+    private void sortAlongLargestExtent() {
+      double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+
+      for (int i = from; i < to; i++) {
+        Vector3d c = centers[order[i]];
+        for (int axis = 0; axis < 3; axis++) {
+          min[axis] = Math.min(min[axis], c.get(axis));
+          max[axis] = Math.max(max[axis], c.get(axis));
+        }
+      }
+
+      int axis = 0;
+      for (int i = 1; i < 3; i++) {
+        if (max[i] - min[i] > max[axis] - min[axis]) {
+          axis = i;
+        }
+      }
+
+      final int sortAxis = axis;
+      Arrays.sort(
+          order,
+          from,
+          to,
+          (a, b) -> Double.compare(centers[a].get(sortAxis), centers[b].get(sortAxis)));
+    }
+  }
+
   public static enum OptType {
     CSG_BOUND,
     POLYGON_BOUND,
-    NONE
+    NONE,
+    /**
+     * Boolean operations without BSP trees: the polygons of both operands are split along the
+     * surface of the other operand and classified by casting rays from the fragments. The
+     * cost depends on the number of polygons near the intersection of the surfaces, not on the
+     * depth of BSP trees. Requires closed meshes.
+     */
+    MESH
   }
 }
@@ -0,0 +1,303 @@
+/**
+ * CSGCache.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded cache for the results of CSG operations (see {@link CSG#cache(CSGCache)}).
+ *
+ * <p>Results are stored under a key that consists of the operation, the geometric fingerprints of
+ * the operands (see {@link CSG#fingerprint()}), the fingerprints of their attributes (colors and
+ * other properties, vertex normals and weights) and the tolerance used by the operation ({@link
+ * Plane#EPSILON}). Results of operations that merge coplanar fragments (see {@link
+ * CSG#coplanarMerge(boolean)}) are stored separately, as are the results of boolean operations
+ * with different optimization types (see {@link CSG#optimization(CSG.OptType)}) or split plane
+ * selectors (see {@link CSG#splitPlaneSelector(SplitPlaneSelector)}) since these produce
+ * different polygons. Repeating an operation with identical
+ * operands returns the stored result instead of executing the operation again, even if the
+ * operands are different csg instances.
+ *
+ * <p>The size of the cache is the total number of polygons of the stored results. If it exceeds
+ * the maximum size, the least recently used results are evicted. Instances are thread-safe and may
+ * be shared by several csgs.
+ */
+public final class CSGCache {
+
+  /** Operations whose results are cached. */
+  enum Operation {
+    UNION,
+    DIFFERENCE,
+    INTERSECTION,
+    HULL
+  }
+
+  private final long maxPolygons;
+  private final CSGDiskCache diskCache;
+  private final LinkedHashMap<Key, CSG> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long polygons;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Constructor.
+   *
+   * @param maxPolygons maximum total number of polygons of the cached results
+   */
+  public CSGCache(long maxPolygons) {
+    this(maxPolygons, null);
+  }
+
+  /**
+   * Constructor. Results that are not found in memory are looked up in the specified disk cache.
+   * Computed results are stored in memory and on disk, i.e., they survive a restart of the process.
+   *
+   * @param maxPolygons maximum total number of polygons of the results cached in memory
+   * @param diskCache persistent cache or {@code null}
+   */
+  public CSGCache(long maxPolygons, CSGDiskCache diskCache) {
+    if (maxPolygons < 0) {
+      throw new IllegalArgumentException("Maximum size must not be negative: " + maxPolygons);
+    }
+    this.maxPolygons = maxPolygons;
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Returns the cached result of the specified operation. If no result is cached, the operation is
+   * executed and its result is added to this cache.
+   *
+   * @param operation operation type
+   * @param a first operand
+   * @param b second operand or {@code null} if the operation has one operand only
+   * @param merge whether the operation merges coplanar fragments of its result (see {@link
+   *     CSG#coplanarMerge(boolean)})
+   * @param optType optimization type of the operation or {@code null} if it does not apply
+   * @param selector split plane selector of the operation or {@code null} if it does not apply
+   * @param op the operation
+   * @return the result of the operation
+   */
+  CSG get(
+      Operation operation,
+      CSG a,
+      CSG b,
+      boolean merge,
+      CSG.OptType optType,
+      SplitPlaneSelector selector,
+      Supplier<CSG> op) {
+    Key key =
+        new Key(
+            operation,
+            a.fingerprint(),
+            a.attributeFingerprint(operation == Operation.HULL),
+            b == null ? null : b.fingerprint(),
+            b == null ? null : b.attributeFingerprint(false),
+            merge,
+            optType,
+            selector,
+            Plane.EPSILON);
+
+    synchronized (this) {
+      CSG result = entries.get(key);
+
+      if (result != null) {
+        hits++;
+        return result;
+      }
+
+      misses++;
+    }
+
+    // executed without holding the lock, concurrent misses of the same key compute the result twice
+    CSG result = diskCache != null ? diskCache.load(key) : null;
+
+    if (result == null) {
+      result = op.get();
+
+      if (diskCache != null) {
+        diskCache.store(key, result);
+      }
+    }
+
+    put(key, result);
+
+    return result;
+  }
+
+  private synchronized void put(Key key, CSG result) {
+    int size = result.getPolygons().size();
+
+    if (size > maxPolygons) {
+      return;
+    }
+
+    CSG previous = entries.put(key, result);
+
+    if (previous != null) {
+      polygons -= previous.getPolygons().size();
+    }
+
+    polygons += size;
+
+    Iterator<Map.Entry<Key, CSG>> it = entries.entrySet().iterator();
+
+    while (polygons > maxPolygons && it.hasNext()) {
+      Map.Entry<Key, CSG> eldest = it.next();
+      polygons -= eldest.getValue().getPolygons().size();
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /** @return the disk cache used by this cache, or {@code null} */
+  public CSGDiskCache getDiskCache() {
+    return diskCache;
+  }
+
+  /** @return the number of operations whose result was found in memory */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** @return the number of operations whose result was not found in memory */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** @return the number of results that have been evicted from this cache */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** @return the number of cached results */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the total number of polygons of the cached results */
+  public synchronized long getPolygonCount() {
+    return polygons;
+  }
+
+  /** Removes all results from this cache. The counters are not reset. */
+  public synchronized void clear() {
+    entries.clear();
+    polygons = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "[results: "
+        + entries.size()
+        + ", polygons: "
+        + polygons
+        + ", hits: "
+        + hits
+        + ", misses: "
+        + misses
+        + ", evictions: "
+        + evictions
+        + "]";
+  }
+
+  /** Cache key. */
+  static final class Key {
+
+    final Operation operation;
+    final Fingerprint a;
+    final Fingerprint attributesA;
+    final Fingerprint b;
+    final Fingerprint attributesB;
+    final boolean merge;
+    final CSG.OptType optType;
+    final SplitPlaneSelector selector;
+    final double epsilon;
+
+    Key(
+        Operation operation,
+        Fingerprint a,
+        Fingerprint attributesA,
+        Fingerprint b,
+        Fingerprint attributesB,
+        boolean merge,
+        CSG.OptType optType,
+        SplitPlaneSelector selector,
+        double epsilon) {
+      this.operation = operation;
+      this.a = a;
+      this.attributesA = attributesA;
+      this.b = b;
+      this.attributesB = attributesB;
+      this.merge = merge;
+      this.optType = optType;
+      this.selector = selector;
+      this.epsilon = epsilon;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return operation == other.operation
+          && a.equals(other.a)
+          && attributesA.equals(other.attributesA)
+          && Objects.equals(b, other.b)
+          && Objects.equals(attributesB, other.attributesB)
+          && merge == other.merge
+          && optType == other.optType
+          && Objects.equals(selector, other.selector)
+          && Double.compare(epsilon, other.epsilon) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = operation.hashCode();
+      hash = 31 * hash + a.hashCode();
+      hash = 31 * hash + attributesA.hashCode();
+      hash = 31 * hash + Objects.hashCode(b);
+      hash = 31 * hash + Objects.hashCode(attributesB);
+      hash = 31 * hash + Boolean.hashCode(merge);
+      hash = 31 * hash + Objects.hashCode(optType);
+      hash = 31 * hash + Objects.hashCode(selector);
+      hash = 31 * hash + Double.hashCode(epsilon);
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,527 @@
+/**
+ * CSGDiskCache.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent second level of a {@link CSGCache} (see {@link CSGCache#CSGCache(long,
+ * CSGDiskCache)}).
+ *
+ * <p>Each result is stored in a separate file of the cache directory whose name is derived from the
+ * cache key, i.e., the operation, the fingerprints of the operands and the tolerance. Results of
+ * operations with custom split plane selectors (other than {@link
+ * SplitPlaneSelector#FIRST_POLYGON} and {@link SampledSplitPlaneSelector}) are not stored since
+ * the selectors cannot be identified across processes. Results are
+ * stored in a compact binary format that contains the polygon planes, vertex positions, normals and
+ * weights and the property storages of the polygons (e.g., colors). Results with properties that
+ * are not strings cannot be stored and are not persisted. Files are read via memory-mapped
+ * buffers.
+ *
+ * <p>If the total size of the files exceeds the maximum size, the least recently used files are
+ * deleted. Files that cannot be read, e.g., because they have been written by an incompatible
+ * version, are deleted and treated as missing. I/O errors never cause an operation to fail; the
+ * result is computed instead. Several processes may share a cache directory.
+ */
+public final class CSGDiskCache {
+
+  private static final int MAGIC = 0x4a435347; // "JCSG"
+  private static final int VERSION = 2;
+  private static final String SUFFIX = ".csg";
+
+  private final Path directory;
+  private final long maxBytes;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Constructor. The directory is created if it does not exist.
+   *
+   * @param directory cache directory
+   * @param maxBytes maximum total size of the cached files
+   * @throws IOException if the directory cannot be created or read
+   */
+  public CSGDiskCache(Path directory, long maxBytes) throws IOException {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Maximum size must not be negative: " + maxBytes);
+    }
+
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+
+    Files.createDirectories(directory);
+
+    for (Path file : files()) {
+      bytes += Files.size(file);
+    }
+  }
+
+  /**
+   * Loads the result stored under the specified key.
+   *
+   * @param key cache key
+   * @return the stored result or {@code null} if no result is stored
+   */
+  CSG load(CSGCache.Key key) {
+    String name = fileName(key);
+
+    if (name == null) {
+      countMiss();
+      return null;
+    }
+
+    Path file = directory.resolve(name);
+
+    if (!Files.isRegularFile(file)) {
+      countMiss();
+      return null;
+    }
+
+    try {
+      CSG result = read(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      countHit();
+      return result;
+    } catch (IOException | RuntimeException ex) {
+      // corrupt files may cause any runtime exception, e.g., a buffer underflow
+      Logger.getLogger(CSGDiskCache.class.getName())
+          .log(Level.WARNING, "Cannot read cached result " + file, ex);
+      delete(file);
+      countMiss();
+      return null;
+    }
+  }
+
+  /**
+   * Stores the specified result under the specified key. The least recently used files are deleted
+   * if the maximum size is exceeded.
+   *
+   * @param key cache key
+   * @param csg result to store
+   */
+  void store(CSGCache.Key key, CSG csg) {
+    String name = fileName(key);
+    List<PropertyStorage> storages = storages(csg);
+
+    if (name == null || storages == null) {
+      return;
+    }
+
+    Path file = directory.resolve(name);
+
+    try {
+      Path tmp = Files.createTempFile(directory, "tmp", null);
+
+      try {
+        write(tmp, csg, storages);
+        long size = Files.size(tmp);
+
+        if (size > maxBytes) {
+          return;
+        }
+
+        // the replaced file (if any) does not count anymore
+        long replaced = Files.isRegularFile(file) ? Files.size(file) : 0;
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+          bytes += size - replaced;
+
+          if (bytes > maxBytes) {
+            evict();
+          }
+        }
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException ex) {
+      Logger.getLogger(CSGDiskCache.class.getName())
+          .log(Level.WARNING, "Cannot store result " + file, ex);
+    }
+  }
+
+  /**
+   * Deletes the least recently used files until the total size does not exceed the maximum size.
+   * The total size is recomputed from the directory since other processes may share it.
+   */
+  private void evict() throws IOException {
+    List<Path> files = files();
+    long total = 0;
+
+    for (Path file : files) {
+      total += Files.size(file);
+    }
+
+    files.sort(Comparator.comparing(CSGDiskCache::lastModified));
+
+    for (int i = 0; i < files.size() && total > maxBytes; i++) {
+      long size = Files.size(files.get(i));
+
+      if (delete(files.get(i))) {
+        total -= size;
+        evictions++;
+      }
+    }
+
+    bytes = total;
+  }
+
+  private List<Path> files() throws IOException {
+    List<Path> result = new ArrayList<>();
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : stream) {
+        result.add(file);
+      }
+    }
+
+    return result;
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException ex) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private static boolean delete(Path file) {
+    try {
+      return Files.deleteIfExists(file);
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the name of the file that stores the result of the specified key.
+   *
+   * @param key cache key
+   * @return the file name or {@code null} if the split plane selector of the key cannot be
+   *     identified across processes
+   */
+  private static String fileName(CSGCache.Key key) {
+    String selector;
+
+    if (key.selector == null) {
+      selector = "";
+    } else if (key.selector == SplitPlaneSelector.FIRST_POLYGON) {
+      selector = "-first";
+    } else if (key.selector instanceof SampledSplitPlaneSelector) {
+      selector = "-" + Long.toHexString(Fingerprint.hash(key.selector.toString()));
+    } else {
+      return null;
+    }
+
+    return key.operation.name().toLowerCase()
+        + "-"
+        + key.a
+        + "-"
+        + key.attributesA
+        + "-"
+        + (key.b != null ? key.b : Fingerprint.EMPTY)
+        + "-"
+        + (key.b != null ? key.attributesB : Fingerprint.EMPTY)
+        + (key.merge ? "-merged" : "")
+        + (key.optType != null ? "-" + key.optType.name().toLowerCase() : "")
+        + selector
+        + "-"
+        + Long.toHexString(Double.doubleToLongBits(key.epsilon))
+        + SUFFIX;
+  }
+
+  /**
+   * Returns the distinct property storages of the polygons of the specified csg.
+   *
+   * @param csg csg
+   * @return the property storages or {@code null} if a storage contains a property that is not a
+   *     string and therefore cannot be stored
+   */
+  private static List<PropertyStorage> storages(CSG csg) {
+    Map<PropertyStorage, Boolean> seen = new IdentityHashMap<>();
+    List<PropertyStorage> result = new ArrayList<>();
+
+    for (Polygon p : csg.getPolygons()) {
+      PropertyStorage storage = p.peekStorage();
+
+      if (storage == null || seen.put(storage, Boolean.TRUE) != null) {
+        continue;
+      }
+
+      for (Object value : storage.properties().values()) {
+        if (!(value instanceof String)) {
+          return null;
+        }
+      }
+
+      result.add(storage);
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the specified csg to the specified file.
+   *
+   * <p>Format (big endian): magic, version, number of property storages and for each storage the
+   * number of properties followed by the key and value of each property (length prefixed UTF-8),
+   * number of polygons and for each polygon the storage index (-1 if the polygon has no storage),
+   * the validity flag, the number of vertices, plane normal and distance followed by the position,
+   * normal and weight of each vertex.
+   */
+  private static void write(Path file, CSG csg, List<PropertyStorage> storages)
+      throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.TRUNCATE_EXISTING)))) {
+      List<Polygon> polygons = csg.getPolygons();
+      Map<PropertyStorage, Integer> indices = new IdentityHashMap<>();
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(storages.size());
+
+      for (PropertyStorage storage : storages) {
+        Map<String, Object> properties = storage.properties();
+        out.writeInt(properties.size());
+
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+          writeString(out, entry.getKey());
+          writeString(out, (String) entry.getValue());
+        }
+
+        indices.put(storage, indices.size());
+      }
+
+      out.writeInt(polygons.size());
+
+      for (Polygon p : polygons) {
+        PropertyStorage storage = p.peekStorage();
+        out.writeInt(storage != null ? indices.get(storage) : -1);
+        out.writeBoolean(p.isValid());
+        out.writeInt(p.vertices.size());
+        writeVector(out, p._csg_plane.normal);
+        out.writeDouble(p._csg_plane.dist);
+
+        for (Vertex v : p.vertices) {
+          writeVector(out, v.pos);
+          writeVector(out, v.normal);
+          out.writeDouble(v.getWeight());
+        }
+      }
+    }
+  }
+
+  private static void writeVector(DataOutputStream out, Vector3d v) throws IOException {
+    out.writeDouble(v.x());
+    out.writeDouble(v.y());
+    out.writeDouble(v.z());
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] data = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  private static CSG read(Path file) throws IOException {
+    MappedByteBuffer buffer;
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IllegalStateException("Unsupported file format");
+    }
+
+    int numStorages = readCount(buffer, "storages");
+    List<PropertyStorage> storages = new ArrayList<>(numStorages);
+
+    for (int i = 0; i < numStorages; i++) {
+      int numProperties = readCount(buffer, "properties");
+      Map<String, String> properties = new HashMap<>();
+
+      for (int j = 0; j < numProperties; j++) {
+        properties.put(readString(buffer), readString(buffer));
+      }
+
+      storages.add(new PropertyStorage(properties));
+    }
+
+    int numPolygons = readCount(buffer, "polygons");
+    List<Polygon> polygons = new ArrayList<>(numPolygons);
+
+    for (int i = 0; i < numPolygons; i++) {
+      int storageIndex = buffer.getInt();
+
+      if (storageIndex < -1 || storageIndex >= numStorages) {
+        throw new IllegalStateException("Invalid storage index " + storageIndex);
+      }
+
+      boolean valid = buffer.get() != 0;
+      int numVertices = readCount(buffer, "vertices");
+
+      if (numVertices < 3) {
+        throw new IllegalStateException("Invalid polygon with " + numVertices + " vertices");
+      }
+
+      Vector3d normal = readVector(buffer);
+      Plane plane = new Plane(normal, buffer.getDouble());
+      // keep the stored normal, it is normalized already (or zero for invalid polygons)
+      plane.normal = normal;
+
+      List<Vertex> vertices = new ArrayList<>(numVertices);
+
+      for (int j = 0; j < numVertices; j++) {
+        Vertex vertex = new Vertex(readVector(buffer), readVector(buffer));
+        vertex.setWeight(buffer.getDouble());
+        vertices.add(vertex);
+      }
+
+      Polygon polygon = new Polygon(vertices, plane, valid);
+
+      if (storageIndex >= 0) {
+        polygon.setStorage(storages.get(storageIndex));
+      }
+
+      polygons.add(polygon);
+    }
+
+    return CSG.fromPolygons(polygons);
+  }
+
+  private static Vector3d readVector(MappedByteBuffer buffer) {
+    return Vector3d.xyz(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+  }
+
+  /**
+   * Reads the number of elements of a list. Each element takes at least one byte, i.e., counts
+   * that exceed the remaining bytes are rejected before the list is allocated.
+   *
+   * @param buffer buffer to read from
+   * @param name name of the elements (used in the error message)
+   * @return the number of elements
+   */
+  private static int readCount(MappedByteBuffer buffer, String name) {
+    int count = buffer.getInt();
+
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalStateException("Invalid number of " + name + " " + count);
+    }
+
+    return count;
+  }
+
+  private static String readString(MappedByteBuffer buffer) {
+    int length = buffer.getInt();
+
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalStateException("Invalid string length " + length);
+    }
+
+    byte[] data = new byte[length];
+    buffer.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  private synchronized void countHit() {
+    hits++;
+  }
+
+  private synchronized void countMiss() {
+    misses++;
+  }
+
+  /** @return the number of results that have been loaded from this cache */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** @return the number of results that have not been found in this cache */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** @return the number of files that have been evicted from this cache */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** @return the total size of the cached files (as known to this instance) */
+  public synchronized long getSize() {
+    return bytes;
+  }
+
+  /** @return the cache directory */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "[directory: "
+        + directory
+        + ", bytes: "
+        + bytes
+        + ", hits: "
+        + hits
+        + ", misses: "
+        + misses
+        + ", evictions: "
+        + evictions
+        + "]";
+  }
+}
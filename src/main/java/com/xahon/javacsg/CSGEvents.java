@@ -0,0 +1,138 @@
+/**
+ * CSGEvents.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+/**
+ * Emits Java Flight Recorder events for CSG operations.
+ *
+ * <p>If the runtime provides the {@code jdk.jfr} API (Java 11 or later, Java 8 update 262 or
+ * later), boolean operations, BSP tree builds, convex hulls, triangulations as well as STL and OBJ
+ * import and export are recorded as events of the category {@code Java-CSG}. The events carry the
+ * polygon counts of the operation, boolean operations additionally their code path and metrics
+ * (see {@link OperationMetrics}). On other runtimes and if no recording is running, no events are
+ * created.
+ *
+ * <blockquote>
+ *
+ * <pre>
+ *     java -XX:StartFlightRecording=filename=csg.jfr ...
+ *     jfr print --categories Java-CSG csg.jfr
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * <p>This class is used by the library itself. Applications only need {@link #isAvailable()}.
+ */
+public final class CSGEvents {
+
+  /** Kinds of recorded operations (except boolean operations). */
+  public enum Kind {
+    /** BSP tree build (input: polygons, output: nodes). */
+    BSP_BUILD,
+    /** Convex hull (input: polygons, output: polygons). */
+    HULL,
+    /** Triangulation of a concave polygon (input: vertices, output: triangles). */
+    TRIANGULATION,
+    /** STL import (detail: file, input: bytes, output: polygons). */
+    STL_IMPORT,
+    /** STL export (input: polygons, output: characters). */
+    STL_EXPORT,
+    /** OBJ export (input: polygons, output: characters). */
+    OBJ_EXPORT
+  }
+
+  /** Operation in progress. The event is committed when the operation ends. */
+  public abstract static class Span {
+
+    /** Span that does not record anything. */
+    static final Span NONE = new Span() {};
+
+    /** @return whether this span records an event */
+    public boolean isEnabled() {
+      return false;
+    }
+
+    /**
+     * Ends the operation and commits its event.
+     *
+     * @param inputSize input size of the operation (see {@link Kind})
+     * @param outputSize output size of the operation (see {@link Kind})
+     */
+    public void end(long inputSize, long outputSize) {}
+
+    /**
+     * Ends a boolean operation and commits its event.
+     *
+     * @param metrics metrics of the operation
+     */
+    void end(OperationMetrics metrics) {}
+  }
+
+  private static final boolean AVAILABLE = isJfrPresent();
+
+  private CSGEvents() {
+    throw new AssertionError("Don't instantiate me!", null);
+  }
+
+  /** @return whether the runtime supports flight recorder events */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Begins an operation.
+   *
+   * @param kind kind of the operation
+   * @param detail description of the operand (e.g., a file name) or {@code null}
+   * @return the span of the operation ({@link Span#isEnabled()} is {@code false} if the event is
+   *     not recorded)
+   */
+  public static Span begin(Kind kind, String detail) {
+    return AVAILABLE ? JfrEvents.begin(kind, detail) : Span.NONE;
+  }
+
+  /**
+   * Begins a boolean operation.
+   *
+   * @return the span of the operation
+   */
+  static Span beginBoolean() {
+    return AVAILABLE ? JfrEvents.beginBoolean() : Span.NONE;
+  }
+
+  private static boolean isJfrPresent() {
+    try {
+      Class.forName("jdk.jfr.Event", false, CSGEvents.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError ex) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,577 @@
+/**
+ * CoplanarMerger.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Merges adjacent coplanar polygons into larger convex polygons (see {@link
+ * CSG#mergeCoplanarPolygons()}).
+ *
+ * <p>Polygons are grouped by their plane and the content of their property storage, i.e., only
+ * polygons of the same material are merged. Polygons without storage and polygons with empty
+ * storages are of the same material. Within a group, vertices closer than {@link Plane#EPSILON} are welded
+ * and vertices that lie on an edge of another polygon (T-junctions) are inserted into that edge,
+ * so that neighboring polygons share their common edges. Then two polygons sharing an edge are
+ * merged whenever the merged polygon is convex, until no further merge is possible. Finally, the
+ * collinear vertices of merged polygons are removed. Polygons that could not be merged are
+ * returned as they are.
+ *
+ * <p>This regroups the fragments created by splitting polygons with BSP planes (see {@link
+ * Plane#splitPolygon(Polygon, List, List, List, List)}). Without merging, chained operations keep
+ * all fragments and the number of polygons of a result grows with each operation.
+ */
+final class CoplanarMerger {
+
+  /** Groups with fewer polygons are not processed by separate tasks. */
+  static final int PARALLEL_THRESHOLD = 200;
+
+  private CoplanarMerger() {
+    throw new AssertionError("Don't instantiate me!", null);
+  }
+
+  /**
+   * Merges adjacent coplanar polygons of the same material.
+   *
+   * @param polygons polygons to merge (not modified)
+   * @param parallel whether groups of coplanar polygons are processed concurrently
+   * @return the merged polygons
+   */
+  static List<Polygon> merge(List<Polygon> polygons, boolean parallel) {
+    Map<GroupKey, List<Polygon>> groups = new LinkedHashMap<>();
+    List<Polygon> result = new ArrayList<>();
+
+    for (Polygon p : polygons) {
+      if (!p.isValid()) {
+        result.add(p);
+        continue;
+      }
+      groups.computeIfAbsent(new GroupKey(p), k -> new ArrayList<>()).add(p);
+    }
+
+    Collection<List<Polygon>> values = groups.values();
+    Stream<List<Polygon>> groupStream =
+        parallel && polygons.size() >= PARALLEL_THRESHOLD
+            ? values.parallelStream()
+            : values.stream();
+
+    List<List<Polygon>> merged =
+        groupStream
+            .map(g -> g.size() == 1 ? g : new Group(g).merge())
+            .collect(Collectors.toList());
+
+    for (List<Polygon> g : merged) {
+      result.addAll(g);
+    }
+
+    return result;
+  }
+
+  /**
+   * Plane and material of a polygon. Planes are compared with a tolerance of {@link Plane#EPSILON},
+   * materials by the properties of the storages (see {@link PropertyStorage}).
+   */
+  private static final class GroupKey {
+
+    private final long nx;
+    private final long ny;
+    private final long nz;
+    private final long dist;
+    private final Map<String, Object> properties;
+
+    GroupKey(Polygon p) {
+      Plane plane = p._csg_plane;
+      this.nx = quantize(plane.normal.x());
+      this.ny = quantize(plane.normal.y());
+      this.nz = quantize(plane.normal.z());
+      this.dist = quantize(plane.dist);
+      // no storage is created for polygons without storage, the input is not modified
+      PropertyStorage storage = p.peekStorage();
+      this.properties = storage != null ? storage.properties() : Collections.emptyMap();
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = Long.hashCode(nx);
+      hash = 31 * hash + Long.hashCode(ny);
+      hash = 31 * hash + Long.hashCode(nz);
+      hash = 31 * hash + Long.hashCode(dist);
+      return 31 * hash + properties.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey other = (GroupKey) obj;
+      return nx == other.nx
+          && ny == other.ny
+          && nz == other.nz
+          && dist == other.dist
+          && properties.equals(other.properties);
+    }
+  }
+
+  /** Position rounded to a multiple of {@link Plane#EPSILON}. */
+  private static final class PositionKey {
+
+    private final long x;
+    private final long y;
+    private final long z;
+
+    PositionKey(Vector3d pos) {
+      this.x = quantize(pos.x());
+      this.y = quantize(pos.y());
+      this.z = quantize(pos.z());
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Long.hashCode(x) + Long.hashCode(y)) + Long.hashCode(z);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof PositionKey)) {
+        return false;
+      }
+      PositionKey other = (PositionKey) obj;
+      return x == other.x && y == other.y && z == other.z;
+    }
+  }
+
+  private static long quantize(double value) {
+    return Math.round(value / Plane.EPSILON);
+  }
+
+  /** Polygons of one plane and material. */
+  private static final class Group {
+
+    private final List<Polygon> polygons;
+    private final Vector3d normal;
+    /** Welded vertices. */
+    private final List<Vertex> vertices = new ArrayList<>();
+    /** Vertex loops of the polygons (indices into {@link #vertices}), {@code null} if merged. */
+    private final int[][] loops;
+    /** Indicates which polygons have been merged with other polygons. */
+    private final boolean[] changed;
+    /** Polygon that owns a directed edge (key: {@code from << 32 | to}). */
+    private final Map<Long, Integer> edges = new HashMap<>();
+
+    Group(List<Polygon> polygons) {
+      this.polygons = polygons;
+      this.normal = polygons.get(0)._csg_plane.normal;
+      this.loops = new int[polygons.size()][];
+      this.changed = new boolean[polygons.size()];
+
+      Map<PositionKey, Integer> ids = new HashMap<>();
+
+      for (int i = 0; i < loops.length; i++) {
+        List<Vertex> polygonVertices = polygons.get(i).vertices;
+        IntList loop = new IntList(polygonVertices.size());
+
+        for (Vertex v : polygonVertices) {
+          Integer id = ids.get(new PositionKey(v.pos));
+          if (id == null) {
+            id = vertices.size();
+            ids.put(new PositionKey(v.pos), id);
+            vertices.add(v);
+          }
+          // welding may collapse short edges
+          if (loop.isEmpty() || loop.get(loop.size() - 1) != id) {
+            loop.add(id);
+          }
+        }
+
+        int[] polygonLoop = loop.toArray();
+        int length = polygonLoop.length;
+        while (length > 1 && polygonLoop[0] == polygonLoop[length - 1]) {
+          length--;
+        }
+
+        // polygons without loop are not merged
+        loops[i] = length >= 3 ? Arrays.copyOf(polygonLoop, length) : null;
+      }
+    }
+
+    /**
+     * Merges the polygons of this group.
+     *
+     * @return the merged polygons
+     */
+    List<Polygon> merge() {
+      insertTJunctions();
+
+      for (int i = 0; i < loops.length; i++) {
+        if (loops[i] != null) {
+          addEdges(i);
+        }
+      }
+
+      Deque<Integer> queue = new ArrayDeque<>();
+      for (int i = 0; i < loops.length; i++) {
+        queue.add(i);
+      }
+
+      while (!queue.isEmpty()) {
+        int i = queue.poll();
+        int[] loop = loops[i];
+
+        if (loop == null) {
+          continue;
+        }
+
+        for (int k = 0; k < loop.length; k++) {
+          Integer other = edges.get(key(loop[(k + 1) % loop.length], loop[k]));
+          if (other != null && other != i && tryMerge(i, other)) {
+            queue.add(i);
+            break;
+          }
+        }
+      }
+
+      List<Polygon> result = new ArrayList<>();
+
+      for (int i = 0; i < loops.length; i++) {
+        if (!changed[i]) {
+          result.add(polygons.get(i));
+        } else if (loops[i] != null) {
+          result.add(toPolygon(i));
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Inserts vertices that lie on an edge of a polygon into that edge. Candidates are found with a
+     * uniform grid over the projection of the vertices onto the plane of this group.
+     */
+    private void insertTJunctions() {
+      int axis = dominantAxis(normal);
+      int u = (axis + 1) % 3;
+      int v = (axis + 2) % 3;
+
+      double minU = Double.MAX_VALUE;
+      double minV = Double.MAX_VALUE;
+      double maxU = -Double.MAX_VALUE;
+      double maxV = -Double.MAX_VALUE;
+
+      for (Vertex vertex : vertices) {
+        minU = Math.min(minU, vertex.pos.get(u));
+        minV = Math.min(minV, vertex.pos.get(v));
+        maxU = Math.max(maxU, vertex.pos.get(u));
+        maxV = Math.max(maxV, vertex.pos.get(v));
+      }
+
+      double cellSize =
+          Math.max(Math.max(maxU - minU, maxV - minV) / Math.sqrt(vertices.size()), Plane.EPSILON);
+
+      Map<Long, IntList> grid = new HashMap<>();
+      for (int id = 0; id < vertices.size(); id++) {
+        long cell =
+            cell(
+                cellIndex(vertices.get(id).pos.get(u), minU, cellSize),
+                cellIndex(vertices.get(id).pos.get(v), minV, cellSize));
+        grid.computeIfAbsent(cell, c -> new IntList(4)).add(id);
+      }
+
+      for (int i = 0; i < loops.length; i++) {
+        int[] loop = loops[i];
+
+        if (loop == null) {
+          continue;
+        }
+
+        IntList newLoop = null;
+
+        for (int k = 0; k < loop.length; k++) {
+          int a = loop[k];
+          int b = loop[(k + 1) % loop.length];
+          Vector3d pa = vertices.get(a).pos;
+          Vector3d pb = vertices.get(b).pos;
+
+          int u0 = cellIndex(Math.min(pa.get(u), pb.get(u)) - Plane.EPSILON, minU, cellSize);
+          int u1 = cellIndex(Math.max(pa.get(u), pb.get(u)) + Plane.EPSILON, minU, cellSize);
+          int v0 = cellIndex(Math.min(pa.get(v), pb.get(v)) - Plane.EPSILON, minV, cellSize);
+          int v1 = cellIndex(Math.max(pa.get(v), pb.get(v)) + Plane.EPSILON, minV, cellSize);
+
+          List<double[]> onEdge = null;
+          Vector3d d = pb.minus(pa);
+          double lengthSquared = d.magnitudeSq();
+
+          for (int cu = u0; cu <= u1; cu++) {
+            for (int cv = v0; cv <= v1; cv++) {
+              IntList candidates = grid.get(cell(cu, cv));
+              if (candidates == null) {
+                continue;
+              }
+              for (int j = 0; j < candidates.size(); j++) {
+                int c = candidates.get(j);
+                if (c == a || c == b) {
+                  continue;
+                }
+                Vector3d pc = vertices.get(c).pos;
+                double t = pc.minus(pa).dot(d) / lengthSquared;
+                if (t <= 0 || t >= 1) {
+                  continue;
+                }
+                if (pa.plus(d.times(t)).minus(pc).magnitude() <= Plane.EPSILON) {
+                  if (onEdge == null) {
+                    onEdge = new ArrayList<>();
+                  }
+                  onEdge.add(new double[] {t, c});
+                }
+              }
+            }
+          }
+
+          if (onEdge != null && newLoop == null) {
+            newLoop = new IntList(loop.length + onEdge.size());
+            for (int j = 0; j < k; j++) {
+              newLoop.add(loop[j]);
+            }
+          }
+
+          if (newLoop != null) {
+            newLoop.add(a);
+            if (onEdge != null) {
+              onEdge.sort((x, y) -> Double.compare(x[0], y[0]));
+              for (double[] tc : onEdge) {
+                newLoop.add((int) tc[1]);
+              }
+            }
+          }
+        }
+
+        if (newLoop != null) {
+          loops[i] = newLoop.toArray();
+        }
+      }
+    }
+
+    /**
+     * Merges the polygon {@code j} into the polygon {@code i} if both polygons share a chain of
+     * edges and the merged polygon is convex.
+     *
+     * @return {@code true} if the polygons have been merged; {@code false} otherwise
+     */
+    private boolean tryMerge(int i, int j) {
+      int[] a = loops[i];
+      int[] b = loops[j];
+      int n = a.length;
+
+      // find the shared chain a[s], ..., a[e] (indices modulo n)
+      int k0 = -1;
+      for (int k = 0; k < n; k++) {
+        if (shared(a, k, j)) {
+          k0 = k;
+          break;
+        }
+      }
+      if (k0 < 0) {
+        return false;
+      }
+
+      int s = k0;
+      int m = 1;
+      while (m < n && shared(a, Math.floorMod(s - 1, n), j)) {
+        s = Math.floorMod(s - 1, n);
+        m++;
+      }
+      while (m < n && shared(a, (s + m) % n, j)) {
+        m++;
+      }
+      if (m >= n || m >= b.length) {
+        return false;
+      }
+
+      int e = (s + m) % n;
+      int jb = indexOf(b, a[e]);
+      if (jb < 0 || b[(jb + m) % b.length] != a[s]) {
+        return false;
+      }
+
+      int[] merged = new int[n + b.length - 2 * m];
+      int count = 0;
+      for (int k = 0; k <= n - m; k++) {
+        merged[count++] = a[(e + k) % n];
+      }
+      for (int k = m + 1; k < b.length; k++) {
+        merged[count++] = b[(jb + k) % b.length];
+      }
+
+      if (!isSimple(merged) || !isConvex(merged)) {
+        return false;
+      }
+
+      removeEdges(i);
+      removeEdges(j);
+      loops[i] = merged;
+      loops[j] = null;
+      changed[i] = true;
+      changed[j] = true;
+      addEdges(i);
+
+      return true;
+    }
+
+    /** Indicates whether the edge {@code a[k] -> a[k + 1]} is shared with the polygon {@code j}. */
+    private boolean shared(int[] a, int k, int j) {
+      Integer owner = edges.get(key(a[(k + 1) % a.length], a[k]));
+      return owner != null && owner == j;
+    }
+
+    private void addEdges(int i) {
+      int[] loop = loops[i];
+      for (int k = 0; k < loop.length; k++) {
+        edges.put(key(loop[k], loop[(k + 1) % loop.length]), i);
+      }
+    }
+
+    private void removeEdges(int i) {
+      int[] loop = loops[i];
+      for (int k = 0; k < loop.length; k++) {
+        edges.remove(key(loop[k], loop[(k + 1) % loop.length]), i);
+      }
+    }
+
+    private static boolean isSimple(int[] loop) {
+      int[] sorted = loop.clone();
+      Arrays.sort(sorted);
+      for (int k = 1; k < sorted.length; k++) {
+        if (sorted[k] == sorted[k - 1]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Indicates whether the specified loop is convex (collinear vertices are allowed). */
+    private boolean isConvex(int[] loop) {
+      for (int k = 0; k < loop.length; k++) {
+        if (turn(loop, k) < -Plane.EPSILON) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the signed distance of the vertex {@code loop[k]} from the line through its
+     * neighbors. The distance is positive for convex and negative for reflex vertices.
+     */
+    private double turn(int[] loop, int k) {
+      Vector3d prev = vertices.get(loop[Math.floorMod(k - 1, loop.length)]).pos;
+      Vector3d p = vertices.get(loop[k]).pos;
+      Vector3d next = vertices.get(loop[(k + 1) % loop.length]).pos;
+      double length = next.minus(prev).magnitude();
+      if (length == 0) {
+        return 0;
+      }
+      return p.minus(prev).crossed(next.minus(p)).dot(normal) / length;
+    }
+
+    /** Converts a merged loop to a polygon without collinear vertices. */
+    private Polygon toPolygon(int i) {
+      int[] loop = loops[i];
+
+      boolean removed = true;
+      while (removed) {
+        removed = false;
+        for (int k = 0; k < loop.length && loop.length > 3; k++) {
+          if (Math.abs(turn(loop, k)) <= Plane.EPSILON) {
+            loop = remove(loop, k--);
+            removed = true;
+          }
+        }
+      }
+
+      List<Vertex> polygonVertices = new ArrayList<>(loop.length);
+      for (int id : loop) {
+        polygonVertices.add(vertices.get(id));
+      }
+
+      // the storage is shared with the first polygon, it is not created if missing
+      Polygon first = polygons.get(i);
+      Polygon result = new Polygon(polygonVertices, first._csg_plane.copy(), first.isValid());
+      result.setStorage(first.peekStorage());
+      return result;
+    }
+  }
+
+  private static int[] remove(int[] loop, int k) {
+    int[] result = new int[loop.length - 1];
+    System.arraycopy(loop, 0, result, 0, k);
+    System.arraycopy(loop, k + 1, result, k, loop.length - k - 1);
+    return result;
+  }
+
+  private static int indexOf(int[] loop, int id) {
+    for (int k = 0; k < loop.length; k++) {
+      if (loop[k] == id) {
+        return k;
+      }
+    }
+    return -1;
+  }
+
+  private static int dominantAxis(Vector3d n) {
+    double x = Math.abs(n.x());
+    double y = Math.abs(n.y());
+    double z = Math.abs(n.z());
+    return x >= y && x >= z ? 0 : y >= z ? 1 : 2;
+  }
+
+  private static int cellIndex(double value, double min, double cellSize) {
+    return (int) Math.floor((value - min) / cellSize);
+  }
+
+  private static long cell(int u, int v) {
+    return ((long) u << 32) | (v & 0xffffffffL);
+  }
+
+  private static long key(int from, int to) {
+    return ((long) from << 32) | (to & 0xffffffffL);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Fingerprint.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 128 bit geometric fingerprint of a polygon or csg (see {@link CSG#fingerprint()}).
+ *
+ * <p>The fingerprint of a polygon is the sum of the hashes of its directed edges, i.e., it only
+ * depends on the vertex positions and the orientation of the polygon, but not on the first vertex.
+ * The fingerprint of a csg is the sum of the fingerprints of its polygons and therefore does not
+ * depend on the order of the polygons. Geometrically identical csgs have equal fingerprints.
+ * Different csgs have different fingerprints with very high probability. Instances are immutable.
+ *
+ * <p>Attributes that do not affect the geometry (vertex normals and weights, colors and other
+ * properties) have a separate fingerprint (see {@link #ofAttributes(List, PropertyStorage)}).
+ */
+public final class Fingerprint {
+
+  /** Fingerprint of a csg without polygons. */
+  public static final Fingerprint EMPTY = new Fingerprint(0, 0);
+
+  private static final long SEED_HIGH = 0x9e3779b97f4a7c15L;
+  private static final long SEED_LOW = 0xc2b2ae3d27d4eb4fL;
+
+  private final long high;
+  private final long low;
+
+  /**
+   * Constructor.
+   *
+   * @param high upper 64 bits
+   * @param low lower 64 bits
+   */
+  Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Computes the fingerprint of the polygon with the specified vertices.
+   *
+   * @param vertices polygon vertices
+   * @return the fingerprint of the polygon
+   */
+  static Fingerprint of(List<Vertex> vertices) {
+    long high = 0;
+    long low = 0;
+    int n = vertices.size();
+
+    for (int i = 0; i < n; i++) {
+      Vertex a = vertices.get(i);
+      Vertex b = vertices.get((i + 1) % n);
+
+      long ax = bits(a.pos.x());
+      long ay = bits(a.pos.y());
+      long az = bits(a.pos.z());
+      long bx = bits(b.pos.x());
+      long by = bits(b.pos.y());
+      long bz = bits(b.pos.z());
+
+      high += hash(SEED_HIGH, ax, ay, az, bx, by, bz);
+      low += hash(SEED_LOW, ax, ay, az, bx, by, bz);
+    }
+
+    return new Fingerprint(high, low);
+  }
+
+  /**
+   * Computes the fingerprint of the attributes of the specified polygons that are not covered by
+   * their geometric fingerprints, i.e., the vertex normals and weights and the properties of the
+   * polygons and of their csg (see {@link PropertyStorage}). Property values are compared by their
+   * string representation. Like the geometric fingerprint, the result does not depend on the order
+   * of the polygons.
+   *
+   * @param polygons polygons
+   * @param storage property storage of the csg or {@code null}
+   * @return the fingerprint of the attributes
+   */
+  static Fingerprint ofAttributes(List<Polygon> polygons, PropertyStorage storage) {
+    long storageHash = storage != null ? storage.contentHash() : 0;
+    long high = mix(SEED_HIGH ^ storageHash);
+    long low = mix(SEED_LOW ^ storageHash);
+
+    // polygons usually share a few storages
+    Map<PropertyStorage, Long> hashes = new IdentityHashMap<>();
+
+    for (Polygon polygon : polygons) {
+      PropertyStorage polygonStorage = polygon.peekStorage();
+      long polygonHash =
+          polygonStorage != null
+              ? hashes.computeIfAbsent(polygonStorage, PropertyStorage::contentHash)
+              : 0;
+
+      high += attributeHash(SEED_HIGH, polygon, polygonHash);
+      low += attributeHash(SEED_LOW, polygon, polygonHash);
+    }
+
+    return new Fingerprint(high, low);
+  }
+
+  /**
+   * Returns a 64 bit hash of the specified string.
+   *
+   * @param s string
+   * @return the hash of the string
+   */
+  static long hash(String s) {
+    long h = SEED_HIGH;
+
+    for (int i = 0; i < s.length(); i++) {
+      h = mix(h ^ s.charAt(i));
+    }
+
+    return mix(h ^ s.length());
+  }
+
+  /**
+   * Returns the fingerprint of the union of the polygon sets of this fingerprint and the specified
+   * fingerprint.
+   *
+   * @param other other fingerprint
+   * @return the combined fingerprint
+   */
+  Fingerprint plus(Fingerprint other) {
+    return new Fingerprint(high + other.high, low + other.low);
+  }
+
+  /** @return the upper 64 bits of this fingerprint */
+  public long getHigh() {
+    return high;
+  }
+
+  /** @return the lower 64 bits of this fingerprint */
+  public long getLow() {
+    return low;
+  }
+
+  /** Returns the bits of the specified coordinate ({@code -0.0} and {@code 0.0} are equal). */
+  private static long bits(double d) {
+    return Double.doubleToLongBits(d + 0.0);
+  }
+
+  /** Hashes the attributes of a polygon together with its geometric fingerprint. */
+  private static long attributeHash(long seed, Polygon polygon, long storageHash) {
+    Fingerprint geometry = polygon.fingerprint();
+    long h = mix(seed ^ storageHash);
+    h = mix(h ^ geometry.high);
+    h = mix(h ^ geometry.low);
+
+    for (Vertex v : polygon.vertices) {
+      h = mix(h ^ bits(v.normal.x()));
+      h = mix(h ^ bits(v.normal.y()));
+      h = mix(h ^ bits(v.normal.z()));
+      h = mix(h ^ bits(v.getWeight()));
+    }
+
+    return h;
+  }
+
+  private static long hash(long seed, long ax, long ay, long az, long bx, long by, long bz) {
+    long h = seed;
+    h = mix(h ^ ax);
+    h = mix(h ^ ay);
+    h = mix(h ^ az);
+    h = mix(h ^ bx);
+    h = mix(h ^ by);
+    h = mix(h ^ bz);
+    return h;
+  }
+
+  /** Finalization step of MurmurHash3 (64 bit). */
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Fingerprint)) {
+      return false;
+    }
+    Fingerprint other = (Fingerprint) obj;
+    return high == other.high && low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(high ^ low);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * IntList.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.Arrays;
+
+/**
+ * Resizable array of primitive {@code int} values. In contrast to {@code List<Integer>} the values
+ * are not boxed.
+ */
+final class IntList {
+
+  private int[] elements;
+  private int size;
+
+  /** Constructor. Creates an empty list. */
+  IntList() {
+    this(16);
+  }
+
+  /**
+   * Constructor. Creates an empty list with the specified initial capacity.
+   *
+   * @param initialCapacity initial capacity
+   */
+  IntList(int initialCapacity) {
+    elements = new int[Math.max(1, initialCapacity)];
+  }
+
+  /**
+   * Appends the specified value.
+   *
+   * @param value value to add
+   */
+  void add(int value) {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, size * 2);
+    }
+    elements[size++] = value;
+  }
+
+  /**
+   * Appends all values of the specified list.
+   *
+   * @param other list to add
+   */
+  void addAll(IntList other) {
+    ensureCapacity(size + other.size);
+    System.arraycopy(other.elements, 0, elements, size, other.size);
+    size += other.size;
+  }
+
+  /**
+   * Ensures that the list can hold the specified number of values without growing.
+   *
+   * @param capacity minimum capacity
+   */
+  void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(capacity, elements.length * 2));
+    }
+  }
+
+  int get(int index) {
+    return elements[index];
+  }
+
+  void set(int index, int value) {
+    elements[index] = value;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Removes all values. The capacity is not reduced. */
+  void clear() {
+    size = 0;
+  }
+
+  /** @return a copy of the values of this list */
+  int[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * JfrEvents.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events of {@link CSGEvents}. This class is only loaded if the runtime provides
+ * the {@code jdk.jfr} API.
+ */
+final class JfrEvents {
+
+  private JfrEvents() {
+    throw new AssertionError("Don't instantiate me!", null);
+  }
+
+  /**
+   * Begins an operation (see {@link CSGEvents#begin(CSGEvents.Kind, String)}).
+   *
+   * @param kind kind of the operation
+   * @param detail description of the operand or {@code null}
+   * @return the span of the operation
+   */
+  static CSGEvents.Span begin(CSGEvents.Kind kind, String detail) {
+    SizeEvent event;
+
+    switch (kind) {
+      case BSP_BUILD:
+        event = new BspBuildEvent();
+        break;
+      case HULL:
+        event = new HullEvent();
+        break;
+      case TRIANGULATION:
+        event = new TriangulationEvent();
+        break;
+      case STL_IMPORT:
+        event = new StlImportEvent();
+        break;
+      case STL_EXPORT:
+        event = new StlExportEvent();
+        break;
+      default:
+        event = new ObjExportEvent();
+        break;
+    }
+
+    if (!event.isEnabled()) {
+      return CSGEvents.Span.NONE;
+    }
+
+    event.detail = detail;
+    event.begin();
+
+    return new SizeSpan(event);
+  }
+
+  /**
+   * Begins a boolean operation (see {@link CSGEvents#beginBoolean()}).
+   *
+   * @return the span of the operation
+   */
+  static CSGEvents.Span beginBoolean() {
+    BooleanOperationEvent event = new BooleanOperationEvent();
+
+    if (!event.isEnabled()) {
+      return CSGEvents.Span.NONE;
+    }
+
+    event.begin();
+
+    return new BooleanSpan(event);
+  }
+
+  /** Span of an operation that is described by its input and output size. */
+  private static final class SizeSpan extends CSGEvents.Span {
+
+    private final SizeEvent event;
+
+    SizeSpan(SizeEvent event) {
+      this.event = event;
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return true;
+    }
+
+    @Override
+    public void end(long inputSize, long outputSize) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.inputSize = inputSize;
+        event.outputSize = outputSize;
+        event.commit();
+      }
+    }
+  }
+
+  /** Span of a boolean operation. */
+  private static final class BooleanSpan extends CSGEvents.Span {
+
+    private final BooleanOperationEvent event;
+
+    BooleanSpan(BooleanOperationEvent event) {
+      this.event = event;
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return true;
+    }
+
+    @Override
+    void end(OperationMetrics metrics) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.operation = metrics.getOperation().name();
+        event.path = metrics.getPath().name();
+        event.optType = String.valueOf(metrics.getOptType());
+        event.inputPolygons = metrics.getInputPolygons();
+        event.operandPolygons = metrics.getOperandPolygons();
+        event.outputPolygons = metrics.getOutputPolygons();
+        event.nodes = metrics.getNodeCount();
+        event.depth = metrics.getMaxDepth();
+        event.splitPolygons = metrics.getSplitPolygons();
+        event.fragments = metrics.getFragments();
+        event.buildTime = metrics.getNanos(OperationMetrics.Phase.BUILD);
+        event.clipTime = metrics.getNanos(OperationMetrics.Phase.CLIP);
+        event.invertTime = metrics.getNanos(OperationMetrics.Phase.INVERT);
+        event.commit();
+      }
+    }
+  }
+
+  @Name("com.xahon.javacsg.BooleanOperation")
+  @Label("Boolean Operation")
+  @Category("Java-CSG")
+  @Description("Union, difference or intersection of csgs")
+  static final class BooleanOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Path")
+    @Description("Code path chosen by the optimization type")
+    String path;
+
+    @Label("Optimization Type")
+    String optType;
+
+    @Label("Input Polygons")
+    int inputPolygons;
+
+    @Label("Operand Polygons")
+    int operandPolygons;
+
+    @Label("Output Polygons")
+    int outputPolygons;
+
+    @Label("BSP Nodes")
+    int nodes;
+
+    @Label("BSP Depth")
+    int depth;
+
+    @Label("Split Polygons")
+    long splitPolygons;
+
+    @Label("Fragments")
+    long fragments;
+
+    @Label("Build Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long buildTime;
+
+    @Label("Clip Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long clipTime;
+
+    @Label("Invert Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long invertTime;
+  }
+
+  /** Event of an operation that is described by its input and output size. */
+  abstract static class SizeEvent extends Event {
+
+    @Label("Detail")
+    String detail;
+
+    @Label("Input Size")
+    long inputSize;
+
+    @Label("Output Size")
+    long outputSize;
+  }
+
+  @Name("com.xahon.javacsg.BspBuild")
+  @Label("BSP Build")
+  @Category("Java-CSG")
+  @Description("Adds polygons (input) to a BSP tree with the resulting number of nodes (output)")
+  static final class BspBuildEvent extends SizeEvent {}
+
+  @Name("com.xahon.javacsg.Hull")
+  @Label("Convex Hull")
+  @Category("Java-CSG")
+  @Description("Convex hull of polygons (input) with the resulting number of polygons (output)")
+  static final class HullEvent extends SizeEvent {}
+
+  @Name("com.xahon.javacsg.Triangulation")
+  @Label("Triangulation")
+  @Category("Java-CSG")
+  @Description("Triangulates a concave polygon (input: vertices, output: triangles)")
+  @Threshold("1 ms")
+  static final class TriangulationEvent extends SizeEvent {}
+
+  @Name("com.xahon.javacsg.StlImport")
+  @Label("STL Import")
+  @Category("Java-CSG")
+  @Description("Loads an STL file (input: bytes, output: polygons)")
+  static final class StlImportEvent extends SizeEvent {}
+
+  @Name("com.xahon.javacsg.StlExport")
+  @Label("STL Export")
+  @Category("Java-CSG")
+  @Description("Converts polygons (input) to STL (output: characters)")
+  static final class StlExportEvent extends SizeEvent {}
+
+  @Name("com.xahon.javacsg.ObjExport")
+  @Label("OBJ Export")
+  @Category("Java-CSG")
+  @Description("Converts polygons (input) to OBJ (output: characters)")
+  static final class ObjExportEvent extends SizeEvent {}
+}
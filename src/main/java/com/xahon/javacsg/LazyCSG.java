@@ -0,0 +1,561 @@
+/**
+ * LazyCSG.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Transform;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Deferred CSG expression (see {@link CSG#lazy()}).
+ *
+ * <p>Operations invoked on a lazy csg are not executed immediately. Instead, each operation creates
+ * a new node of an expression graph that references its operands. The graph is evaluated on demand,
+ * i.e., if {@link #evaluate()}, {@link #getPolygons()} or one of the export methods is called. Before
+ * an operation is executed, a planner simplifies it:
+ *
+ * <ul>
+ *   <li>Nested unions and intersections are combined into one n-ary operation and chained
+ *       differences are combined into one difference with several tools (see {@link
+ *       CSG#difference(List)}). This is only done for operands that are not used by other
+ *       expressions, so shared subexpressions are still evaluated once.
+ *   <li>The operands of a union are grouped by their bounds. Groups whose bounds do not touch are
+ *       combined without a boolean operation. Within a group, nearby operands are unioned first
+ *       (see {@link CSG#union(List)}).
+ *   <li>Tools of a difference whose bounds do not touch the bounds of the base are never evaluated.
+ *       An intersection of operands whose bounds do not overlap is empty and none of its operands is
+ *       evaluated.
+ *   <li>Chained transforms are combined into a single transform.
+ * </ul>
+ *
+ * The bounds used by the planner are computed from the expression graph without evaluating it.
+ * They are conservative, i.e., they might be larger than the bounds of the evaluated csg.
+ *
+ * <p>The result of each node is cached. Evaluating an expression that shares subexpressions with an
+ * expression that has already been evaluated only evaluates the nodes that have not been evaluated
+ * yet. Operations are executed with the settings (optimization type, split plane selector, parallel
+ * mode) of the leftmost csg of the expression. If it is in parallel mode, independent operands are
+ * evaluated concurrently. Lazy csgs are immutable and may be evaluated by several threads at once.
+ */
+public final class LazyCSG {
+
+  private enum Kind {
+    LEAF,
+    UNION,
+    DIFFERENCE,
+    INTERSECTION,
+    TRANSFORM
+  }
+
+  private final Kind kind;
+  /** The csg of a leaf, or {@code null}. */
+  private final CSG csg;
+  /** Operands of this node (the first operand of a difference is the base). */
+  private final List<LazyCSG> operands;
+  /** The transform of a transform node, or {@code null}. */
+  private final Transform transform;
+  /** Number of nodes that use this node as operand. */
+  private final AtomicInteger parents = new AtomicInteger();
+
+  private volatile CSG result;
+  private volatile Aabb aabb;
+  private volatile boolean aabbComputed;
+
+  private LazyCSG(Kind kind, CSG csg, List<LazyCSG> operands, Transform transform) {
+    this.kind = kind;
+    this.csg = csg;
+    this.operands = operands;
+    this.transform = transform;
+
+    if (csg != null) {
+      this.result = csg;
+    }
+
+    for (LazyCSG operand : operands) {
+      operand.parents.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns a lazy csg that consists of the specified csg only.
+   *
+   * @param csg csg
+   * @return a lazy csg that consists of the specified csg
+   */
+  public static LazyCSG of(CSG csg) {
+    return new LazyCSG(Kind.LEAF, csg, Collections.<LazyCSG>emptyList(), null);
+  }
+
+  /**
+   * Returns the union of this csg and the specified csgs (see {@link CSG#union(List)}).
+   *
+   * @param csgs other csgs
+   * @return union of this csg and the specified csgs
+   */
+  public LazyCSG union(LazyCSG... csgs) {
+    return combine(Kind.UNION, csgs);
+  }
+
+  /**
+   * Returns the union of this csg and the specified csgs (see {@link CSG#union(List)}).
+   *
+   * @param csgs other csgs
+   * @return union of this csg and the specified csgs
+   */
+  public LazyCSG union(CSG... csgs) {
+    return union(leaves(csgs));
+  }
+
+  /**
+   * Returns the difference of this csg and the specified csgs (see {@link CSG#difference(List)}).
+   *
+   * @param csgs csgs to subtract
+   * @return difference of this csg and the specified csgs
+   */
+  public LazyCSG difference(LazyCSG... csgs) {
+    return combine(Kind.DIFFERENCE, csgs);
+  }
+
+  /**
+   * Returns the difference of this csg and the specified csgs (see {@link CSG#difference(List)}).
+   *
+   * @param csgs csgs to subtract
+   * @return difference of this csg and the specified csgs
+   */
+  public LazyCSG difference(CSG... csgs) {
+    return difference(leaves(csgs));
+  }
+
+  /**
+   * Returns the intersection of this csg and the specified csgs (see {@link CSG#intersect(List)}).
+   *
+   * @param csgs other csgs
+   * @return intersection of this csg and the specified csgs
+   */
+  public LazyCSG intersect(LazyCSG... csgs) {
+    return combine(Kind.INTERSECTION, csgs);
+  }
+
+  /**
+   * Returns the intersection of this csg and the specified csgs (see {@link CSG#intersect(List)}).
+   *
+   * @param csgs other csgs
+   * @return intersection of this csg and the specified csgs
+   */
+  public LazyCSG intersect(CSG... csgs) {
+    return intersect(leaves(csgs));
+  }
+
+  /**
+   * Returns a transformed copy of this csg (see {@link CSG#transformed(Transform)}).
+   *
+   * @param transform the transform to apply
+   * @return a transformed copy of this csg
+   */
+  public LazyCSG transformed(Transform transform) {
+    return new LazyCSG(Kind.TRANSFORM, null, Collections.singletonList(this), transform);
+  }
+
+  /**
+   * Evaluates this expression. The result is cached, i.e., subsequent calls return the same csg.
+   *
+   * @return the csg this expression evaluates to
+   */
+  public CSG evaluate() {
+    CSG evaluated = result;
+
+    if (evaluated == null) {
+      synchronized (this) {
+        evaluated = result;
+
+        if (evaluated == null) {
+          evaluated = compute();
+          result = evaluated;
+        }
+      }
+    }
+
+    return evaluated;
+  }
+
+  /** @return whether this expression has already been evaluated */
+  public boolean isEvaluated() {
+    return result != null;
+  }
+
+  /** @return the polygons of the csg this expression evaluates to */
+  public List<Polygon> getPolygons() {
+    return evaluate().getPolygons();
+  }
+
+  /**
+   * Returns the bounds of this expression. If this expression has not been evaluated yet, the
+   * bounds are estimated from the expression graph, i.e., they might be larger than the bounds of
+   * the evaluated csg.
+   *
+   * @return the bounds of this expression
+   */
+  public Bounds getBounds() {
+    CSG evaluated = result;
+
+    if (evaluated != null) {
+      return evaluated.getBounds();
+    }
+
+    Aabb bounds = getAabb();
+
+    return bounds != null ? bounds.toBounds() : Aabb.ZERO.toBounds();
+  }
+
+  /** @return the csg this expression evaluates to in STL string format */
+  public String toStlString() {
+    return evaluate().toStlString();
+  }
+
+  /** @return the csg this expression evaluates to as wavefront obj file */
+  public ObjFile toObj() {
+    return evaluate().toObj();
+  }
+
+  /** @return the csg this expression evaluates to in OBJ string format */
+  public String toObjString() {
+    return evaluate().toObjString();
+  }
+
+  private LazyCSG combine(Kind kind, LazyCSG... csgs) {
+    if (csgs.length == 0) {
+      return this;
+    }
+
+    List<LazyCSG> ops = new ArrayList<>(csgs.length + 1);
+    ops.add(this);
+    ops.addAll(Arrays.asList(csgs));
+
+    return new LazyCSG(kind, null, ops, null);
+  }
+
+  private static LazyCSG[] leaves(CSG... csgs) {
+    LazyCSG[] result = new LazyCSG[csgs.length];
+
+    for (int i = 0; i < csgs.length; i++) {
+      result[i] = of(csgs[i]);
+    }
+
+    return result;
+  }
+
+  /** @return the leftmost csg of this expression whose settings are used for all operations */
+  private CSG settings() {
+    LazyCSG node = this;
+
+    while (node.kind != Kind.LEAF) {
+      node = node.operands.get(0);
+    }
+
+    return node.csg;
+  }
+
+  /**
+   * Indicates whether the specified operand can be merged into a node of the specified kind, i.e.,
+   * whether it is an unevaluated node of the same kind that is not used by another node.
+   */
+  private static boolean mergeable(LazyCSG operand, Kind kind) {
+    return operand.kind == kind && operand.result == null && operand.parents.get() == 1;
+  }
+
+  /**
+   * Returns the conservative bounds of this expression.
+   *
+   * @return the bounds of this expression or {@code null} if this expression is empty
+   */
+  private Aabb getAabb() {
+    if (!aabbComputed) {
+      aabb = computeAabb();
+      aabbComputed = true;
+    }
+
+    return aabb;
+  }
+
+  private Aabb computeAabb() {
+    CSG evaluated = result;
+
+    if (evaluated != null) {
+      return evaluated.getPolygons().isEmpty() ? null : evaluated.getAabb();
+    }
+
+    switch (kind) {
+      case UNION:
+        {
+          Aabb bounds = null;
+          for (LazyCSG operand : operands) {
+            Aabb b = operand.getAabb();
+            if (b != null) {
+              bounds = bounds == null ? b : bounds.union(b);
+            }
+          }
+          return bounds;
+        }
+      case DIFFERENCE:
+        return operands.get(0).getAabb();
+      case INTERSECTION:
+        {
+          Aabb bounds = operands.get(0).getAabb();
+          for (int i = 1; i < operands.size() && bounds != null; i++) {
+            Aabb b = operands.get(i).getAabb();
+            bounds = b == null ? null : bounds.intersection(b);
+          }
+          return bounds;
+        }
+      case TRANSFORM:
+        {
+          Aabb bounds = operands.get(0).getAabb();
+          return bounds == null ? null : bounds.transformed(transform);
+        }
+      default:
+        throw new IllegalStateException("Unknown node: " + kind);
+    }
+  }
+
+  private CSG compute() {
+    switch (kind) {
+      case UNION:
+        return computeUnion();
+      case DIFFERENCE:
+        return computeDifference();
+      case INTERSECTION:
+        return computeIntersection();
+      case TRANSFORM:
+        return computeTransform();
+      default:
+        throw new IllegalStateException("Unknown node: " + kind);
+    }
+  }
+
+  /**
+   * Collects the operands of this node. Operands of the same kind that are not shared are replaced
+   * by their operands. Duplicate operands are removed.
+   */
+  private List<LazyCSG> flatten() {
+    Set<LazyCSG> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<LazyCSG> result = new ArrayList<>();
+    flatten(this, visited, result);
+    return result;
+  }
+
+  private void flatten(LazyCSG node, Set<LazyCSG> visited, List<LazyCSG> result) {
+    for (LazyCSG operand : node.operands) {
+      if (mergeable(operand, kind)) {
+        flatten(operand, visited, result);
+      } else if (visited.add(operand)) {
+        result.add(operand);
+      }
+    }
+  }
+
+  private CSG computeUnion() {
+    List<LazyCSG> ops = flatten();
+    List<CSG> csgs = evaluateAll(ops);
+    csgs.removeIf(c -> c.getPolygons().isEmpty());
+
+    if (csgs.isEmpty()) {
+      return empty();
+    } else if (csgs.size() == 1) {
+      return csgs.get(0);
+    }
+
+    // group the operands whose bounds touch (union-find)
+    int n = csgs.size();
+    int[] group = new int[n];
+    Aabb[] bounds = new Aabb[n];
+
+    for (int i = 0; i < n; i++) {
+      group[i] = i;
+      bounds[i] = csgs.get(i).getAabb().expand(Plane.EPSILON);
+    }
+
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        if (bounds[i].intersects(bounds[j])) {
+          group[find(group, j)] = find(group, i);
+        }
+      }
+    }
+
+    List<List<CSG>> groups = new ArrayList<>();
+    int[] groupIndex = new int[n];
+    Arrays.fill(groupIndex, -1);
+
+    for (int i = 0; i < n; i++) {
+      int root = find(group, i);
+      if (groupIndex[root] < 0) {
+        groupIndex[root] = groups.size();
+        groups.add(new ArrayList<>());
+      }
+      groups.get(groupIndex[root]).add(csgs.get(i));
+    }
+
+    CSG settings = settings();
+
+    List<Polygon> allPolygons = new ArrayList<>();
+
+    for (List<CSG> g : groups) {
+      if (g.size() == 1) {
+        allPolygons.addAll(CSG.copies(g.get(0).getPolygons()));
+      } else {
+        CSG first = settings.inheritSettings(CSG.fromPolygons(g.get(0).getPolygons()));
+        allPolygons.addAll(first.union(g.subList(1, g.size())).getPolygons());
+      }
+    }
+
+    return settings.inheritSettings(CSG.fromPolygons(allPolygons));
+  }
+
+  private static int find(int[] group, int i) {
+    while (group[i] != i) {
+      group[i] = group[group[i]];
+      i = group[i];
+    }
+    return i;
+  }
+
+  private CSG computeDifference() {
+    // (a - b) - c = a - (b | c) = a - b - c
+    LazyCSG base = this;
+    List<LazyCSG> tools = new ArrayList<>();
+
+    while (base == this || mergeable(base, Kind.DIFFERENCE)) {
+      List<LazyCSG> baseTools = base.operands.subList(1, base.operands.size());
+      tools.addAll(0, baseTools);
+      base = base.operands.get(0);
+    }
+
+    Aabb baseBounds = base.getAabb();
+
+    if (baseBounds == null) {
+      return empty();
+    }
+
+    Aabb bounds = baseBounds.expand(Plane.EPSILON);
+    Set<LazyCSG> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<LazyCSG> relevantTools = new ArrayList<>();
+    collectTools(tools, bounds, visited, relevantTools);
+
+    CSG a = base.evaluate();
+
+    if (relevantTools.isEmpty()) {
+      return a;
+    }
+
+    List<CSG> toolCSGs =
+        evaluateAll(relevantTools)
+            .stream()
+            .filter(t -> !t.getPolygons().isEmpty() && t.getAabb().intersects(bounds))
+            .collect(Collectors.toList());
+
+    if (toolCSGs.isEmpty()) {
+      return a;
+    }
+
+    return settings().inheritSettings(CSG.fromPolygons(a.getPolygons())).difference(toolCSGs);
+  }
+
+  /** Collects the tools that touch the specified bounds. Unshared unions are split into tools. */
+  private static void collectTools(
+      List<LazyCSG> tools, Aabb bounds, Set<LazyCSG> visited, List<LazyCSG> result) {
+    for (LazyCSG tool : tools) {
+      Aabb toolBounds = tool.getAabb();
+
+      if (toolBounds == null || !toolBounds.intersects(bounds)) {
+        continue;
+      }
+
+      if (mergeable(tool, Kind.UNION)) {
+        collectTools(tool.operands, bounds, visited, result);
+      } else if (visited.add(tool)) {
+        result.add(tool);
+      }
+    }
+  }
+
+  private CSG computeIntersection() {
+    if (getAabb() == null) {
+      return empty();
+    }
+
+    List<CSG> csgs = evaluateAll(flatten());
+    CSG settings = settings();
+
+    for (CSG c : csgs) {
+      if (c.getPolygons().isEmpty()) {
+        return empty();
+      }
+    }
+
+    if (csgs.size() == 1) {
+      return csgs.get(0);
+    }
+
+    CSG first = settings.inheritSettings(CSG.fromPolygons(csgs.get(0).getPolygons()));
+
+    return first.intersect(csgs.subList(1, csgs.size()));
+  }
+
+  private CSG computeTransform() {
+    // t2(t1(x)) = (t2 * t1)(x)
+    Transform combined = Transform.unity().apply(transform);
+    LazyCSG operand = operands.get(0);
+
+    while (mergeable(operand, Kind.TRANSFORM)) {
+      combined.apply(operand.transform);
+      operand = operand.operands.get(0);
+    }
+
+    return operand.evaluate().transformed(combined);
+  }
+
+  private List<CSG> evaluateAll(List<LazyCSG> ops) {
+    if (ops.size() > 1 && settings().isParallel()) {
+      return ops.parallelStream().map(LazyCSG::evaluate).collect(Collectors.toList());
+    }
+
+    return ops.stream().map(LazyCSG::evaluate).collect(Collectors.toList());
+  }
+
+  private CSG empty() {
+    return settings().inheritSettings(CSG.fromPolygons(new ArrayList<>()));
+  }
+}
@@ -0,0 +1,497 @@
+/**
+ * MeshBoolean.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Boolean operations on polygon meshes without BSP trees ({@link CSG.OptType#MESH}).
+ *
+ * <p>The polygons of each operand are split along the surface of the other operand: a polygon is
+ * split with the plane of a polygon of the other operand if both polygons intersect. Candidates are
+ * found with a {@link PolygonBvh}, i.e., polygons far from the other surface are not touched. After
+ * splitting, no fragment crosses the surface of the other operand. Each fragment is classified as
+ * inside, outside, or on the surface of the other operand (with the same or the opposite
+ * orientation) by casting a ray from its centroid and checking the orientation of the nearest
+ * polygon hit by the ray. The result consists of the fragments selected by the operation.
+ *
+ * <p>In contrast to the BSP algorithm, the cost depends on the number of polygons near the
+ * intersection of the surfaces, not on the depth of the BSP trees. The operands must be closed
+ * meshes.
+ */
+final class MeshBoolean {
+
+  /** Operands with fewer polygons are not processed by separate tasks. */
+  static final int PARALLEL_THRESHOLD = 200;
+
+  /**
+   * Ray directions used if the ray along the normal of a fragment hits the other surface at an
+   * edge or at a grazing angle.
+   */
+  private static final Vector3d[] RAY_DIRECTIONS = {
+    Vector3d.xyz(0.3713906763541037, 0.5570860145311556, 0.7427813527082074),
+    Vector3d.xyz(-0.6674238124719146, 0.2002271437415744, 0.7174809313726248),
+    Vector3d.xyz(0.5025707110324167, -0.8042163127366474, 0.3173836470963419),
+    Vector3d.xyz(-0.2213211368975213, -0.6197991833130599, -0.7529316906924133),
+    Vector3d.xyz(0.8303316904106838, -0.2420123985040981, -0.5020876891155218)
+  };
+
+  /** Location of a fragment relative to the other operand. */
+  private enum Location {
+    INSIDE,
+    OUTSIDE,
+    /** On the surface, the normals point in the same direction. */
+    SAME,
+    /** On the surface, the normals point in opposite directions. */
+    OPPOSITE
+  }
+
+  /** Fragments of one operand grouped by location. */
+  private static final class Fragments {
+
+    private final List<List<Polygon>> byLocation = new ArrayList<>();
+
+    Fragments() {
+      for (int i = 0; i < Location.values().length; i++) {
+        byLocation.add(new ArrayList<>());
+      }
+    }
+
+    List<Polygon> get(Location location) {
+      return byLocation.get(location.ordinal());
+    }
+  }
+
+  private final Fragments a;
+  private final Fragments b;
+
+  /**
+   * Splits and classifies the polygons of both operands.
+   *
+   * @param polygonsA polygons of the first operand
+   * @param polygonsB polygons of the second operand
+   * @param parallel whether polygons are processed concurrently
+   * @param metrics metrics of the operation
+   */
+  private MeshBoolean(
+      List<Polygon> polygonsA,
+      List<Polygon> polygonsB,
+      boolean parallel,
+      OperationMetrics metrics) {
+    long start = metrics.start();
+    PolygonBvh bvhA = new PolygonBvh(polygonsA);
+    PolygonBvh bvhB = new PolygonBvh(polygonsB);
+    start = metrics.lap(OperationMetrics.Phase.BOUNDS, start);
+
+    List<Polygon> fragmentsA = split(polygonsA, polygonsB, bvhB, parallel, metrics);
+    List<Polygon> fragmentsB = split(polygonsB, polygonsA, bvhA, parallel, metrics);
+    start = metrics.lap(OperationMetrics.Phase.SPLIT, start);
+
+    this.a = classify(fragmentsA, polygonsB, bvhB, parallel);
+    this.b = classify(fragmentsB, polygonsA, bvhA, parallel);
+    metrics.lap(OperationMetrics.Phase.CLASSIFY, start);
+  }
+
+  /**
+   * Returns the polygons of the union of two solids.
+   *
+   * @param polygonsA polygons of the first solid
+   * @param polygonsB polygons of the second solid
+   * @param parallel whether polygons are processed concurrently
+   * @param metrics metrics of the operation
+   * @return polygons of the union
+   */
+  static List<Polygon> union(
+      List<Polygon> polygonsA,
+      List<Polygon> polygonsB,
+      boolean parallel,
+      OperationMetrics metrics) {
+    MeshBoolean op = new MeshBoolean(polygonsA, polygonsB, parallel, metrics);
+    List<Polygon> result = new ArrayList<>();
+    result.addAll(op.a.get(Location.OUTSIDE));
+    result.addAll(op.a.get(Location.SAME));
+    result.addAll(op.b.get(Location.OUTSIDE));
+    return result;
+  }
+
+  /**
+   * Returns the polygons of the difference of two solids.
+   *
+   * @param polygonsA polygons of the first solid
+   * @param polygonsB polygons of the solid to subtract
+   * @param parallel whether polygons are processed concurrently
+   * @param metrics metrics of the operation
+   * @return polygons of the difference
+   */
+  static List<Polygon> difference(
+      List<Polygon> polygonsA,
+      List<Polygon> polygonsB,
+      boolean parallel,
+      OperationMetrics metrics) {
+    MeshBoolean op = new MeshBoolean(polygonsA, polygonsB, parallel, metrics);
+    List<Polygon> result = new ArrayList<>();
+    result.addAll(op.a.get(Location.OUTSIDE));
+    result.addAll(op.a.get(Location.OPPOSITE));
+    for (Polygon p : op.b.get(Location.INSIDE)) {
+      result.add(p.inverse());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the polygons of the intersection of two solids.
+   *
+   * @param polygonsA polygons of the first solid
+   * @param polygonsB polygons of the second solid
+   * @param parallel whether polygons are processed concurrently
+   * @param metrics metrics of the operation
+   * @return polygons of the intersection
+   */
+  static List<Polygon> intersect(
+      List<Polygon> polygonsA,
+      List<Polygon> polygonsB,
+      boolean parallel,
+      OperationMetrics metrics) {
+    MeshBoolean op = new MeshBoolean(polygonsA, polygonsB, parallel, metrics);
+    List<Polygon> result = new ArrayList<>();
+    result.addAll(op.a.get(Location.INSIDE));
+    result.addAll(op.a.get(Location.SAME));
+    result.addAll(op.b.get(Location.INSIDE));
+    return result;
+  }
+
+  /**
+   * Splits the specified polygons along the surface defined by the cutting polygons.
+   *
+   * @param polygons polygons to split
+   * @param cutters polygons of the other surface
+   * @param cutterBvh hierarchy over the cutting polygons
+   * @param parallel whether polygons are processed concurrently
+   * @param metrics metrics of the operation
+   * @return fragments that do not cross the other surface
+   */
+  private static List<Polygon> split(
+      List<Polygon> polygons,
+      List<Polygon> cutters,
+      PolygonBvh cutterBvh,
+      boolean parallel,
+      OperationMetrics metrics) {
+    IntStream indices = IntStream.range(0, polygons.size());
+    if (parallel && polygons.size() >= PARALLEL_THRESHOLD) {
+      indices = indices.parallel();
+    }
+    return indices
+        .mapToObj(i -> split(polygons.get(i), cutters, cutterBvh, metrics))
+        .flatMap(List::stream)
+        .collect(Collectors.toList());
+  }
+
+  private static List<Polygon> split(
+      Polygon polygon, List<Polygon> cutters, PolygonBvh cutterBvh, OperationMetrics metrics) {
+    IntList candidates = new IntList(16);
+    cutterBvh.overlapping(polygon.getAabb(), candidates);
+
+    List<Polygon> fragments = Collections.singletonList(polygon);
+
+    for (int i = 0; i < candidates.size(); i++) {
+      Polygon cutter = cutters.get(candidates.get(i));
+      Vector3d[] segment = cutSegment(cutter, polygon._csg_plane);
+
+      if (segment == null) {
+        continue;
+      }
+
+      List<Polygon> next = null;
+
+      for (int j = 0; j < fragments.size(); j++) {
+        Polygon f = fragments.get(j);
+        boolean cut = straddles(f, cutter._csg_plane) && intersects(segment, f);
+        if (cut && next == null) {
+          next = new ArrayList<>(fragments.subList(0, j));
+        }
+        if (cut) {
+          metrics.split(cutter._csg_plane.split(f, next, next, next, next));
+        } else if (next != null) {
+          next.add(f);
+        }
+      }
+
+      if (next != null) {
+        fragments = next;
+      }
+    }
+
+    return fragments;
+  }
+
+  /**
+   * Returns the part of the cutting polygon that lies on the specified plane.
+   *
+   * @return end points of the segment or {@code null} if the polygon does not cross the plane or is
+   *     coplanar
+   */
+  private static Vector3d[] cutSegment(Polygon cutter, Plane plane) {
+    List<Vertex> vertices = cutter.vertices;
+    int n = vertices.size();
+    double[] distances = new double[n];
+    boolean front = false;
+    boolean back = false;
+
+    for (int i = 0; i < n; i++) {
+      distances[i] = plane.normal.dot(vertices.get(i).pos) - plane.dist;
+      front |= distances[i] > Plane.EPSILON;
+      back |= distances[i] < -Plane.EPSILON;
+    }
+
+    // coplanar cutters do not split, cutters that touch the plane with an edge are not skipped
+    // since they bound the coplanar regions of both surfaces
+    if (!front && !back) {
+      return null;
+    }
+
+    Vector3d direction = plane.normal.crossed(cutter._csg_plane.normal);
+    Vector3d min = null;
+    Vector3d max = null;
+    double minT = Double.POSITIVE_INFINITY;
+    double maxT = Double.NEGATIVE_INFINITY;
+
+    for (int i = 0; i < n; i++) {
+      int j = (i + 1) % n;
+      Vector3d point = null;
+      if (Math.abs(distances[i]) <= Plane.EPSILON) {
+        point = vertices.get(i).pos;
+      } else if (distances[i] * distances[j] < 0 && Math.abs(distances[j]) > Plane.EPSILON) {
+        Vector3d vi = vertices.get(i).pos;
+        Vector3d vj = vertices.get(j).pos;
+        point = vi.lerp(vj, distances[i] / (distances[i] - distances[j]));
+      }
+      if (point != null) {
+        double t = point.dot(direction);
+        if (t < minT) {
+          minT = t;
+          min = point;
+        }
+        if (t > maxT) {
+          maxT = t;
+          max = point;
+        }
+      }
+    }
+
+    return min == null ? null : new Vector3d[] {min, max};
+  }
+
+  /** Indicates whether the polygon has vertices in front of and behind the plane. */
+  private static boolean straddles(Polygon polygon, Plane plane) {
+    boolean front = false;
+    boolean back = false;
+    for (Vertex v : polygon.vertices) {
+      double t = plane.normal.dot(v.pos) - plane.dist;
+      front |= t > Plane.EPSILON;
+      back |= t < -Plane.EPSILON;
+    }
+    return front && back;
+  }
+
+  /**
+   * Indicates whether a segment on the plane of a convex polygon intersects the polygon (with a
+   * tolerance of {@link Plane#EPSILON}). The segment is clipped with the half planes of the polygon
+   * edges.
+   */
+  private static boolean intersects(Vector3d[] segment, Polygon polygon) {
+    Vector3d normal = polygon._csg_plane.normal;
+    List<Vertex> vertices = polygon.vertices;
+    int n = vertices.size();
+    double t0 = 0;
+    double t1 = 1;
+
+    for (int i = 0; i < n; i++) {
+      Vector3d vi = vertices.get(i).pos;
+      Vector3d edge = vertices.get((i + 1) % n).pos.minus(vi);
+      Vector3d inward = normal.crossed(edge);
+      double length = inward.magnitude();
+
+      if (length == 0) {
+        continue;
+      }
+
+      double g0 = inward.dot(segment[0].minus(vi)) / length + Plane.EPSILON;
+      double g1 = inward.dot(segment[1].minus(vi)) / length + Plane.EPSILON;
+
+      if (g0 < 0 && g1 < 0) {
+        return false;
+      }
+      if (g0 < 0) {
+        t0 = Math.max(t0, g0 / (g0 - g1));
+      } else if (g1 < 0) {
+        t1 = Math.min(t1, g0 / (g0 - g1));
+      }
+      if (t0 > t1) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Classifies the fragments of one operand with respect to the other operand.
+   *
+   * @param fragments fragments that do not cross the surface of the other operand
+   * @param polygons polygons of the other operand
+   * @param bvh hierarchy over the polygons of the other operand
+   * @param parallel whether fragments are processed concurrently
+   * @return the classified fragments
+   */
+  private static Fragments classify(
+      List<Polygon> fragments, List<Polygon> polygons, PolygonBvh bvh, boolean parallel) {
+    IntStream indices = IntStream.range(0, fragments.size());
+    if (parallel && fragments.size() >= PARALLEL_THRESHOLD) {
+      indices = indices.parallel();
+    }
+    Location[] locations = new Location[fragments.size()];
+    indices.forEach(i -> locations[i] = locate(fragments.get(i), polygons, bvh));
+
+    Fragments result = new Fragments();
+    for (int i = 0; i < locations.length; i++) {
+      result.get(locations[i]).add(fragments.get(i));
+    }
+    return result;
+  }
+
+  /** Returns the location of a fragment relative to the solid bounded by the specified polygons. */
+  private static Location locate(Polygon fragment, List<Polygon> polygons, PolygonBvh bvh) {
+    Vector3d point = fragment.centroid();
+    Vector3d normal = fragment._csg_plane.normal;
+    IntList candidates = new IntList(16);
+
+    // fragments on the surface
+    bvh.overlapping(
+        new Aabb(point.x(), point.y(), point.z(), point.x(), point.y(), point.z()), candidates);
+    for (int i = 0; i < candidates.size(); i++) {
+      Polygon p = polygons.get(candidates.get(i));
+      Plane plane = p._csg_plane;
+      double cos = plane.normal.dot(normal);
+      if (Math.abs(plane.normal.dot(point) - plane.dist) <= Plane.EPSILON
+          && Math.abs(cos) > 1 - Plane.EPSILON
+          && distanceToBoundary(p, point) >= -Plane.EPSILON) {
+        return cos > 0 ? Location.SAME : Location.OPPOSITE;
+      }
+    }
+
+    Location first = null;
+
+    for (int d = -1; d < RAY_DIRECTIONS.length; d++) {
+      Vector3d direction = d < 0 ? normal : RAY_DIRECTIONS[d];
+      candidates.clear();
+      bvh.raycast(point, direction, candidates);
+
+      double nearest = Double.POSITIVE_INFINITY;
+      double cos = 0;
+      boolean ambiguous = false;
+
+      for (int i = 0; i < candidates.size(); i++) {
+        Polygon p = polygons.get(candidates.get(i));
+        Plane plane = p._csg_plane;
+        double denominator = plane.normal.dot(direction);
+
+        if (Math.abs(denominator) < Plane.EPSILON) {
+          // the ray is parallel to the polygon, it may graze the polygon
+          ambiguous |= Math.abs(plane.normal.dot(point) - plane.dist) <= Plane.EPSILON;
+          continue;
+        }
+
+        double t = (plane.dist - plane.normal.dot(point)) / denominator;
+
+        if (t < -Plane.EPSILON || t > nearest + Plane.EPSILON) {
+          continue;
+        }
+
+        double distance = distanceToBoundary(p, point.plus(direction.times(t)));
+
+        if (distance < -Plane.EPSILON) {
+          continue;
+        }
+
+        boolean edgeHit = distance <= Plane.EPSILON || t <= Plane.EPSILON;
+
+        if (t < nearest - Plane.EPSILON) {
+          nearest = t;
+          cos = denominator;
+          ambiguous = edgeHit;
+        } else {
+          // hits at the same distance, e.g., at an edge shared by two polygons
+          ambiguous |= edgeHit || (cos > 0) != (denominator > 0);
+        }
+      }
+
+      Location location =
+          nearest == Double.POSITIVE_INFINITY
+              ? Location.OUTSIDE
+              : cos > 0 ? Location.INSIDE : Location.OUTSIDE;
+
+      if (!ambiguous) {
+        return location;
+      }
+      if (first == null) {
+        first = location;
+      }
+    }
+
+    return first;
+  }
+
+  /**
+   * Returns the signed distance of a point on the plane of a convex polygon to the polygon
+   * boundary. The distance is positive if the point is inside of the polygon.
+   */
+  private static double distanceToBoundary(Polygon polygon, Vector3d point) {
+    Vector3d normal = polygon._csg_plane.normal;
+    List<Vertex> vertices = polygon.vertices;
+    int n = vertices.size();
+    double distance = Double.POSITIVE_INFINITY;
+
+    for (int i = 0; i < n; i++) {
+      Vector3d vi = vertices.get(i).pos;
+      Vector3d inward = normal.crossed(vertices.get((i + 1) % n).pos.minus(vi));
+      double length = inward.magnitude();
+      if (length > 0) {
+        distance = Math.min(distance, inward.dot(point.minus(vi)) / length);
+      }
+    }
+
+    return distance;
+  }
+}
@@ -0,0 +1,411 @@
+/**
+ * MeshWelder.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts polygons to an indexed mesh with shared vertices (see {@link
+ * PackedMesh#fromCSG(CSG, double)}).
+ *
+ * <p>Vertices closer than the tolerance are welded, i.e., replaced by the first of these vertices.
+ * Candidates are found with a spatial hash whose cells have the size of the tolerance. Edges that
+ * collapse by welding are removed, polygons with less than three remaining vertices are dropped.
+ *
+ * <p>Afterwards, vertices that lie on an edge of a polygon (T-junctions) are inserted into that
+ * edge. Only edges without opposite edge, i.e., edges that are not shared with a neighboring
+ * polygon, are checked. Their vertices are the only candidates, they are found with a uniform grid.
+ * After the repair, the edges of a closed solid are shared by exactly two polygons.
+ */
+final class MeshWelder {
+
+  private final double tolerance;
+  /** Welded vertex coordinates ({@code x, y, z} per vertex). */
+  private final DoubleList coordinates = new DoubleList(1024);
+  /** Spatial hash of the welded vertices. */
+  private final Map<Long, IntList> cells = new HashMap<>();
+  /** Polygons that have not been dropped. */
+  private final List<Polygon> polygons = new ArrayList<>();
+  /** Vertex loops of the polygons (indices of welded vertices). */
+  private final List<int[]> loops = new ArrayList<>();
+
+  private MeshWelder(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Creates an indexed mesh from the specified polygons.
+   *
+   * @param polygons polygons to convert (not modified)
+   * @param tolerance maximum distance of welded vertices (positive)
+   * @return packed mesh with shared vertices
+   */
+  static PackedMesh weld(List<Polygon> polygons, double tolerance) {
+    MeshWelder welder = new MeshWelder(tolerance);
+
+    for (Polygon p : polygons) {
+      welder.addPolygon(p);
+    }
+
+    welder.insertTJunctions();
+
+    return welder.toMesh();
+  }
+
+  private void addPolygon(Polygon p) {
+    IntList loop = new IntList(p.vertices.size());
+
+    for (Vertex v : p.vertices) {
+      int id = vertex(v.pos);
+      // welding may collapse short edges
+      if (loop.isEmpty() || loop.get(loop.size() - 1) != id) {
+        loop.add(id);
+      }
+    }
+
+    int length = loop.size();
+    while (length > 1 && loop.get(0) == loop.get(length - 1)) {
+      length--;
+    }
+
+    if (length >= 3) {
+      int[] polygonLoop = new int[length];
+      for (int i = 0; i < length; i++) {
+        polygonLoop[i] = loop.get(i);
+      }
+      polygons.add(p);
+      loops.add(polygonLoop);
+    }
+  }
+
+  /**
+   * Returns the welded vertex at the specified position. A new vertex is added if no vertex is
+   * closer than the tolerance.
+   */
+  private int vertex(Vector3d pos) {
+    long cx = cellIndex(pos.x(), tolerance);
+    long cy = cellIndex(pos.y(), tolerance);
+    long cz = cellIndex(pos.z(), tolerance);
+    double toleranceSquared = tolerance * tolerance;
+
+    for (long x = cx - 1; x <= cx + 1; x++) {
+      for (long y = cy - 1; y <= cy + 1; y++) {
+        for (long z = cz - 1; z <= cz + 1; z++) {
+          IntList candidates = cells.get(cellKey(x, y, z));
+          if (candidates == null) {
+            continue;
+          }
+          for (int i = 0; i < candidates.size(); i++) {
+            int c = candidates.get(i);
+            if (distanceSquared(c, pos.x(), pos.y(), pos.z()) <= toleranceSquared) {
+              return c;
+            }
+          }
+        }
+      }
+    }
+
+    int id = coordinates.size() / 3;
+    coordinates.add(pos.x());
+    coordinates.add(pos.y());
+    coordinates.add(pos.z());
+    cells.computeIfAbsent(cellKey(cx, cy, cz), k -> new IntList(4)).add(id);
+    return id;
+  }
+
+  /**
+   * Inserts vertices that lie on an edge without opposite edge into that edge. Candidates are the
+   * vertices of such edges.
+   */
+  private void insertTJunctions() {
+    Set<Long> edges = new HashSet<>();
+    for (int[] loop : loops) {
+      for (int k = 0; k < loop.length; k++) {
+        edges.add(edgeKey(loop[k], loop[(k + 1) % loop.length]));
+      }
+    }
+
+    boolean[] isCandidate = new boolean[coordinates.size() / 3];
+    IntList candidates = new IntList();
+    double totalLength = 0;
+    int numOpenEdges = 0;
+
+    for (int[] loop : loops) {
+      for (int k = 0; k < loop.length; k++) {
+        int a = loop[k];
+        int b = loop[(k + 1) % loop.length];
+        if (edges.contains(edgeKey(b, a))) {
+          continue;
+        }
+        numOpenEdges++;
+        totalLength += Math.sqrt(distanceSquared(a, b));
+        for (int v : new int[] {a, b}) {
+          if (!isCandidate[v]) {
+            isCandidate[v] = true;
+            candidates.add(v);
+          }
+        }
+      }
+    }
+
+    if (numOpenEdges == 0) {
+      return;
+    }
+
+    // average length of the open edges, each edge covers a few cells only
+    double cellSize = Math.max(totalLength / numOpenEdges, tolerance);
+    Map<Long, IntList> grid = new HashMap<>();
+    for (int i = 0; i < candidates.size(); i++) {
+      int c = candidates.get(i);
+      grid.computeIfAbsent(
+              cellKey(
+                  cellIndex(x(c), cellSize), cellIndex(y(c), cellSize), cellIndex(z(c), cellSize)),
+              k -> new IntList(4))
+          .add(c);
+    }
+
+    for (int i = 0; i < loops.size(); i++) {
+      int[] loop = loops.get(i);
+      IntList newLoop = null;
+
+      for (int k = 0; k < loop.length; k++) {
+        int a = loop[k];
+        int b = loop[(k + 1) % loop.length];
+
+        List<double[]> onEdge =
+            edges.contains(edgeKey(b, a)) ? null : onEdge(a, b, grid, cellSize, candidates);
+
+        if (onEdge != null && newLoop == null) {
+          newLoop = new IntList(loop.length + onEdge.size());
+          for (int j = 0; j < k; j++) {
+            newLoop.add(loop[j]);
+          }
+        }
+
+        if (newLoop != null) {
+          newLoop.add(a);
+          if (onEdge != null) {
+            onEdge.sort((u, v) -> Double.compare(u[0], v[0]));
+            for (double[] tc : onEdge) {
+              newLoop.add((int) tc[1]);
+            }
+          }
+        }
+      }
+
+      if (newLoop != null) {
+        loops.set(i, newLoop.toArray());
+      }
+    }
+  }
+
+  /**
+   * Returns the candidates that lie on the inner part of the edge {@code a -> b}.
+   *
+   * @return parameter and index of the vertices on the edge or {@code null} if there are none
+   */
+  private List<double[]> onEdge(
+      int a, int b, Map<Long, IntList> grid, double cellSize, IntList candidates) {
+    long x0 = cellIndex(Math.min(x(a), x(b)) - tolerance, cellSize);
+    long x1 = cellIndex(Math.max(x(a), x(b)) + tolerance, cellSize);
+    long y0 = cellIndex(Math.min(y(a), y(b)) - tolerance, cellSize);
+    long y1 = cellIndex(Math.max(y(a), y(b)) + tolerance, cellSize);
+    long z0 = cellIndex(Math.min(z(a), z(b)) - tolerance, cellSize);
+    long z1 = cellIndex(Math.max(z(a), z(b)) + tolerance, cellSize);
+
+    List<double[]> result = null;
+
+    // long edges are tested against all candidates instead of many grid cells
+    if ((x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1) > candidates.size()) {
+      for (int i = 0; i < candidates.size(); i++) {
+        result = testOnEdge(a, b, candidates.get(i), result);
+      }
+      return result;
+    }
+
+    for (long x = x0; x <= x1; x++) {
+      for (long y = y0; y <= y1; y++) {
+        for (long z = z0; z <= z1; z++) {
+          IntList cell = grid.get(cellKey(x, y, z));
+          if (cell == null) {
+            continue;
+          }
+          for (int i = 0; i < cell.size(); i++) {
+            result = testOnEdge(a, b, cell.get(i), result);
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private List<double[]> testOnEdge(int a, int b, int c, List<double[]> result) {
+    if (c == a || c == b) {
+      return result;
+    }
+
+    double dx = x(b) - x(a);
+    double dy = y(b) - y(a);
+    double dz = z(b) - z(a);
+    double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+    double t = ((x(c) - x(a)) * dx + (y(c) - y(a)) * dy + (z(c) - z(a)) * dz) / (length * length);
+
+    // vertices close to the end points have been welded
+    if (t * length <= tolerance || (1 - t) * length <= tolerance) {
+      return result;
+    }
+
+    double ex = x(a) + t * dx - x(c);
+    double ey = y(a) + t * dy - y(c);
+    double ez = z(a) + t * dz - z(c);
+
+    if (ex * ex + ey * ey + ez * ez > tolerance * tolerance) {
+      return result;
+    }
+
+    if (result == null) {
+      result = new ArrayList<>();
+    }
+    // the same vertex may be found in several cells of an edge
+    for (double[] tc : result) {
+      if ((int) tc[1] == c) {
+        return result;
+      }
+    }
+    result.add(new double[] {t, c});
+    return result;
+  }
+
+  private PackedMesh toMesh() {
+    // vertices of dropped polygons are removed
+    int[] vertexMap = new int[coordinates.size() / 3];
+    Arrays.fill(vertexMap, -1);
+
+    int numIndices = 0;
+    for (int[] loop : loops) {
+      numIndices += loop.length;
+    }
+
+    DoubleList meshCoordinates = new DoubleList(coordinates.size());
+    int[] offsets = new int[loops.size() + 1];
+    int[] indices = new int[numIndices];
+    double[] planes = new double[loops.size() * 4];
+    int[] storageIds = new int[loops.size()];
+
+    Map<PropertyStorage, Integer> storageMap = new IdentityHashMap<>();
+    List<PropertyStorage> storages = new ArrayList<>();
+
+    int index = 0;
+    for (int i = 0; i < loops.size(); i++) {
+      offsets[i] = index;
+
+      for (int v : loops.get(i)) {
+        if (vertexMap[v] < 0) {
+          vertexMap[v] = meshCoordinates.size() / 3;
+          meshCoordinates.add(x(v));
+          meshCoordinates.add(y(v));
+          meshCoordinates.add(z(v));
+        }
+        indices[index++] = vertexMap[v];
+      }
+
+      Polygon p = polygons.get(i);
+      Plane plane = p._csg_plane;
+      planes[i * 4] = plane.normal.x();
+      planes[i * 4 + 1] = plane.normal.y();
+      planes[i * 4 + 2] = plane.normal.z();
+      planes[i * 4 + 3] = plane.dist;
+
+      PropertyStorage storage = p.getStorage();
+      Integer storageId = storageMap.get(storage);
+      if (storageId == null) {
+        storageId = storages.size();
+        storageMap.put(storage, storageId);
+        storages.add(storage);
+      }
+      storageIds[i] = storageId;
+    }
+
+    offsets[loops.size()] = index;
+
+    return new PackedMesh(
+        meshCoordinates.toArray(),
+        offsets,
+        indices,
+        planes,
+        storageIds,
+        storages.toArray(new PropertyStorage[storages.size()]));
+  }
+
+  private double x(int v) {
+    return coordinates.get(v * 3);
+  }
+
+  private double y(int v) {
+    return coordinates.get(v * 3 + 1);
+  }
+
+  private double z(int v) {
+    return coordinates.get(v * 3 + 2);
+  }
+
+  private double distanceSquared(int v, double x, double y, double z) {
+    double dx = x(v) - x;
+    double dy = y(v) - y;
+    double dz = z(v) - z;
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  private double distanceSquared(int a, int b) {
+    return distanceSquared(a, x(b), y(b), z(b));
+  }
+
+  private static long cellIndex(double value, double cellSize) {
+    return (long) Math.floor(value / cellSize);
+  }
+
+  /** Hash of a grid cell, different cells may have the same key. */
+  private static long cellKey(long x, long y, long z) {
+    return x * 73856093L ^ y * 19349663L ^ z * 83492791L;
+  }
+
+  private static long edgeKey(int from, int to) {
+    return (long) from << 32 | to & 0xFFFFFFFFL;
+  }
+}
@@ -29,8 +29,15 @@
  */
 package com.xahon.javacsg;
 
+import eu.mihosoft.vvecmath.Vector3d;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,17 +48,34 @@ import javafx.util.Pair;
  * polygon to split along. That polygon (and all other coplanar polygons) are added directly to that
  * node and the other polygons are added to the front and/or back subtrees. This is not a leafy BSP
  * tree since there is no distinction between internal and leaf nodes.
+ *
+ * <p>The tree is persistent: the branches of the tree (plane, polygons and subtrees of the nodes)
+ * are shared by its copies (see {@link #clone()}) and copied on write, i.e., a tree only copies the
+ * branches it modifies. The orientation of the tree is a flag (see {@link #invert()}), the planes
+ * and polygons of the branches are never flipped.
  */
 final class Node {
 
-  /** Polygons. */
-  private List<Polygon> polygons;
-  /** Plane used for BSP. */
-  private Plane plane;
-  /** Polygons in front of the plane. */
-  private Node front;
-  /** Polygons in back of the plane. */
-  private Node back;
+  /** Subtrees with fewer polygons are built sequentially. */
+  static final int PARALLEL_BUILD_THRESHOLD = 1000;
+  /** Polygon lists with fewer polygons are clipped sequentially. */
+  static final int PARALLEL_CLIP_THRESHOLD = 500;
+
+  /** Root branch. */
+  private Branch root;
+  /** Indicates whether this tree represents the inverse of its branches. */
+  private boolean inverted;
+  /**
+   * Owner of the branches that may be modified in place by this tree. Branches of other owners are
+   * shared with other trees and copied before they are modified.
+   */
+  private Object owner = new Object();
+  /** Chooses the split plane of new nodes. */
+  private final SplitPlaneSelector selector;
+  /** Indicates whether subtrees are processed in parallel. */
+  private final boolean parallel;
+  /** Receives the number of split polygons. */
+  private final OperationMetrics metrics;
 
   /**
    * Constructor.
@@ -59,103 +83,131 @@ final class Node {
    * <p>Creates a BSP node consisting of the specified polygons.
    *
    * @param polygons polygons
+   * @param selector split plane selector used by this node and its children
+   * @param parallel whether subtrees of this node are processed in parallel
    */
-  public Node(List<Polygon> polygons) {
-    this.polygons = new ArrayList<>();
+  public Node(List<Polygon> polygons, SplitPlaneSelector selector, boolean parallel) {
+    this(polygons, selector, parallel, OperationMetrics.NONE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * <p>Creates a BSP node consisting of the specified polygons. Polygons split by the planes of
+   * this node and its children are reported to the specified metrics.
+   *
+   * @param polygons polygons
+   * @param selector split plane selector used by this node and its children
+   * @param parallel whether subtrees of this node are processed in parallel
+   * @param metrics metrics of the operation this node is used by
+   */
+  Node(
+      List<Polygon> polygons,
+      SplitPlaneSelector selector,
+      boolean parallel,
+      OperationMetrics metrics) {
+    this.root = new Branch(owner);
+    this.selector = selector;
+    this.parallel = parallel;
+    this.metrics = metrics;
     if (polygons != null) {
       this.build(polygons);
     }
   }
 
+  /**
+   * Constructor.
+   *
+   * <p>Creates a BSP node consisting of the specified polygons.
+   *
+   * @param polygons polygons
+   * @param selector split plane selector used by this node and its children
+   */
+  public Node(List<Polygon> polygons, SplitPlaneSelector selector) {
+    this(polygons, selector, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * <p>Creates a BSP node consisting of the specified polygons.
+   *
+   * @param polygons polygons
+   */
+  public Node(List<Polygon> polygons) {
+    this(polygons, SplitPlaneSelector.FIRST_POLYGON);
+  }
+
   /** Constructor. Creates a node without polygons. */
   public Node() {
-    this(null);
+    this(null, SplitPlaneSelector.FIRST_POLYGON, false);
+  }
+
+  /**
+   * Constructor. Creates a tree that shares the branches of the specified tree.
+   *
+   * @param tree tree whose branches and settings shall be used
+   * @param metrics metrics of the operation the new tree is used by
+   */
+  private Node(Node tree, OperationMetrics metrics) {
+    this.root = tree.root;
+    this.inverted = tree.inverted;
+    this.selector = tree.selector;
+    this.parallel = tree.parallel;
+    this.metrics = metrics;
   }
 
+  /**
+   * Returns a copy of this BSP tree in constant time. The copy shares the branches of this tree.
+   * Both trees copy a shared branch before they modify it, i.e., modifying one of the trees does
+   * not affect the other one.
+   *
+   * <p><b>Note:</b> this method modifies the owner of this tree (see {@link #share()}), i.e., it
+   * must not be invoked by several threads at once. Trees that are copied concurrently are shared
+   * once and copied with {@link #copy(OperationMetrics)}.
+   *
+   * @return a copy of this BSP tree
+   */
   @Override
   public Node clone() {
-    Node node = new Node();
-    ArrayList<Pair<Node, Node>> nodes = new ArrayList<>(3);
-    nodes.add(new Pair<>(this, node));
-
-    while (nodes.size() > 0) {
-      Pair<Node, Node> pair = nodes.get(0);
-      Node currentNode = pair.getKey();
-      Node nodeToClone = pair.getValue();
-      nodes.remove(0);
-
-      nodeToClone.plane = currentNode.plane == null ? null : currentNode.plane.clone();
-      nodeToClone.front = currentNode.front == null ? null : currentNode.front.clone();
-      nodeToClone.back = currentNode.back == null ? null : currentNode.back.clone();
-      //        nodeToClone.polygons = new ArrayList<>();
-      //        polygons.parallelStream().forEach((Polygon p) -> {
-      //            nodeToClone.polygons.add(p.clone());
-      //        });
-
-      Stream<Polygon> polygonStream;
-
-      if (currentNode.polygons.size() > 200) {
-        polygonStream = currentNode.polygons.parallelStream();
-      } else {
-        polygonStream = currentNode.polygons.stream();
-      }
+    return share().copy(metrics);
+  }
 
-      nodeToClone.polygons = polygonStream.map(p -> p.clone()).collect(Collectors.toList());
-    }
+  /**
+   * Shares the branches of this tree, i.e., this tree copies its branches before it modifies them
+   * from now on.
+   *
+   * @return this tree
+   */
+  Node share() {
+    owner = new Object();
+    return this;
+  }
 
-    return node;
+  /**
+   * Returns a copy of this BSP tree (see {@link #clone()}) whose split polygons are reported to the
+   * specified metrics. In contrast to {@link #clone()}, this tree is not modified, i.e., several
+   * threads may copy it at once.
+   *
+   * <p><b>Note:</b> the branches of this tree must have been shared (see {@link #share()}) and must
+   * not have been modified since.
+   *
+   * @param metrics metrics of the operation the copy is used by
+   * @return a copy of this BSP tree
+   */
+  Node copy(OperationMetrics metrics) {
+    return new Node(this, metrics);
   }
 
   /**
    * Converts solid space to empty space and vice verca.
    *
-   * @implNote This method uses loop instead of recursion
+   * <p>Only the orientation of this tree is toggled, i.e., this method takes constant time. The
+   * planes of the branches are flipped when they are used and the polygons when they are returned
+   * (see {@link #allPolygons()}).
    */
   public void invert() {
-    ArrayList<Node> nodes = new ArrayList<>(3);
-    nodes.add(this);
-
-    while (nodes.size() > 0) {
-      Node currentNode = nodes.get(0);
-      nodes.remove(0);
-
-      Stream<Polygon> polygonStream;
-
-      if (currentNode.polygons.size() > 200) {
-        polygonStream = currentNode.polygons.parallelStream();
-      } else {
-        polygonStream = currentNode.polygons.stream();
-      }
-
-      polygonStream.forEach(
-          (polygon) -> {
-            polygon.flip();
-          });
-
-      if (currentNode.plane == null && !currentNode.polygons.isEmpty()) {
-        currentNode.plane = currentNode.polygons.get(0)._csg_plane.clone();
-      } else if (currentNode.plane == null && currentNode.polygons.isEmpty()) {
-
-        System.err.println("Please fix me! I don't know what to do?");
-
-        // throw new RuntimeException("Please fix me! I don't know what to do?");
-
-        return;
-      }
-
-      currentNode.plane.flip();
-
-      if (currentNode.front != null) {
-        nodes.add(currentNode.front);
-      }
-      if (currentNode.back != null) {
-        nodes.add(currentNode.back);
-      }
-
-      Node temp = currentNode.front;
-      currentNode.front = currentNode.back;
-      currentNode.back = temp;
-    }
+    inverted = !inverted;
   }
 
   /**
@@ -164,22 +216,56 @@ final class Node {
    *
    * <p><b>Note:</b> polygons are splitted if necessary.
    *
+   * <p>If this node has been created in parallel mode, large polygon lists are passed down the
+   * front and back subtrees by separate fork/join tasks.
+   *
+   * @param polygons the polygons to clip
+   * @return the cliped list of polygons
+   */
+  List<Polygon> clipPolygons(List<Polygon> polygons) {
+    return clipPolygons(polygons, false);
+  }
+
+  /**
+   * Removes all polygons in the {@link polygons} list that are contained within this BSP tree (see
+   * {@link #clipPolygons(List)}).
+   *
+   * @param polygons the polygons to clip
+   * @param inverse whether the specified polygons stand for their inverses (see {@link
+   *     Polygon#inverse()}), the fragments in the result stand for their inverses as well
+   * @return the cliped list of polygons
+   */
+  private List<Polygon> clipPolygons(List<Polygon> polygons, boolean inverse) {
+    if (parallel && polygons.size() >= PARALLEL_CLIP_THRESHOLD) {
+      return ForkJoinPool.commonPool().invoke(new ClipTask(this, root, polygons, inverse));
+    } else {
+      return clipPolygonsSequential(root, polygons, inverse);
+    }
+  }
+
+  /**
+   * Recursively removes all polygons in the {@link polygons} list that are contained within the
+   * specified subtree without using additional threads.
+   *
    * @implNote This method uses loop instead of recursion
+   * @param branch root of the subtree
    * @param polygons the polygons to clip
+   * @param inverse whether the specified polygons stand for their inverses
    * @return the cliped list of polygons
    */
-  private List<Polygon> clipPolygons(List<Polygon> polygons) {
+  private List<Polygon> clipPolygonsSequential(
+      Branch branch, List<Polygon> polygons, boolean inverse) {
     ArrayList<Polygon> result = new ArrayList<>(10);
-    ArrayList<Pair<Node, List<Polygon>>> nodes = new ArrayList<>(3);
-    nodes.add(new Pair<>(this, polygons));
+    ArrayList<Pair<Branch, List<Polygon>>> branches = new ArrayList<>(3);
+    branches.add(new Pair<>(branch, polygons));
 
-    while (nodes.size() > 0) {
-      Pair<Node, List<Polygon>> pair = nodes.get(0);
-      Node currentNode = pair.getKey();
+    while (branches.size() > 0) {
+      Pair<Branch, List<Polygon>> pair = branches.get(0);
+      Branch currentBranch = pair.getKey();
       List<Polygon> currentPolygons = pair.getValue();
-      nodes.remove(0);
+      branches.remove(0);
 
-      if (currentNode.plane == null) {
+      if (currentBranch.plane == null) {
         result.addAll(currentPolygons);
         continue;
       }
@@ -188,22 +274,22 @@ final class Node {
       List<Polygon> backP = new ArrayList<>();
 
       for (Polygon polygon : currentPolygons) {
-        currentNode.plane.splitPolygon(polygon, frontP, backP, frontP, backP);
+        split(currentBranch, polygon, inverse, frontP, backP, frontP, backP);
       }
 
-      if (currentNode.front != null) {
-        nodes.add(new Pair<>(currentNode.front, frontP));
+      Branch front = front(currentBranch);
+
+      if (front != null) {
+        branches.add(new Pair<>(front, frontP));
       } else {
         result.addAll(frontP);
       }
 
-      if (currentNode.back != null) {
-        nodes.add(new Pair<>(currentNode.back, backP));
-        //      } else {
-        //        backP = new ArrayList<>(0);
-      }
+      Branch back = back(currentBranch);
 
-      //      frontP.addAll(backP);
+      if (back != null) {
+        branches.add(new Pair<>(back, backP));
+      }
     }
 
     return result;
@@ -216,50 +302,299 @@ final class Node {
    *
    * <p><b>Note:</b> polygons are splitted if necessary.
    *
+   * <p>If this node has been created in parallel mode, the polygons of the individual nodes are
+   * clipped concurrently.
+   *
    * @implNote This method uses loop instead of recursion
    * @param other other that shall be used for clipping
    */
   public void clipTo(Node other) {
-    ArrayList<Node> nodes = new ArrayList<>(3);
-    nodes.add(this);
+    List<Branch> branches = editableBranches();
+
+    Stream<Branch> branchStream;
+
+    if (parallel && branches.size() > 1) {
+      branchStream = branches.parallelStream();
+    } else {
+      branchStream = branches.stream();
+    }
+
+    // the polygons are clipped as they are stored, not as they are seen by this tree
+    branchStream.forEach(
+        (currentBranch) -> {
+          currentBranch.polygons = other.clipPolygons(currentBranch.polygons, inverted);
+        });
+  }
+
+  /**
+   * Removes all polygons in this BSP tree that are inside one of the specified BSP trees. Each
+   * polygon is only clipped against the trees whose bounds it intersects. These trees are found
+   * with the specified hierarchy over the bounds, i.e., each part of this tree is only visited for
+   * the trees that overlap it.
+   *
+   * <p><b>Note:</b> the specified bounds must contain the solids represented by the trees.
+   *
+   * @param others trees that shall be used for clipping
+   * @param bounds bounds of the solids represented by the trees
+   * @param index hierarchy over the bounds (see {@link PolygonBvh#of(List)})
+   * @see #clipTo(Node)
+   */
+  void clipTo(List<Node> others, List<Aabb> bounds, PolygonBvh index) {
+    List<Branch> branches = editableBranches();
+
+    Stream<Branch> branchStream;
+
+    if (parallel && branches.size() > 1) {
+      branchStream = branches.parallelStream();
+    } else {
+      branchStream = branches.stream();
+    }
+
+    branchStream.forEach(
+        (currentBranch) -> {
+          List<Polygon> result = new ArrayList<>(currentBranch.polygons.size());
+          IntList candidates = new IntList();
+          boolean clipped = false;
+
+          for (Polygon polygon : currentBranch.polygons) {
+            candidates.clear();
+            index.overlapping(polygon.getAabb(), candidates);
+
+            List<Polygon> fragments = Collections.singletonList(polygon);
+
+            for (int i = 0; i < candidates.size() && !fragments.isEmpty(); i++) {
+              Aabb b = bounds.get(candidates.get(i));
+              List<Polygon> inside = new ArrayList<>();
+              List<Polygon> outside = new ArrayList<>();
+
+              // fragments of previous clips may have left the bounds
+              for (Polygon fragment : fragments) {
+                if (b.intersects(fragment.getAabb())) {
+                  inside.add(fragment);
+                } else {
+                  outside.add(fragment);
+                }
+              }
+
+              if (!inside.isEmpty()) {
+                outside.addAll(others.get(candidates.get(i)).clipPolygons(inside, inverted));
+                clipped = true;
+              }
+
+              fragments = outside;
+            }
+
+            result.addAll(fragments);
+          }
+
+          if (clipped) {
+            currentBranch.polygons = result;
+          }
+        });
+  }
+
+  /**
+   * Indicates whether the specified point is inside the solid represented by this BSP tree. Points
+   * within {@link Plane#EPSILON} of a node plane are passed to the front subtree, i.e., the result
+   * is only meaningful for points that are not on the surface of the solid.
+   *
+   * @param point point to check
+   * @return {@code true} if the point is inside the solid; {@code false} otherwise
+   */
+  boolean contains(Vector3d point) {
+    Branch currentBranch = root;
+
+    while (currentBranch.plane != null) {
+      double t = currentBranch.plane.normal.dot(point) - currentBranch.plane.dist;
+
+      if (inverted) {
+        t = -t;
+      }
+
+      if (t < -Plane.EPSILON) {
+        Branch back = back(currentBranch);
+        if (back == null) {
+          return true;
+        }
+        currentBranch = back;
+      } else {
+        Branch front = front(currentBranch);
+        if (front == null) {
+          return false;
+        }
+        currentBranch = front;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns a list of all branches of this BSP tree.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @return a list of all branches of this BSP tree
+   */
+  private List<Branch> allBranches() {
+    List<Branch> branches = new ArrayList<>();
+    branches.add(root);
 
-    while (nodes.size() > 0) {
-      Node currentNode = nodes.get(0);
-      nodes.remove(0);
+    for (int i = 0; i < branches.size(); i++) {
+      Branch currentBranch = branches.get(i);
 
-      currentNode.polygons = other.clipPolygons(currentNode.polygons);
-      if (currentNode.front != null) {
-        nodes.add(currentNode.front);
+      if (currentBranch.front != null) {
+        branches.add(currentBranch.front);
       }
-      if (currentNode.back != null) {
-        nodes.add(currentNode.back);
+      if (currentBranch.back != null) {
+        branches.add(currentBranch.back);
       }
     }
+
+    return branches;
   }
 
   /**
-   * Returns a list of all polygons in this BSP tree.
+   * Returns a list of all branches of this BSP tree that may be modified in place. Branches that
+   * are shared with other trees are replaced by copies.
    *
    * @implNote This method uses loop instead of recursion
+   * @return a list of all branches of this BSP tree
+   */
+  private List<Branch> editableBranches() {
+    root = editable(root);
+
+    List<Branch> branches = new ArrayList<>();
+    branches.add(root);
+
+    for (int i = 0; i < branches.size(); i++) {
+      Branch currentBranch = branches.get(i);
+
+      if (currentBranch.front != null) {
+        currentBranch.front = editable(currentBranch.front);
+        branches.add(currentBranch.front);
+      }
+      if (currentBranch.back != null) {
+        currentBranch.back = editable(currentBranch.back);
+        branches.add(currentBranch.back);
+      }
+    }
+
+    return branches;
+  }
+
+  /**
+   * Returns the specified branch if it is owned by this tree, a copy of it otherwise.
+   *
+   * @param branch branch
+   * @return a branch that may be modified in place
+   */
+  private Branch editable(Branch branch) {
+    return branch.owner == owner ? branch : new Branch(owner, branch);
+  }
+
+  /**
+   * Returns the subtree in front of the plane of the specified branch as seen by this tree.
+   *
+   * @param branch branch
+   * @return the front subtree or {@code null}
+   */
+  private Branch front(Branch branch) {
+    return inverted ? branch.back : branch.front;
+  }
+
+  /**
+   * Returns the subtree in back of the plane of the specified branch as seen by this tree.
+   *
+   * @param branch branch
+   * @return the back subtree or {@code null}
+   */
+  private Branch back(Branch branch) {
+    return inverted ? branch.front : branch.back;
+  }
+
+  /**
+   * Returns the number of nodes of this BSP tree.
+   *
+   * @return the number of nodes of this BSP tree
+   */
+  int nodeCount() {
+    return allBranches().size();
+  }
+
+  /**
+   * Returns the depth of this BSP tree, i.e., the number of nodes on the longest path from this
+   * node to a leaf.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @return the depth of this BSP tree
+   */
+  int depth() {
+    int depth = 0;
+    List<Branch> level = new ArrayList<>();
+    level.add(root);
+
+    while (!level.isEmpty()) {
+      depth++;
+      List<Branch> nextLevel = new ArrayList<>();
+
+      for (Branch currentBranch : level) {
+        if (currentBranch.front != null) {
+          nextLevel.add(currentBranch.front);
+        }
+        if (currentBranch.back != null) {
+          nextLevel.add(currentBranch.back);
+        }
+      }
+
+      level = nextLevel;
+    }
+
+    return depth;
+  }
+
+  /**
+   * Returns a list of all polygons in this BSP tree. The polygons of an inverted tree are replaced
+   * by their inverses (see {@link Polygon#inverse()}).
+   *
    * @return a list of all polygons in this BSP tree
    */
   public List<Polygon> allPolygons() {
+    List<Polygon> polygonList = storedPolygons();
+
+    if (inverted) {
+      polygonList.replaceAll(Polygon::inverse);
+    }
+
+    return polygonList;
+  }
+
+  /**
+   * Returns a list of all polygons in the branches of this BSP tree, i.e., the polygons are not
+   * inverted if this tree is inverted.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @return a list of all polygons in the branches of this BSP tree
+   */
+  private List<Polygon> storedPolygons() {
     List<Polygon> polygonList = new ArrayList<>(10);
 
-    ArrayList<Node> nodes = new ArrayList<>(3);
-    nodes.add(this);
+    ArrayList<Branch> branches = new ArrayList<>(3);
+    branches.add(root);
+
+    while (branches.size() > 0) {
+      Branch currentBranch = branches.get(0);
+      branches.remove(0);
 
-    while (nodes.size() > 0) {
-      Node currentNode = nodes.get(0);
-      nodes.remove(0);
+      polygonList.addAll(currentBranch.polygons);
 
-      polygonList.addAll(currentNode.polygons);
+      Branch front = front(currentBranch);
+      Branch back = back(currentBranch);
 
-      if (currentNode.front != null) {
-        nodes.add(currentNode.front);
+      if (front != null) {
+        branches.add(front);
       }
-      if (currentNode.back != null) {
-        nodes.add(currentNode.back);
+      if (back != null) {
+        branches.add(back);
       }
     }
 
@@ -269,50 +604,371 @@ final class Node {
   /**
    * Build a BSP tree out of {@code polygons}. When called on an existing tree, the new polygons are
    * filtered down to the bottom of the tree and become new nodes there. Each set of polygons is
-   * partitioned using the first polygon (no heuristic is used to pick a good split).
+   * partitioned using the plane of the polygon chosen by the {@link SplitPlaneSelector} of this
+   * node.
+   *
+   * <p>If this node has been created in parallel mode, large front and back subtrees are built by
+   * separate fork/join tasks.
    *
    * @param polygons polygons used to build the BSP
    */
   public final void build(List<Polygon> polygons) {
-    List<Pair<Node, List<Polygon>>> nodes = new ArrayList<>(3);
-    nodes.add(new Pair<>(this, polygons));
+    build(polygons, false);
+  }
 
-    while (nodes.size() > 0) {
-      Pair<Node, List<Polygon>> pair = nodes.get(0);
-      Node currentNode = pair.getKey();
-      List<Polygon> currentPolygons = pair.getValue();
-      nodes.remove(0);
+  /**
+   * Adds all polygons of the specified BSP tree to this tree (see {@link #build(List)}). In
+   * contrast to {@code build(other.allPolygons())} the polygons of an inverted tree are only
+   * inverted if this tree is not inverted.
+   *
+   * @param other tree whose polygons shall be added
+   */
+  void build(Node other) {
+    build(other.storedPolygons(), other.inverted);
+  }
 
-      if (currentPolygons.isEmpty()) return;
+  /**
+   * Build a BSP tree out of {@code polygons} (see {@link #build(List)}).
+   *
+   * @param polygons polygons used to build the BSP
+   * @param inverse whether the specified polygons stand for their inverses
+   */
+  private void build(List<Polygon> polygons, boolean inverse) {
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.BSP_BUILD, null);
 
-      if (currentNode.plane == null) {
-        currentNode.plane = currentPolygons.get(0)._csg_plane.clone();
-      }
+    root = editable(root);
+
+    if (parallel && polygons.size() >= PARALLEL_BUILD_THRESHOLD) {
+      ForkJoinPool.commonPool().invoke(new BuildTask(this, root, polygons, inverse));
+    } else {
+      buildSequential(root, polygons, inverse);
+    }
+
+    span.end(polygons.size(), span.isEnabled() ? nodeCount() : 0);
+  }
 
-      currentPolygons =
-          currentPolygons.stream().filter(p -> p.isValid()).distinct().collect(Collectors.toList());
+  /**
+   * Build the specified subtree out of {@code polygons} without using additional threads.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @param branch root of the subtree, owned by this tree
+   * @param polygons polygons used to build the BSP
+   * @param inverse whether the specified polygons stand for their inverses
+   */
+  private void buildSequential(Branch branch, List<Polygon> polygons, boolean inverse) {
+    List<Pair<Branch, List<Polygon>>> branches = new ArrayList<>(3);
+    branches.add(new Pair<>(branch, polygons));
+
+    while (branches.size() > 0) {
+      Pair<Branch, List<Polygon>> pair = branches.get(0);
+      Branch currentBranch = pair.getKey();
+      List<Polygon> currentPolygons = pair.getValue();
+      branches.remove(0);
 
       List<Polygon> frontP = new ArrayList<>();
       List<Polygon> backP = new ArrayList<>();
 
-      // parellel version does not work here
-      for (Polygon polygon : currentPolygons) {
-        currentNode.plane.splitPolygon(
-            polygon, currentNode.polygons, currentNode.polygons, frontP, backP);
-      }
+      partition(currentBranch, currentPolygons, inverse, frontP, backP);
 
       if (frontP.size() > 0) {
-        if (currentNode.front == null) {
-          currentNode.front = new Node();
-        }
-        nodes.add(new Pair<>(currentNode.front, frontP));
+        branches.add(new Pair<>(front(currentBranch), frontP));
       }
       if (backP.size() > 0) {
-        if (currentNode.back == null) {
-          currentNode.back = new Node();
+        branches.add(new Pair<>(back(currentBranch), backP));
+      }
+    }
+  }
+
+  /**
+   * Partitions the specified polygons by the plane of the specified branch. Coplanar polygons are
+   * added to the branch, the others are added to {@code frontP} and {@code backP}. The child
+   * branches of non-empty partitions are created or replaced by copies owned by this tree. If the
+   * branch has no plane yet, the plane is chosen by the split plane selector of this tree.
+   *
+   * @param branch branch owned by this tree
+   * @param polygons polygons to partition
+   * @param inverse whether the specified polygons stand for their inverses
+   * @param frontP polygons in front of the plane (output)
+   * @param backP polygons in back of the plane (output)
+   */
+  private void partition(
+      Branch branch,
+      List<Polygon> polygons,
+      boolean inverse,
+      List<Polygon> frontP,
+      List<Polygon> backP) {
+    // removes geometrically identical copies, not only identical instances
+    Set<Fingerprint> distinct = new HashSet<>();
+    polygons =
+        polygons
+            .stream()
+            .filter(p -> p.isValid() && distinct.add(p.fingerprint()))
+            .collect(Collectors.toList());
+
+    if (polygons.isEmpty()) {
+      return;
+    }
+
+    // the branches store planes and polygons in the orientation of the uninverted tree
+    boolean flip = inverted != inverse;
+
+    if (branch.plane == null) {
+      Plane plane = polygons.get(selector.select(polygons))._csg_plane.clone();
+      if (flip) {
+        plane.flip();
+      }
+      branch.plane = plane;
+    }
+
+    // parellel version does not work here
+    List<Polygon> coplanar = new ArrayList<>();
+
+    for (Polygon polygon : polygons) {
+      split(branch, polygon, inverse, coplanar, coplanar, frontP, backP);
+    }
+
+    if (!coplanar.isEmpty()) {
+      List<Polygon> branchPolygons = new ArrayList<>(branch.polygons.size() + coplanar.size());
+      branchPolygons.addAll(branch.polygons);
+      for (Polygon polygon : coplanar) {
+        branchPolygons.add(flip ? polygon.inverse() : polygon);
+      }
+      branch.polygons = branchPolygons;
+    }
+
+    if (frontP.size() > 0) {
+      Branch front = front(branch);
+      front = front == null ? new Branch(owner) : editable(front);
+      if (inverted) {
+        branch.back = front;
+      } else {
+        branch.front = front;
+      }
+    }
+    if (backP.size() > 0) {
+      Branch back = back(branch);
+      back = back == null ? new Branch(owner) : editable(back);
+      if (inverted) {
+        branch.front = back;
+      } else {
+        branch.back = back;
+      }
+    }
+  }
+
+  /**
+   * Splits the specified polygon by the plane of the specified branch as seen by this tree (see
+   * {@link Plane#splitPolygon(Polygon, List, List, List, List)}) and reports split polygons to the
+   * metrics of this tree. Instead of flipping the plane or the polygon the output lists are
+   * swapped.
+   *
+   * @param branch branch
+   * @param polygon polygon to split
+   * @param inverse whether the polygon stands for its inverse
+   * @param coplanarFront "coplanar front" polygons
+   * @param coplanarBack "coplanar back" polygons
+   * @param front front polygons
+   * @param back back polgons
+   */
+  private void split(
+      Branch branch,
+      Polygon polygon,
+      boolean inverse,
+      List<Polygon> coplanarFront,
+      List<Polygon> coplanarBack,
+      List<Polygon> front,
+      List<Polygon> back) {
+    boolean opposite = inverted != inverse;
+    int numFragments =
+        branch.plane.split(
+            polygon,
+            opposite ? coplanarBack : coplanarFront,
+            opposite ? coplanarFront : coplanarBack,
+            inverted ? back : front,
+            inverted ? front : back);
+
+    if (numFragments > 0) {
+      metrics.split(numFragments);
+    }
+  }
+
+  /**
+   * Plane, polygons and subtrees of a node. Branches may be shared by several trees but they are
+   * only modified in place by the tree that owns them. Polygon lists are replaced, not modified, so
+   * that copies of a branch may share them.
+   */
+  private static final class Branch {
+
+    /** Owner of this branch (see {@link Node#owner}). */
+    final Object owner;
+    /** Plane used for BSP. */
+    Plane plane;
+    /** Polygons. */
+    List<Polygon> polygons;
+    /** Polygons in front of the plane. */
+    Branch front;
+    /** Polygons in back of the plane. */
+    Branch back;
+
+    /**
+     * Constructor. Creates a branch without polygons.
+     *
+     * @param owner owner of the branch
+     */
+    Branch(Object owner) {
+      this.owner = owner;
+      this.polygons = Collections.emptyList();
+    }
+
+    /**
+     * Constructor. Creates a copy of the specified branch that shares its plane, polygons and
+     * subtrees.
+     *
+     * @param owner owner of the copy
+     * @param branch branch to copy
+     */
+    Branch(Object owner, Branch branch) {
+      this.owner = owner;
+      this.plane = branch.plane;
+      this.polygons = branch.polygons;
+      this.front = branch.front;
+      this.back = branch.back;
+    }
+  }
+
+  /**
+   * Builds the subtree of a node. Front and back subtrees are built by separate tasks until the
+   * number of polygons drops below {@link #PARALLEL_BUILD_THRESHOLD}.
+   */
+  private static final class BuildTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Node tree;
+    private final Branch branch;
+    private final List<Polygon> polygons;
+    private final boolean inverse;
+
+    BuildTask(Node tree, Branch branch, List<Polygon> polygons, boolean inverse) {
+      this.tree = tree;
+      this.branch = branch;
+      this.polygons = polygons;
+      this.inverse = inverse;
+    }
+
+    @Override
+    protected void compute() {
+      Branch currentBranch = branch;
+      List<Polygon> currentPolygons = polygons;
+
+      // subtrees that receive all remaining polygons are processed in this
+      // task (loop instead of recursion)
+      while (currentPolygons.size() >= PARALLEL_BUILD_THRESHOLD) {
+        List<Polygon> frontP = new ArrayList<>();
+        List<Polygon> backP = new ArrayList<>();
+
+        tree.partition(currentBranch, currentPolygons, inverse, frontP, backP);
+
+        if (!frontP.isEmpty() && !backP.isEmpty()) {
+          invokeAll(
+              new BuildTask(tree, tree.front(currentBranch), frontP, inverse),
+              new BuildTask(tree, tree.back(currentBranch), backP, inverse));
+          return;
+        } else if (!frontP.isEmpty()) {
+          currentBranch = tree.front(currentBranch);
+          currentPolygons = frontP;
+        } else if (!backP.isEmpty()) {
+          currentBranch = tree.back(currentBranch);
+          currentPolygons = backP;
+        } else {
+          return;
         }
-        nodes.add(new Pair<>(currentNode.back, backP));
       }
+
+      tree.buildSequential(currentBranch, currentPolygons, inverse);
+    }
+  }
+
+  /**
+   * Clips polygons against the subtree of a node. Front and back fragments are passed down by
+   * separate tasks until the number of fragments drops below {@link #PARALLEL_CLIP_THRESHOLD}.
+   */
+  private static final class ClipTask extends RecursiveTask<List<Polygon>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Node tree;
+    private final Branch branch;
+    private final List<Polygon> polygons;
+    private final boolean inverse;
+
+    ClipTask(Node tree, Branch branch, List<Polygon> polygons, boolean inverse) {
+      this.tree = tree;
+      this.branch = branch;
+      this.polygons = polygons;
+      this.inverse = inverse;
+    }
+
+    @Override
+    protected List<Polygon> compute() {
+      List<Polygon> result = new ArrayList<>();
+      List<ClipTask> tasks = new ArrayList<>();
+
+      Branch currentBranch = branch;
+      List<Polygon> currentPolygons = polygons;
+
+      // the larger partition is processed in this task, the smaller one
+      // is forked (loop instead of recursion)
+      while (currentBranch.plane != null && currentPolygons.size() >= PARALLEL_CLIP_THRESHOLD) {
+        List<Polygon> frontP = new ArrayList<>();
+        List<Polygon> backP = new ArrayList<>();
+
+        for (Polygon polygon : currentPolygons) {
+          tree.split(currentBranch, polygon, inverse, frontP, backP, frontP, backP);
+        }
+
+        Branch front = tree.front(currentBranch);
+        Branch back = tree.back(currentBranch);
+
+        if (front == null) {
+          result.addAll(frontP);
+          frontP = new ArrayList<>(0);
+        }
+        if (back == null) {
+          backP = new ArrayList<>(0);
+        }
+
+        boolean frontFirst = frontP.size() >= backP.size();
+
+        Branch nextBranch = frontFirst ? front : back;
+        List<Polygon> nextPolygons = frontFirst ? frontP : backP;
+        Branch otherBranch = frontFirst ? back : front;
+        List<Polygon> otherPolygons = frontFirst ? backP : frontP;
+
+        if (!otherPolygons.isEmpty()) {
+          ClipTask task = new ClipTask(tree, otherBranch, otherPolygons, inverse);
+          task.fork();
+          tasks.add(task);
+        }
+
+        if (nextPolygons.isEmpty()) {
+          currentPolygons = nextPolygons;
+          break;
+        }
+
+        currentBranch = nextBranch;
+        currentPolygons = nextPolygons;
+      }
+
+      if (!currentPolygons.isEmpty()) {
+        result.addAll(tree.clipPolygonsSequential(currentBranch, currentPolygons, inverse));
+      }
+
+      for (ClipTask task : tasks) {
+        result.addAll(task.join());
+      }
+
+      return result;
     }
   }
 }
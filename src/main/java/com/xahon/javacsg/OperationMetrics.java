@@ -0,0 +1,357 @@
+/**
+ * OperationMetrics.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single boolean operation, reported to the {@link CSGListener} of the csg the
+ * operation has been invoked on.
+ *
+ * <p>The metrics consist of the wall time spent in each phase of the operation (see {@link Phase}),
+ * the size of the BSP trees, the number of polygons split by the planes of the trees and the path
+ * chosen by the optimization type of the csg. Metrics are only collected if a listener is
+ * installed or a flight recording of the operation is running (see {@link CSGEvents}). Otherwise
+ * the operations use a disabled instance that ignores all measurements.
+ */
+public final class OperationMetrics {
+
+  /** Boolean operations. */
+  public enum Operation {
+    UNION,
+    DIFFERENCE,
+    INTERSECTION
+  }
+
+  /** Code paths of the boolean operations. */
+  public enum Path {
+    /** BSP trees of both operands without optimization ({@link CSG.OptType#NONE}). */
+    NO_OPT,
+    /** Clipping restricted to the overlap of the operand bounds ({@link CSG.OptType#CSG_BOUND}). */
+    CSG_BOUND,
+    /** Clipping restricted to polygons near the other surface ({@link CSG.OptType#POLYGON_BOUND}). */
+    POLYGON_BOUND,
+    /** Splitting and ray classification without BSP trees ({@link CSG.OptType#MESH}). */
+    MESH,
+    /** The operand bounds do not intersect, the polygons have not been clipped. */
+    DISJOINT,
+    /** The second operand is a {@link PreparedCSG}. */
+    PREPARED,
+    /** Difference with several csgs (see {@link CSG#difference(List)}). */
+    BATCH,
+    /** The result has been taken from the cache (see {@link CSG#cache(CSGCache)}). */
+    CACHED
+  }
+
+  /** Phases of the boolean operations. */
+  public enum Phase {
+    /** Copying a prepared BSP tree. */
+    CLONE,
+    /** Building BSP trees and adding polygons to them. */
+    BUILD,
+    /** Clipping polygons against BSP trees (see {@link #getClipPassNanos()}). */
+    CLIP,
+    /** Inverting BSP trees. */
+    INVERT,
+    /** Collecting the polygons of BSP trees. */
+    ALL_POLYGONS,
+    /** Bounds tests and point classifications of the optimizations. */
+    BOUNDS,
+    /** Splitting polygons along the surface of the other operand ({@link CSG.OptType#MESH}). */
+    SPLIT,
+    /** Classifying fragments by casting rays ({@link CSG.OptType#MESH}). */
+    CLASSIFY,
+    /** Merging coplanar fragments of the result (see {@link CSG#coplanarMerge(boolean)}). */
+    MERGE,
+    /** Constructing the resulting csg. */
+    RESULT
+  }
+
+  /** Disabled instance used if no listener is installed. */
+  static final OperationMetrics NONE =
+      new OperationMetrics(null, null, null, 0, 0, CSGEvents.Span.NONE);
+
+  private final boolean enabled;
+  private final Operation operation;
+  private final CSG.OptType optType;
+  private final int inputPolygons;
+  private final int operandPolygons;
+  private final CSGEvents.Span span;
+  private final long startNanos;
+  private final long[] phaseNanos = new long[Phase.values().length];
+  private final List<Long> clipPassNanos = new ArrayList<>();
+  private final LongAdder splitPolygons = new LongAdder();
+  private final LongAdder fragments = new LongAdder();
+  private Path path;
+  private int trees;
+  private int nodes;
+  private int maxDepth;
+  private int outputPolygons;
+  private long totalNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param operation the operation ({@code null} creates a disabled instance)
+   * @param path the code path or {@code null} if it is chosen later
+   * @param optType optimization type of the csg the operation has been invoked on
+   * @param inputPolygons number of polygons of the csg the operation has been invoked on
+   * @param operandPolygons number of polygons of the other operands
+   * @param span flight recorder span of the operation
+   */
+  OperationMetrics(
+      Operation operation,
+      Path path,
+      CSG.OptType optType,
+      int inputPolygons,
+      int operandPolygons,
+      CSGEvents.Span span) {
+    this.enabled = operation != null;
+    this.operation = operation;
+    this.path = path;
+    this.optType = optType;
+    this.inputPolygons = inputPolygons;
+    this.operandPolygons = operandPolygons;
+    this.span = span;
+    this.startNanos = enabled ? System.nanoTime() : 0;
+  }
+
+  /** @return whether measurements are recorded */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts measuring a phase.
+   *
+   * @return the current time, or {@code 0} if this instance is disabled
+   */
+  long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Adds the time since the specified start to the specified phase. Each measurement of {@link
+   * Phase#CLIP} is recorded as a separate clip pass.
+   *
+   * @param phase the phase
+   * @param start start of the phase (see {@link #start()})
+   * @return the current time, i.e., the start of the next phase
+   */
+  long lap(Phase phase, long start) {
+    if (!enabled) {
+      return 0;
+    }
+
+    long now = System.nanoTime();
+
+    synchronized (this) {
+      phaseNanos[phase.ordinal()] += now - start;
+      if (phase == Phase.CLIP) {
+        clipPassNanos.add(now - start);
+      }
+    }
+
+    return now;
+  }
+
+  /**
+   * Records the size of a BSP tree that has been built by the operation.
+   *
+   * @param tree the tree
+   */
+  void tree(Node tree) {
+    if (!enabled) {
+      return;
+    }
+
+    int n = tree.nodeCount();
+    int depth = tree.depth();
+
+    synchronized (this) {
+      trees++;
+      nodes += n;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+  }
+
+  /**
+   * Records a polygon that has been split by the plane of a BSP node.
+   *
+   * @param numFragments number of fragments the polygon has been split into
+   */
+  void split(int numFragments) {
+    if (enabled) {
+      splitPolygons.increment();
+      fragments.add(numFragments);
+    }
+  }
+
+  /**
+   * Sets the code path of the operation.
+   *
+   * @param path the path
+   */
+  void path(Path path) {
+    if (enabled) {
+      this.path = path;
+    }
+  }
+
+  /**
+   * Completes the metrics and commits the flight recorder event of the operation.
+   *
+   * @param result result of the operation
+   */
+  void finish(CSG result) {
+    totalNanos = System.nanoTime() - startNanos;
+    outputPolygons = result.getPolygons().size();
+    if (path == null) {
+      // the operation has not been executed
+      path = Path.CACHED;
+    }
+    span.end(this);
+  }
+
+  /** @return the operation */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /** @return the code path of the operation */
+  public Path getPath() {
+    return path;
+  }
+
+  /** @return the optimization type of the csg the operation has been invoked on */
+  public CSG.OptType getOptType() {
+    return optType;
+  }
+
+  /** @return the number of polygons of the csg the operation has been invoked on */
+  public int getInputPolygons() {
+    return inputPolygons;
+  }
+
+  /** @return the total number of polygons of the other operands */
+  public int getOperandPolygons() {
+    return operandPolygons;
+  }
+
+  /** @return the number of polygons of the result */
+  public int getOutputPolygons() {
+    return outputPolygons;
+  }
+
+  /** @return the wall time of the operation in nanoseconds */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * Returns the wall time spent in the specified phase. Phases executed by several threads at once
+   * (e.g., building the trees of several operands) add up the time of each thread.
+   *
+   * @param phase the phase
+   * @return the time spent in the specified phase in nanoseconds
+   */
+  public synchronized long getNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /** @return the wall time of each clip pass in nanoseconds, in the order of completion */
+  public synchronized long[] getClipPassNanos() {
+    long[] result = new long[clipPassNanos.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = clipPassNanos.get(i);
+    }
+    return result;
+  }
+
+  /** @return the number of BSP trees built by the operation */
+  public synchronized int getTreeCount() {
+    return trees;
+  }
+
+  /** @return the total number of nodes of the BSP trees built by the operation */
+  public synchronized int getNodeCount() {
+    return nodes;
+  }
+
+  /** @return the maximum depth of the BSP trees built by the operation */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /** @return the number of polygons split by the planes of the BSP trees */
+  public long getSplitPolygons() {
+    return splitPolygons.sum();
+  }
+
+  /** @return the number of fragments created by splitting polygons */
+  public long getFragments() {
+    return fragments.sum();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(
+        String.format(
+            Locale.US,
+            "%s %s (%s): %d + %d -> %d polygons, %.3f ms",
+            operation,
+            path,
+            optType,
+            inputPolygons,
+            operandPolygons,
+            outputPolygons,
+            totalNanos / 1e6));
+
+    for (Phase phase : Phase.values()) {
+      sb.append(String.format(Locale.US, ", %s %.3f ms", phase, phaseNanos[phase.ordinal()] / 1e6));
+    }
+
+    sb.append(
+        String.format(
+            ", clip passes %d, trees %d, nodes %d, depth %d, splits %d, fragments %d",
+            clipPassNanos.size(),
+            trees,
+            nodes,
+            maxDepth,
+            getSplitPolygons(),
+            getFragments()));
+
+    return sb.toString();
+  }
+}
@@ -0,0 +1,340 @@
+/**
+ * PackedBsp.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BSP tree of the packed BSP engine (see {@link PackedMesh}). Nodes are stored in parallel arrays
+ * and reference the polygons of a {@link PackedPolygons} pool by index. The algorithms are the same
+ * as in {@link Node}.
+ *
+ * <p><b>Note:</b> this class is not thread-safe.
+ */
+final class PackedBsp {
+
+  /** Cost of a polygon that spans a candidate plane (see {@link SampledSplitPlaneSelector}). */
+  private static final double SPLIT_WEIGHT = 8.0;
+  /** Cost of the difference between front and back polygons. */
+  private static final double BALANCE_WEIGHT = 1.0;
+  /** Maximum number of candidate planes to score. */
+  private static final int MAX_CANDIDATES = 8;
+  /** Maximum number of polygons each candidate is tested against. */
+  private static final int MAX_SAMPLES = 64;
+  /** Polygon lists smaller than this use the first polygon. */
+  private static final int MIN_POLYGONS = 16;
+
+  private final PackedPolygons pool;
+
+  /** Node planes (nx, ny, nz, dist per node). */
+  private final DoubleList planes = new DoubleList(256);
+  /** Indicates whether a node has a plane. */
+  private final IntList hasPlane = new IntList(64);
+  /** Front child of each node ({@code -1} if the node has no front child). */
+  private final IntList fronts = new IntList(64);
+  /** Back child of each node ({@code -1} if the node has no back child). */
+  private final IntList backs = new IntList(64);
+  /** Polygons of each node. */
+  private final List<IntList> polygons = new ArrayList<>();
+
+  private final double[] plane = new double[4];
+
+  /**
+   * Constructor. Creates an empty tree.
+   *
+   * @param pool polygon pool
+   */
+  PackedBsp(PackedPolygons pool) {
+    this.pool = pool;
+    addNode();
+  }
+
+  /**
+   * Adds a node without plane, children and polygons.
+   *
+   * @return index of the new node
+   */
+  private int addNode() {
+    int node = hasPlane.size();
+    for (int i = 0; i < 4; i++) {
+      planes.add(0);
+    }
+    hasPlane.add(0);
+    fronts.add(-1);
+    backs.add(-1);
+    polygons.add(new IntList());
+    return node;
+  }
+
+  /**
+   * Loads the plane of the specified node into the plane buffer.
+   *
+   * @param node node index
+   */
+  private void loadPlane(int node) {
+    for (int i = 0; i < 4; i++) {
+      plane[i] = planes.get(node * 4 + i);
+    }
+  }
+
+  /**
+   * Converts solid space to empty space and vice verca.
+   *
+   * @see Node#invert()
+   */
+  void invert() {
+    for (int node = 0; node < hasPlane.size(); node++) {
+      IntList nodePolygons = polygons.get(node);
+      for (int i = 0; i < nodePolygons.size(); i++) {
+        pool.flip(nodePolygons.get(i));
+      }
+
+      for (int i = 0; i < 4; i++) {
+        planes.set(node * 4 + i, -planes.get(node * 4 + i));
+      }
+
+      int temp = fronts.get(node);
+      fronts.set(node, backs.get(node));
+      backs.set(node, temp);
+    }
+  }
+
+  /**
+   * Removes all polygons in the specified list that are contained within this BSP tree.
+   *
+   * <p><b>Note:</b> polygons are splitted if necessary.
+   *
+   * @param polygonList the polygons to clip
+   * @return the cliped list of polygons
+   * @see Node#clipPolygons(List)
+   */
+  IntList clipPolygons(IntList polygonList) {
+    IntList result = new IntList(polygonList.size());
+
+    IntList nodes = new IntList();
+    List<IntList> nodePolygons = new ArrayList<>();
+    nodes.add(0);
+    nodePolygons.add(polygonList);
+
+    for (int n = 0; n < nodes.size(); n++) {
+      int node = nodes.get(n);
+      IntList currentPolygons = nodePolygons.get(n);
+      nodePolygons.set(n, null);
+
+      if (hasPlane.get(node) == 0) {
+        result.addAll(currentPolygons);
+        continue;
+      }
+
+      loadPlane(node);
+
+      IntList frontP = new IntList(currentPolygons.size());
+      IntList backP = new IntList(currentPolygons.size());
+
+      for (int i = 0; i < currentPolygons.size(); i++) {
+        pool.split(currentPolygons.get(i), plane, frontP, backP, frontP, backP);
+      }
+
+      if (fronts.get(node) >= 0) {
+        nodes.add(fronts.get(node));
+        nodePolygons.add(frontP);
+      } else {
+        result.addAll(frontP);
+      }
+
+      if (backs.get(node) >= 0) {
+        nodes.add(backs.get(node));
+        nodePolygons.add(backP);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Removes all polygons in this BSP tree that are inside the specified BSP tree.
+   *
+   * <p><b>Note:</b> polygons are splitted if necessary.
+   *
+   * @param other tree that shall be used for clipping
+   * @see Node#clipTo(Node)
+   */
+  void clipTo(PackedBsp other) {
+    for (int node = 0; node < polygons.size(); node++) {
+      polygons.set(node, other.clipPolygons(polygons.get(node)));
+    }
+  }
+
+  /**
+   * Returns all polygons in this BSP tree.
+   *
+   * @return the indices of all polygons in this BSP tree
+   */
+  IntList allPolygons() {
+    IntList result = new IntList();
+
+    IntList nodes = new IntList();
+    nodes.add(0);
+
+    for (int n = 0; n < nodes.size(); n++) {
+      int node = nodes.get(n);
+
+      result.addAll(polygons.get(node));
+
+      if (fronts.get(node) >= 0) {
+        nodes.add(fronts.get(node));
+      }
+      if (backs.get(node) >= 0) {
+        nodes.add(backs.get(node));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Builds a BSP tree out of the specified polygons. When called on an existing tree, the new
+   * polygons are filtered down to the bottom of the tree and become new nodes there.
+   *
+   * @param polygonList polygons used to build the BSP
+   * @see Node#build(List)
+   */
+  void build(IntList polygonList) {
+    IntList nodes = new IntList();
+    List<IntList> nodePolygons = new ArrayList<>();
+    nodes.add(0);
+    nodePolygons.add(polygonList);
+
+    for (int n = 0; n < nodes.size(); n++) {
+      int node = nodes.get(n);
+      IntList currentPolygons = nodePolygons.get(n);
+      nodePolygons.set(n, null);
+
+      if (currentPolygons.isEmpty()) {
+        continue;
+      }
+
+      if (hasPlane.get(node) == 0) {
+        int selected = selectPlane(currentPolygons);
+        for (int i = 0; i < 4; i++) {
+          planes.set(node * 4 + i, pool.plane(selected, i));
+        }
+        hasPlane.set(node, 1);
+      }
+
+      loadPlane(node);
+
+      IntList nodeP = polygons.get(node);
+      IntList frontP = new IntList(currentPolygons.size());
+      IntList backP = new IntList(currentPolygons.size());
+
+      for (int i = 0; i < currentPolygons.size(); i++) {
+        pool.split(currentPolygons.get(i), plane, nodeP, nodeP, frontP, backP);
+      }
+
+      if (!frontP.isEmpty()) {
+        if (fronts.get(node) < 0) {
+          fronts.set(node, addNode());
+        }
+        nodes.add(fronts.get(node));
+        nodePolygons.add(frontP);
+      }
+
+      if (!backP.isEmpty()) {
+        if (backs.get(node) < 0) {
+          backs.set(node, addNode());
+        }
+        nodes.add(backs.get(node));
+        nodePolygons.add(backP);
+      }
+    }
+  }
+
+  /**
+   * Selects the split plane for the specified polygons. Uses the same heuristic as {@link
+   * SampledSplitPlaneSelector} with default parameters.
+   *
+   * @param polygonList polygons to partition
+   * @return the polygon whose plane shall be used
+   */
+  private int selectPlane(IntList polygonList) {
+    int size = polygonList.size();
+
+    if (size < MIN_POLYGONS) {
+      return polygonList.get(0);
+    }
+
+    int candidateStride = Math.max(1, size / MAX_CANDIDATES);
+    int sampleStride = Math.max(1, size / MAX_SAMPLES);
+
+    int best = polygonList.get(0);
+    double bestCost = Double.POSITIVE_INFINITY;
+
+    for (int c = 0, i = 0; c < size && i < MAX_CANDIDATES; c += candidateStride, i++) {
+      int candidate = polygonList.get(c);
+      for (int k = 0; k < 4; k++) {
+        plane[k] = pool.plane(candidate, k);
+      }
+
+      int front = 0;
+      int back = 0;
+      int spanning = 0;
+
+      for (int s = 0, j = 0; s < size && j < MAX_SAMPLES; s += sampleStride, j++) {
+        switch (pool.classify(polygonList.get(s), plane)) {
+          case Plane.FRONT:
+            front++;
+            break;
+          case Plane.BACK:
+            back++;
+            break;
+          case Plane.SPANNING:
+            spanning++;
+            break;
+          default:
+            break;
+        }
+      }
+
+      double cost = SPLIT_WEIGHT * spanning + BALANCE_WEIGHT * Math.abs(front - back);
+
+      if (cost < bestCost) {
+        bestCost = cost;
+        best = candidate;
+        if (cost == 0) {
+          break;
+        }
+      }
+    }
+
+    return best;
+  }
+}
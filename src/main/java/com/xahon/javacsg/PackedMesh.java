@@ -0,0 +1,677 @@
+/**
+ * PackedMesh.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact polygon mesh backed by primitive arrays.
+ *
+ * <p>A {@link CSG} stores each polygon as a separate object with its own vertex list, vertex
+ * objects and planes. A packed mesh stores the same information in a few arrays:
+ *
+ * <ul>
+ *   <li>vertex coordinates ({@code x, y, z} per vertex)
+ *   <li>polygon offsets (polygon {@code i} consists of the vertex indices {@code
+ *       offsets[i]..offsets[i+1]-1})
+ *   <li>vertex indices
+ *   <li>polygon planes ({@code nx, ny, nz, dist} per polygon)
+ *   <li>polygon property storages (shared storages are stored once)
+ * </ul>
+ *
+ * <p>Boolean operations on packed meshes ({@link #union(PackedMesh)}, {@link
+ * #difference(PackedMesh)}, {@link #intersect(PackedMesh)}) use the same BSP algorithm as {@link
+ * CSG} but operate on the arrays directly, i.e., no polygon or vertex objects are created.
+ *
+ * <p>Meshes created with {@link #fromCSG(CSG, double)} share their vertices between neighboring
+ * polygons, i.e., each position is stored once. They are used by the STL and OBJ exporters.
+ *
+ * <p><b>Note:</b> vertex normals and weights are not stored. Packed meshes are immutable.
+ */
+public final class PackedMesh {
+
+  private final double[] coordinates;
+  private final int[] offsets;
+  private final int[] indices;
+  private final double[] planes;
+  private final int[] storageIds;
+  private final PropertyStorage[] storages;
+
+  /**
+   * Constructor.
+   *
+   * @param coordinates vertex coordinates
+   * @param offsets polygon offsets
+   * @param indices vertex indices
+   * @param planes polygon planes
+   * @param storageIds storage index of each polygon
+   * @param storages property storages
+   */
+  PackedMesh(
+      double[] coordinates,
+      int[] offsets,
+      int[] indices,
+      double[] planes,
+      int[] storageIds,
+      PropertyStorage[] storages) {
+    this.coordinates = coordinates;
+    this.offsets = offsets;
+    this.indices = indices;
+    this.planes = planes;
+    this.storageIds = storageIds;
+    this.storages = storages;
+  }
+
+  /**
+   * Creates a packed mesh from the polygons of the specified csg.
+   *
+   * @param csg csg to convert
+   * @return packed mesh
+   */
+  public static PackedMesh fromCSG(CSG csg) {
+    List<Polygon> polygons = csg.getPolygons();
+
+    int numVertices = 0;
+    for (Polygon p : polygons) {
+      numVertices += p.vertices.size();
+    }
+
+    double[] coordinates = new double[numVertices * 3];
+    int[] offsets = new int[polygons.size() + 1];
+    int[] indices = new int[numVertices];
+    double[] planes = new double[polygons.size() * 4];
+    int[] storageIds = new int[polygons.size()];
+
+    Map<PropertyStorage, Integer> storageMap = new IdentityHashMap<>();
+    List<PropertyStorage> storages = new ArrayList<>();
+
+    int vertexIndex = 0;
+    for (int i = 0; i < polygons.size(); i++) {
+      Polygon p = polygons.get(i);
+
+      offsets[i] = vertexIndex;
+
+      for (Vertex v : p.vertices) {
+        coordinates[vertexIndex * 3] = v.pos.x();
+        coordinates[vertexIndex * 3 + 1] = v.pos.y();
+        coordinates[vertexIndex * 3 + 2] = v.pos.z();
+        indices[vertexIndex] = vertexIndex;
+        vertexIndex++;
+      }
+
+      Plane plane = p._csg_plane;
+      planes[i * 4] = plane.normal.x();
+      planes[i * 4 + 1] = plane.normal.y();
+      planes[i * 4 + 2] = plane.normal.z();
+      planes[i * 4 + 3] = plane.dist;
+
+      PropertyStorage storage = p.getStorage();
+      Integer storageId = storageMap.get(storage);
+      if (storageId == null) {
+        storageId = storages.size();
+        storageMap.put(storage, storageId);
+        storages.add(storage);
+      }
+      storageIds[i] = storageId;
+    }
+
+    offsets[polygons.size()] = vertexIndex;
+
+    return new PackedMesh(
+        coordinates,
+        offsets,
+        indices,
+        planes,
+        storageIds,
+        storages.toArray(new PropertyStorage[storages.size()]));
+  }
+
+  /**
+   * Creates a packed mesh with shared vertices from the polygons of the specified csg. In contrast
+   * to {@link #fromCSG(CSG)}, vertices closer than the specified tolerance are welded and vertices
+   * that lie on an edge of a neighboring polygon (T-junctions) are inserted into that edge. The
+   * polygons of a closed csg form a watertight mesh, i.e., each edge is shared by exactly two
+   * polygons. Polygons that collapse by welding are removed.
+   *
+   * @param csg csg to convert
+   * @param tolerance maximum distance of welded vertices, e.g., {@link Plane#EPSILON}
+   * @return packed mesh with shared vertices
+   */
+  public static PackedMesh fromCSG(CSG csg, double tolerance) {
+    if (!(tolerance > 0)) {
+      throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+    }
+    return MeshWelder.weld(csg.getPolygons(), tolerance);
+  }
+
+  /**
+   * Converts this mesh to a csg. The polygons keep the stored planes, i.e., the planes are not
+   * recomputed from the vertices.
+   *
+   * @return a csg consisting of the polygons of this mesh
+   */
+  public CSG toCSG() {
+    List<Polygon> polygons = new ArrayList<>(getNumberOfPolygons());
+
+    for (int i = 0; i < getNumberOfPolygons(); i++) {
+      Vector3d normal = Vector3d.xyz(planes[i * 4], planes[i * 4 + 1], planes[i * 4 + 2]);
+      // the stored plane is kept, welded loops may start with collinear vertices (T-junctions)
+      Plane plane = new Plane(normal, planes[i * 4 + 3]);
+      plane.normal = normal;
+
+      List<Vertex> vertices = new ArrayList<>(offsets[i + 1] - offsets[i]);
+      for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+        int v = indices[j] * 3;
+        vertices.add(
+            new Vertex(
+                Vector3d.xyz(coordinates[v], coordinates[v + 1], coordinates[v + 2]), normal));
+      }
+
+      Polygon polygon = new Polygon(vertices, plane, normal.magnitude() > 0);
+      polygon.setStorage(storages[storageIds[i]]);
+      polygons.add(polygon);
+    }
+
+    return CSG.fromPolygons(polygons);
+  }
+
+  /**
+   * Returns a new mesh representing the union of this mesh and the specified mesh.
+   *
+   * @param mesh other mesh
+   * @return union of this mesh and the specified mesh
+   * @see CSG#union(CSG)
+   */
+  public PackedMesh union(PackedMesh mesh) {
+    PackedPolygons pool = new PackedPolygons();
+    PackedBsp a = new PackedBsp(pool);
+    PackedBsp b = new PackedBsp(pool);
+    a.build(pool.addAll(this));
+    b.build(pool.addAll(mesh));
+    a.clipTo(b);
+    b.clipTo(a);
+    b.invert();
+    b.clipTo(a);
+    b.invert();
+    a.build(b.allPolygons());
+    return pool.toMesh(a.allPolygons());
+  }
+
+  /**
+   * Returns a new mesh representing the difference of this mesh and the specified mesh.
+   *
+   * @param mesh other mesh
+   * @return difference of this mesh and the specified mesh
+   * @see CSG#difference(CSG)
+   */
+  public PackedMesh difference(PackedMesh mesh) {
+    PackedPolygons pool = new PackedPolygons();
+    PackedBsp a = new PackedBsp(pool);
+    PackedBsp b = new PackedBsp(pool);
+    a.build(pool.addAll(this));
+    b.build(pool.addAll(mesh));
+    a.invert();
+    a.clipTo(b);
+    b.clipTo(a);
+    b.invert();
+    b.clipTo(a);
+    b.invert();
+    a.build(b.allPolygons());
+    a.invert();
+    return pool.toMesh(a.allPolygons());
+  }
+
+  /**
+   * Returns a new mesh representing the intersection of this mesh and the specified mesh.
+   *
+   * @param mesh other mesh
+   * @return intersection of this mesh and the specified mesh
+   * @see CSG#intersect(CSG)
+   */
+  public PackedMesh intersect(PackedMesh mesh) {
+    PackedPolygons pool = new PackedPolygons();
+    PackedBsp a = new PackedBsp(pool);
+    PackedBsp b = new PackedBsp(pool);
+    a.build(pool.addAll(this));
+    b.build(pool.addAll(mesh));
+    a.invert();
+    b.clipTo(a);
+    b.invert();
+    a.clipTo(b);
+    b.clipTo(a);
+    a.build(b.allPolygons());
+    a.invert();
+    return pool.toMesh(a.allPolygons());
+  }
+
+  /**
+   * Returns the triangles of this mesh. Each polygon is split into triangles at vertices that are
+   * not collinear with their neighbors, i.e., no degenerate triangles are created for vertices
+   * inserted into polygon edges (see {@link #fromCSG(CSG, double)}).
+   *
+   * @return vertex indices ({@code a, b, c} per triangle)
+   */
+  public int[] getTriangleIndices() {
+    IntList triangles = new IntList(indices.length * 3);
+    for (int i = 0; i < getNumberOfPolygons(); i++) {
+      triangulate(i, triangles);
+    }
+    return triangles.toArray();
+  }
+
+  /**
+   * Appends the triangles of the specified polygon. Ears are clipped at the first vertex (in loop
+   * order, starting with the second vertex) that is not collinear with its neighbors and whose
+   * removal leaves a polygon with area. Without collinear vertices, this is a triangle fan around
+   * the first vertex.
+   *
+   * @param polygon polygon index
+   * @param triangles list to add the vertex indices to
+   */
+  void triangulate(int polygon, IntList triangles) {
+    int n = offsets[polygon + 1] - offsets[polygon];
+
+    if (n == 3) {
+      for (int j = offsets[polygon]; j < offsets[polygon + 1]; j++) {
+        triangles.add(indices[j]);
+      }
+      return;
+    }
+
+    int[] loop = Arrays.copyOfRange(indices, offsets[polygon], offsets[polygon + 1]);
+
+    while (n > 3) {
+      int k = 1;
+      while (k <= n
+          && (isCollinear(loop[k - 1], loop[k % n], loop[(k + 1) % n])
+              || isDegenerateWithout(loop, n, k % n))) {
+        k++;
+      }
+      if (k > n) {
+        // the remaining vertices are collinear
+        return;
+      }
+      triangles.add(loop[k - 1]);
+      triangles.add(loop[k % n]);
+      triangles.add(loop[(k + 1) % n]);
+      if (k < n) {
+        System.arraycopy(loop, k + 1, loop, k, n - k - 1);
+      } else {
+        System.arraycopy(loop, 1, loop, 0, n - 1);
+      }
+      n--;
+    }
+
+    if (n == 3 && !isCollinear(loop[0], loop[1], loop[2])) {
+      triangles.add(loop[0]);
+      triangles.add(loop[1]);
+      triangles.add(loop[2]);
+    }
+  }
+
+  /**
+   * Indicates whether the vertices of the specified loop are collinear if the specified vertex is
+   * removed, i.e., whether clipping the ear at that vertex leaves a polygon without area.
+   */
+  private boolean isDegenerateWithout(int[] loop, int n, int removed) {
+    for (int k = 0; k < n; k++) {
+      if (k == removed) {
+        continue;
+      }
+      int prev = Math.floorMod(k - 1, n);
+      if (prev == removed) {
+        prev = Math.floorMod(k - 2, n);
+      }
+      int next = (k + 1) % n;
+      if (next == removed) {
+        next = (k + 2) % n;
+      }
+      if (!isCollinear(loop[prev], loop[k], loop[next])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Indicates whether the vertex {@code b} is closer than {@link Plane#EPSILON} to the line through
+   * the vertices {@code a} and {@code c}.
+   */
+  private boolean isCollinear(int a, int b, int c) {
+    double acx = coordinates[c * 3] - coordinates[a * 3];
+    double acy = coordinates[c * 3 + 1] - coordinates[a * 3 + 1];
+    double acz = coordinates[c * 3 + 2] - coordinates[a * 3 + 2];
+    double abx = coordinates[b * 3] - coordinates[a * 3];
+    double aby = coordinates[b * 3 + 1] - coordinates[a * 3 + 1];
+    double abz = coordinates[b * 3 + 2] - coordinates[a * 3 + 2];
+
+    double cx = acy * abz - acz * aby;
+    double cy = acz * abx - acx * abz;
+    double cz = acx * aby - acy * abx;
+
+    double lengthSquared = acx * acx + acy * acy + acz * acz;
+
+    return cx * cx + cy * cy + cz * cz <= Plane.EPSILON * Plane.EPSILON * lengthSquared;
+  }
+
+  /**
+   * Returns this mesh in STL string format.
+   *
+   * @return this mesh in STL string format
+   */
+  public String toStlString() {
+    return toStlString(new StringBuilder()).toString();
+  }
+
+  /**
+   * Returns this mesh in STL string format.
+   *
+   * @param sb string builder
+   * @return the specified string builder
+   */
+  public StringBuilder toStlString(StringBuilder sb) {
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.STL_EXPORT, null);
+    int start = sb.length();
+    appendStl(sb);
+    span.end(getNumberOfPolygons(), sb.length() - start);
+    return sb;
+  }
+
+  /**
+   * Appends this mesh in STL format.
+   *
+   * @param sb string builder
+   */
+  void appendStl(StringBuilder sb) {
+    IntList triangles = new IntList(64);
+
+    sb.append("solid v3d.csg\n");
+
+    for (int i = 0; i < getNumberOfPolygons(); i++) {
+      triangles.clear();
+      triangulate(i, triangles);
+
+      if (triangles.isEmpty()) {
+        continue;
+      }
+
+      String normal =
+          Vector3d.xyz(planes[i * 4], planes[i * 4 + 1], planes[i * 4 + 2]).toStlString();
+
+      for (int t = 0; t < triangles.size(); t += 3) {
+        sb.append("  facet normal ").append(normal).append("\n").append("    outer loop\n");
+        for (int k = 0; k < 3; k++) {
+          sb.append("      vertex ");
+          position(triangles.get(t + k)).toStlString(sb).append("\n");
+        }
+        sb.append("    endloop\n").append("  endfacet\n");
+      }
+    }
+
+    sb.append("endsolid v3d.csg\n");
+  }
+
+  /**
+   * Returns this mesh in OBJ format. The faces of polygons with a {@code material:color} property
+   * refer to a material of the MTL file.
+   *
+   * @return this mesh in OBJ format
+   */
+  public ObjFile toObj() {
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.OBJ_EXPORT, null);
+    ObjFile obj = createObj();
+    span.end(getNumberOfPolygons(), obj.getObj().length() + obj.getMtl().length());
+    return obj;
+  }
+
+  /**
+   * Creates the OBJ and MTL files of this mesh. The {@code material:name} property of the storages
+   * is set to the index of the material.
+   *
+   * @return this mesh in OBJ format
+   */
+  ObjFile createObj() {
+    StringBuilder objSb = new StringBuilder();
+
+    objSb.append("mtllib ").append(ObjFile.MTL_NAME).append("\n");
+
+    Map<PropertyStorage, Integer> materialNames = new HashMap<>();
+    String[] materials = new String[storages.length];
+
+    for (int s = 0; s < storages.length; s++) {
+      Integer materialIndex = materialNames.get(storages[s]);
+      if (materialIndex == null) {
+        materialIndex = materialNames.size() + 1;
+        materialNames.put(storages[s], materialIndex);
+        storages[s].set("material:name", materialIndex);
+      }
+      if (storages[s].contains("material:color")) {
+        materials[s] = "material-" + materialIndex;
+      }
+    }
+
+    appendObj(objSb, materials);
+
+    StringBuilder mtlSb = new StringBuilder();
+
+    materialNames
+        .keySet()
+        .forEach(
+            s -> {
+              if (s.contains("material:color")) {
+                mtlSb
+                    .append("newmtl material-")
+                    .append(s.getValue("material:name").get())
+                    .append("\n");
+                mtlSb.append("Kd ").append(s.getValue("material:color").get()).append("\n");
+              }
+            });
+
+    return new ObjFile(objSb.toString(), mtlSb.toString());
+  }
+
+  /**
+   * Returns this mesh in OBJ string format.
+   *
+   * @return this mesh in OBJ string format
+   */
+  public String toObjString() {
+    return toObjString(new StringBuilder()).toString();
+  }
+
+  /**
+   * Returns this mesh in OBJ string format.
+   *
+   * @param sb string builder
+   * @return the specified string builder
+   */
+  public StringBuilder toObjString(StringBuilder sb) {
+    CSGEvents.Span span = CSGEvents.begin(CSGEvents.Kind.OBJ_EXPORT, null);
+    int start = sb.length();
+    appendObj(sb, null);
+    span.end(getNumberOfPolygons(), sb.length() - start);
+    return sb;
+  }
+
+  /**
+   * Appends the vertices and triangles of this mesh in OBJ format.
+   *
+   * @param sb string builder
+   * @param materials material name of each storage ({@code null} if a storage has no material) or
+   *     {@code null} if no materials are used
+   */
+  void appendObj(StringBuilder sb, String[] materials) {
+    sb.append("# Group").append("\n");
+    sb.append("g v3d.csg\n");
+
+    sb.append("\n# Vertices\n");
+
+    for (int v = 0; v < getNumberOfVertices(); v++) {
+      sb.append("v ");
+      position(v).toObjString(sb).append("\n");
+    }
+
+    sb.append("\n# Faces").append("\n");
+
+    IntList triangles = new IntList(64);
+
+    for (int i = 0; i < getNumberOfPolygons(); i++) {
+      triangles.clear();
+      triangulate(i, triangles);
+
+      if (triangles.isEmpty()) {
+        continue;
+      }
+
+      String material = materials != null ? materials[storageIds[i]] : null;
+      if (material != null) {
+        sb.append("usemtl ").append(material).append("\n");
+      }
+
+      // OBJ indices start with 1
+      for (int t = 0; t < triangles.size(); t += 3) {
+        sb.append("f ")
+            .append(triangles.get(t) + 1)
+            .append(" ")
+            .append(triangles.get(t + 1) + 1)
+            .append(" ")
+            .append(triangles.get(t + 2) + 1)
+            .append("\n");
+      }
+      sb.append("\n");
+    }
+
+    sb.append("\n# End Group v3d.csg").append("\n");
+  }
+
+  private Vector3d position(int v) {
+    return Vector3d.xyz(coordinates[v * 3], coordinates[v * 3 + 1], coordinates[v * 3 + 2]);
+  }
+
+  /** @return the number of polygons of this mesh */
+  public int getNumberOfPolygons() {
+    return offsets.length - 1;
+  }
+
+  /** @return the number of vertices of this mesh */
+  public int getNumberOfVertices() {
+    return coordinates.length / 3;
+  }
+
+  /**
+   * Returns the vertex coordinates ({@code x, y, z} per vertex).
+   *
+   * @return a copy of the vertex coordinates
+   */
+  public double[] getCoordinates() {
+    return coordinates.clone();
+  }
+
+  /**
+   * Returns the polygon offsets. Polygon {@code i} consists of the vertex indices {@code
+   * offsets[i]..offsets[i+1]-1}.
+   *
+   * @return a copy of the polygon offsets
+   */
+  public int[] getPolygonOffsets() {
+    return offsets.clone();
+  }
+
+  /**
+   * Returns the vertex indices of all polygons.
+   *
+   * @return a copy of the vertex indices
+   */
+  public int[] getPolygonIndices() {
+    return indices.clone();
+  }
+
+  /**
+   * Returns the polygon planes ({@code nx, ny, nz, dist} per polygon).
+   *
+   * @return a copy of the polygon planes
+   */
+  public double[] getPlanes() {
+    return planes.clone();
+  }
+
+  /**
+   * Returns the property storage of the specified polygon.
+   *
+   * @param polygon polygon index
+   * @return property storage of the specified polygon
+   */
+  public PropertyStorage getStorage(int polygon) {
+    return storages[storageIds[polygon]];
+  }
+
+  // accessors used by the packed BSP engine
+
+  double[] coordinates() {
+    return coordinates;
+  }
+
+  int[] offsets() {
+    return offsets;
+  }
+
+  int[] indices() {
+    return indices;
+  }
+
+  double[] planes() {
+    return planes;
+  }
+
+  int[] storageIds() {
+    return storageIds;
+  }
+
+  PropertyStorage[] storages() {
+    return storages;
+  }
+
+  @Override
+  public String toString() {
+    return "[polygons: "
+        + getNumberOfPolygons()
+        + ", vertices: "
+        + getNumberOfVertices()
+        + ", storages: "
+        + storages.length
+        + "]";
+  }
+}
@@ -0,0 +1,369 @@
+/**
+ * PackedPolygons.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polygon pool of the packed BSP engine (see {@link PackedMesh}). All polygons that are created
+ * during one boolean operation (input polygons and fragments) are stored in primitive arrays and
+ * referenced by their index.
+ *
+ * <p>Flipping a polygon only toggles a flag, i.e., the vertex indices and the plane are not
+ * rewritten. Fragments created by splitting a polygon inherit its plane.
+ *
+ * <p><b>Note:</b> this class is not thread-safe.
+ */
+final class PackedPolygons {
+
+  /** The vertex order of the polygon is reversed. */
+  private static final int REVERSED = 1;
+  /** The plane of the polygon is negated. */
+  private static final int NEGATED = 2;
+
+  /** Vertex coordinates (x, y, z per vertex). */
+  private final DoubleList coordinates = new DoubleList(1024);
+  /** Vertex indices of all polygons. */
+  private final IntList indices = new IntList(1024);
+  /** Index of the first vertex index of each polygon. */
+  private final IntList starts = new IntList(256);
+  /** Number of vertices of each polygon. */
+  private final IntList counts = new IntList(256);
+  /** Plane index of each polygon. */
+  private final IntList planeIds = new IntList(256);
+  /** Orientation flags of each polygon. */
+  private final IntList flags = new IntList(256);
+  /** Storage index of each polygon. */
+  private final IntList storageIds = new IntList(256);
+  /** Planes (nx, ny, nz, dist per plane). */
+  private final DoubleList planes = new DoubleList(1024);
+  /** Property storages. */
+  private final List<PropertyStorage> storages = new ArrayList<>();
+
+  // classification buffers
+  private int[] types = new int[16];
+  private double[] distances = new double[16];
+  private int[] frontIndices = new int[32];
+  private int[] backIndices = new int[32];
+
+  /**
+   * Adds the polygons of the specified mesh to this pool.
+   *
+   * @param mesh mesh to add
+   * @return the indices of the added polygons
+   */
+  IntList addAll(PackedMesh mesh) {
+    int vertexOffset = coordinates.size() / 3;
+    int planeOffset = planes.size() / 4;
+    int storageOffset = storages.size();
+
+    double[] meshCoordinates = mesh.coordinates();
+    int[] meshOffsets = mesh.offsets();
+    int[] meshIndices = mesh.indices();
+    double[] meshPlanes = mesh.planes();
+    int[] meshStorageIds = mesh.storageIds();
+
+    coordinates.addAll(meshCoordinates, 0, meshCoordinates.length);
+    planes.addAll(meshPlanes, 0, meshPlanes.length);
+    for (PropertyStorage storage : mesh.storages()) {
+      storages.add(storage);
+    }
+
+    int numPolygons = mesh.getNumberOfPolygons();
+    IntList result = new IntList(numPolygons);
+
+    for (int i = 0; i < numPolygons; i++) {
+      result.add(starts.size());
+      starts.add(indices.size());
+      counts.add(meshOffsets[i + 1] - meshOffsets[i]);
+      planeIds.add(planeOffset + i);
+      flags.add(0);
+      storageIds.add(storageOffset + meshStorageIds[i]);
+      for (int j = meshOffsets[i]; j < meshOffsets[i + 1]; j++) {
+        indices.add(vertexOffset + meshIndices[j]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Flips the specified polygon.
+   *
+   * @param polygon polygon index
+   */
+  void flip(int polygon) {
+    flags.set(polygon, flags.get(polygon) ^ (REVERSED | NEGATED));
+  }
+
+  /**
+   * Returns the specified plane component of a polygon ({@code 0..2}: normal, {@code 3}: dist).
+   *
+   * @param polygon polygon index
+   * @param component component index
+   * @return plane component
+   */
+  double plane(int polygon, int component) {
+    double value = planes.get(planeIds.get(polygon) * 4 + component);
+    return (flags.get(polygon) & NEGATED) != 0 ? -value : value;
+  }
+
+  /**
+   * Returns the vertex index of the i-th vertex of a polygon (with respect to its orientation).
+   *
+   * @param polygon polygon index
+   * @param i vertex number
+   * @return vertex index
+   */
+  private int vertex(int polygon, int i) {
+    int count = counts.get(polygon);
+    if ((flags.get(polygon) & REVERSED) != 0) {
+      i = count - 1 - i;
+    }
+    return indices.get(starts.get(polygon) + i);
+  }
+
+  /**
+   * Classifies the specified polygon with respect to a plane.
+   *
+   * @param polygon polygon index
+   * @param plane plane (nx, ny, nz, dist)
+   * @return one of {@link Plane#COPLANAR}, {@link Plane#FRONT}, {@link Plane#BACK} or {@link
+   *     Plane#SPANNING}
+   */
+  int classify(int polygon, double[] plane) {
+    int polygonType = 0;
+    int count = counts.get(polygon);
+    int start = starts.get(polygon);
+    for (int i = 0; i < count && polygonType != Plane.SPANNING; i++) {
+      int v = indices.get(start + i) * 3;
+      double t =
+          plane[0] * coordinates.get(v)
+              + plane[1] * coordinates.get(v + 1)
+              + plane[2] * coordinates.get(v + 2)
+              - plane[3];
+      polygonType |= (t < -Plane.EPSILON) ? Plane.BACK : (t > Plane.EPSILON) ? Plane.FRONT : 0;
+    }
+    return polygonType;
+  }
+
+  /**
+   * Splits a polygon by the specified plane if needed (see {@link Plane#splitPolygon(Polygon,
+   * List, List, List, List)}).
+   *
+   * @param polygon polygon index
+   * @param plane plane (nx, ny, nz, dist)
+   * @param coplanarFront "coplanar front" polygons
+   * @param coplanarBack "coplanar back" polygons
+   * @param front front polygons
+   * @param back back polgons
+   */
+  void split(
+      int polygon,
+      double[] plane,
+      IntList coplanarFront,
+      IntList coplanarBack,
+      IntList front,
+      IntList back) {
+
+    int count = counts.get(polygon);
+
+    if (types.length < count) {
+      types = new int[count * 2];
+      distances = new double[count * 2];
+      frontIndices = new int[count * 4];
+      backIndices = new int[count * 4];
+    }
+
+    int polygonType = 0;
+    for (int i = 0; i < count; i++) {
+      int v = vertex(polygon, i) * 3;
+      double t =
+          plane[0] * coordinates.get(v)
+              + plane[1] * coordinates.get(v + 1)
+              + plane[2] * coordinates.get(v + 2)
+              - plane[3];
+      int type = (t < -Plane.EPSILON) ? Plane.BACK : (t > Plane.EPSILON) ? Plane.FRONT : 0;
+      polygonType |= type;
+      types[i] = type;
+      distances[i] = t;
+    }
+
+    switch (polygonType) {
+      case Plane.COPLANAR:
+        double dot =
+            plane[0] * plane(polygon, 0) + plane[1] * plane(polygon, 1) + plane[2] * plane(polygon, 2);
+        (dot > 0 ? coplanarFront : coplanarBack).add(polygon);
+        break;
+      case Plane.FRONT:
+        front.add(polygon);
+        break;
+      case Plane.BACK:
+        back.add(polygon);
+        break;
+      case Plane.SPANNING:
+        int numFront = 0;
+        int numBack = 0;
+        for (int i = 0; i < count; i++) {
+          int j = (i + 1) % count;
+          int ti = types[i];
+          int tj = types[j];
+          int vi = vertex(polygon, i);
+          if (ti != Plane.BACK) {
+            frontIndices[numFront++] = vi;
+          }
+          if (ti != Plane.FRONT) {
+            backIndices[numBack++] = vi;
+          }
+          if ((ti | tj) == Plane.SPANNING) {
+            double t = distances[i] / (distances[i] - distances[j]);
+            int v = interpolate(vi, vertex(polygon, j), t);
+            frontIndices[numFront++] = v;
+            backIndices[numBack++] = v;
+          }
+        }
+        if (numFront >= 3) {
+          front.add(addFragment(polygon, frontIndices, numFront));
+        }
+        if (numBack >= 3) {
+          back.add(addFragment(polygon, backIndices, numBack));
+        }
+        break;
+    }
+  }
+
+  /**
+   * Adds a vertex between the two specified vertices.
+   *
+   * @param a first vertex index
+   * @param b second vertex index
+   * @param t interpolation parameter
+   * @return the index of the new vertex
+   */
+  private int interpolate(int a, int b, double t) {
+    int index = coordinates.size() / 3;
+    for (int i = 0; i < 3; i++) {
+      double ca = coordinates.get(a * 3 + i);
+      double cb = coordinates.get(b * 3 + i);
+      coordinates.add(ca + (cb - ca) * t);
+    }
+    return index;
+  }
+
+  /**
+   * Adds a fragment of the specified polygon. The fragment inherits the plane and the storage of
+   * its parent.
+   *
+   * @param parent parent polygon
+   * @param vertexIndices vertex indices of the fragment (in the orientation of the parent)
+   * @param count number of vertices
+   * @return polygon index of the fragment
+   */
+  private int addFragment(int parent, int[] vertexIndices, int count) {
+    int polygon = starts.size();
+    starts.add(indices.size());
+    counts.add(count);
+    planeIds.add(planeIds.get(parent));
+    flags.add(flags.get(parent) & NEGATED);
+    storageIds.add(storageIds.get(parent));
+    for (int i = 0; i < count; i++) {
+      indices.add(vertexIndices[i]);
+    }
+    return polygon;
+  }
+
+  /**
+   * Creates a mesh that consists of the specified polygons. Only the vertices referenced by these
+   * polygons are copied.
+   *
+   * @param polygons polygon indices
+   * @return packed mesh
+   */
+  PackedMesh toMesh(IntList polygons) {
+    int[] vertexMap = new int[coordinates.size() / 3];
+    Arrays.fill(vertexMap, -1);
+
+    int numIndices = 0;
+    for (int i = 0; i < polygons.size(); i++) {
+      numIndices += counts.get(polygons.get(i));
+    }
+
+    DoubleList meshCoordinates = new DoubleList(numIndices * 3);
+    int[] meshOffsets = new int[polygons.size() + 1];
+    int[] meshIndices = new int[numIndices];
+    double[] meshPlanes = new double[polygons.size() * 4];
+    int[] meshStorageIds = new int[polygons.size()];
+
+    int[] storageMap = new int[storages.size()];
+    Arrays.fill(storageMap, -1);
+    List<PropertyStorage> meshStorages = new ArrayList<>();
+
+    int index = 0;
+    for (int i = 0; i < polygons.size(); i++) {
+      int polygon = polygons.get(i);
+
+      meshOffsets[i] = index;
+
+      for (int j = 0; j < counts.get(polygon); j++) {
+        int v = vertex(polygon, j);
+        if (vertexMap[v] < 0) {
+          vertexMap[v] = meshCoordinates.size() / 3;
+          meshCoordinates.add(coordinates.get(v * 3));
+          meshCoordinates.add(coordinates.get(v * 3 + 1));
+          meshCoordinates.add(coordinates.get(v * 3 + 2));
+        }
+        meshIndices[index++] = vertexMap[v];
+      }
+
+      for (int c = 0; c < 4; c++) {
+        meshPlanes[i * 4 + c] = plane(polygon, c);
+      }
+
+      int storageId = storageIds.get(polygon);
+      if (storageMap[storageId] < 0) {
+        storageMap[storageId] = meshStorages.size();
+        meshStorages.add(storages.get(storageId));
+      }
+      meshStorageIds[i] = storageMap[storageId];
+    }
+
+    meshOffsets[polygons.size()] = index;
+
+    return new PackedMesh(
+        meshCoordinates.toArray(),
+        meshOffsets,
+        meshIndices,
+        meshPlanes,
+        meshStorageIds,
+        meshStorages.toArray(new PropertyStorage[meshStorages.size()]));
+  }
+}
@@ -51,6 +51,24 @@ class Plane {
      */
     public static double EPSILON = 1e-8;
 
+    /**
+     * All vertices of a polygon are on this plane.
+     */
+    static final int COPLANAR = 0;
+    /**
+     * All vertices of a polygon are on or in front of this plane.
+     */
+    static final int FRONT = 1;
+    /**
+     * All vertices of a polygon are on or in back of this plane.
+     */
+    static final int BACK = 2;
+    /**
+     * Some vertices of a polygon are in front of and some in back of this
+     * plane.
+     */
+    static final int SPANNING = 3; // == some in the FRONT + some in the BACK
+
     /**
      * XY plane.
      */
@@ -73,6 +91,13 @@ class Plane {
      */
     public double dist;
 
+    /**
+     * Per-thread scratch buffers used by
+     * {@link #splitPolygon(Polygon, java.util.List, java.util.List, java.util.List, java.util.List)}.
+     */
+    private static final ThreadLocal<SplitScratch> SCRATCH
+            = ThreadLocal.withInitial(SplitScratch::new);
+
     /**
      * Constructor. Creates a new plane defined by its normal vector and the
      * distance to the origin.
@@ -98,11 +123,33 @@ class Plane {
         return new Plane(n, n.dot(a));
     }
 
+    /**
+     * Constructor. Creates a new plane with an already normalized normal
+     * vector.
+     *
+     * @param dist distance from origin
+     * @param normal normalized plane normal
+     */
+    private Plane(double dist, Vector3d normal) {
+        this.normal = normal;
+        this.dist = dist;
+    }
+
     @Override
     public Plane clone() {
         return new Plane(normal.clone(), dist);
     }
 
+    /**
+     * Returns a copy of this plane. In contrast to {@link #clone()} the copy
+     * shares the (immutable) normal vector and does not normalize it again.
+     *
+     * @return a copy of this plane
+     */
+    Plane copy() {
+        return new Plane(dist, normal);
+    }
+
     /**
      * Flips this plane.
      */
@@ -111,6 +158,25 @@ class Plane {
         dist = -dist;
     }
 
+    /**
+     * Classifies the specified polygon with respect to this plane.
+     *
+     * @param polygon polygon to classify
+     * @return one of {@link #COPLANAR}, {@link #FRONT}, {@link #BACK} or
+     * {@link #SPANNING}
+     */
+    int classify(Polygon polygon) {
+        int polygonType = 0;
+        for (int i = 0; i < polygon.vertices.size(); i++) {
+            double t = this.normal.dot(polygon.vertices.get(i).pos) - this.dist;
+            polygonType |= (t < -Plane.EPSILON) ? BACK : (t > Plane.EPSILON) ? FRONT : COPLANAR;
+            if (polygonType == SPANNING) {
+                break;
+            }
+        }
+        return polygonType;
+    }
+
     /**
      * Splits a {@link Polygon} by this plane if needed. After that it puts the
      * polygons or the polygon fragments in the appropriate lists
@@ -119,6 +185,9 @@ class Plane {
      * orientation with respect to this plane. Polygons in front or back of this
      * plane go into either {@code front} or {@code back}.
      *
+     * <b>Note:</b> the specified polygon is not modified. Fragments share the
+     * unsplit vertices with the polygon and the new vertices with each other.
+     *
      * @param polygon polygon to split
      * @param coplanarFront "coplanar front" polygons
      * @param coplanarBack "coplanar back" polygons
@@ -131,20 +200,45 @@ class Plane {
             List<Polygon> coplanarBack,
             List<Polygon> front,
             List<Polygon> back) {
-        final int COPLANAR = 0;
-        final int FRONT = 1;
-        final int BACK = 2;
-        final int SPANNING = 3; // == some in the FRONT + some in the BACK
+        split(polygon, coplanarFront, coplanarBack, front, back);
+    }
+
+    /**
+     * Splits a {@link Polygon} by this plane if needed (see
+     * {@link #splitPolygon(Polygon, List, List, List, List)}).
+     *
+     * @param polygon polygon to split
+     * @param coplanarFront "coplanar front" polygons
+     * @param coplanarBack "coplanar back" polygons
+     * @param front front polygons
+     * @param back back polgons
+     * @return the number of fragments if the polygon has been split;
+     * {@code 0} otherwise
+     */
+    int split(
+            Polygon polygon,
+            List<Polygon> coplanarFront,
+            List<Polygon> coplanarBack,
+            List<Polygon> front,
+            List<Polygon> back) {
+
+        List<Vertex> vertices = polygon.vertices;
+        int numVertices = vertices.size();
+
+        SplitScratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(numVertices);
+        int[] types = scratch.types;
+        double[] distances = scratch.distances;
 
         // Classify each point as well as the entire polygon into one of the 
         // above four classes.
         int polygonType = 0;
-        List<Integer> types = new ArrayList<>(polygon.vertices.size());
-        for (int i = 0; i < polygon.vertices.size(); i++) {
-            double t = this.normal.dot(polygon.vertices.get(i).pos) - this.dist; 
+        for (int i = 0; i < numVertices; i++) {
+            double t = this.normal.dot(vertices.get(i).pos) - this.dist;
             int type = (t < -Plane.EPSILON) ? BACK : (t > Plane.EPSILON) ? FRONT : COPLANAR;
             polygonType |= type;
-            types.add(type);
+            types[i] = type;
+            distances[i] = t;
         }
 
         //System.out.println("> switching");
@@ -164,35 +258,76 @@ class Plane {
                 break;
             case SPANNING:
                 //System.out.println(" -> spanning");
-                List<Vertex> f = new ArrayList<>();
-                List<Vertex> b = new ArrayList<>();
-                for (int i = 0; i < polygon.vertices.size(); i++) {
-                    int j = (i + 1) % polygon.vertices.size();
-                    int ti = types.get(i);
-                    int tj = types.get(j);
-                    Vertex vi = polygon.vertices.get(i);
-                    Vertex vj = polygon.vertices.get(j);
+
+                // count the vertices of both fragments to allocate the
+                // vertex lists with their final size
+                int numFront = 0;
+                int numBack = 0;
+                for (int i = 0; i < numVertices; i++) {
+                    int ti = types[i];
+                    int tj = types[(i + 1) % numVertices];
+                    if (ti != BACK) {
+                        numFront++;
+                    }
+                    if (ti != FRONT) {
+                        numBack++;
+                    }
+                    if ((ti | tj) == SPANNING) {
+                        numFront++;
+                        numBack++;
+                    }
+                }
+
+                List<Vertex> f = new ArrayList<>(numFront);
+                List<Vertex> b = new ArrayList<>(numBack);
+                for (int i = 0; i < numVertices; i++) {
+                    int j = (i + 1) % numVertices;
+                    int ti = types[i];
+                    int tj = types[j];
+                    Vertex vi = vertices.get(i);
                     if (ti != BACK) {
                         f.add(vi);
                     }
                     if (ti != FRONT) {
-                        b.add(ti != BACK ? vi.clone() : vi);
+                        b.add(vi);
                     }
                     if ((ti | tj) == SPANNING) {
-                        double t = (this.dist - this.normal.dot(vi.pos))
-                                / this.normal.dot(vj.pos.minus(vi.pos));
-                        Vertex v = vi.interpolate(vj, t);
+                        // distances of vi and vj have already been computed
+                        double t = distances[i] / (distances[i] - distances[j]);
+                        Vertex v = vi.interpolate(vertices.get(j), t);
                         f.add(v);
-                        b.add(v.clone());
+                        b.add(v);
                     }
                 }
+                int numFragments = 0;
                 if (f.size() >= 3) {
-                    front.add(new Polygon(f, polygon.getStorage()));
+                    front.add(new Polygon(f, polygon));
+                    numFragments++;
                 }
                 if (b.size() >= 3) {
-                    back.add(new Polygon(b, polygon.getStorage()));
+                    back.add(new Polygon(b, polygon));
+                    numFragments++;
                 }
-                break;
+                return numFragments;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Reusable classification buffers. Each thread owns one instance.
+     */
+    private static final class SplitScratch {
+
+        int[] types = new int[16];
+        double[] distances = new double[16];
+
+        void ensureCapacity(int numVertices) {
+            if (types.length < numVertices) {
+                int capacity = Math.max(numVertices, types.length * 2);
+                types = new int[capacity];
+                distances = new double[capacity];
+            }
         }
     }
 }
@@ -66,19 +66,48 @@ public final class Polygon {
      * <b>Note:</b> uses first three vertices to define the plane.
      */
     public final Plane _csg_plane;
+    /**
+     * Plane defined by this polygon (see {@link #getPlane()}), computed on
+     * first use.
+     */
     private eu.mihosoft.vvecmath.Plane plane;
+    /**
+     * Cached centroid (see {@link #centroid()}), or {@code null}.
+     */
+    private Vector3d centroid;
+    /**
+     * Polygon this polygon is the inverse of (see {@link #inverse()}), or
+     * {@code null}.
+     */
+    private Polygon inverseOf;
+    /**
+     * Cached bounding box (see {@link #getAabb()}), or {@code null}.
+     */
+    private Aabb aabb;
+    /**
+     * Cached fingerprint (see {@link #fingerprint()}), or {@code null}.
+     */
+    private Fingerprint fingerprint;
     
     /**
-     * Returns the plane defined by this triangle. 
+     * Returns the plane defined by this triangle. The plane is computed on
+     * first use.
      * 
      * @return plane
      */
     public eu.mihosoft.vvecmath.Plane getPlane() {
-        return plane;
+        eu.mihosoft.vvecmath.Plane result = plane;
+        if (result == null) {
+            result = eu.mihosoft.vvecmath.Plane.
+                    fromPointAndNormal(centroid(), _csg_plane.normal);
+            plane = result;
+        }
+        return result;
     }
 
     void setStorage(PropertyStorage storage) {
         this.shared = storage;
+        this.inverseOf = null;
     }
 
     /**
@@ -133,20 +162,26 @@ public final class Polygon {
                 vertices.get(0).pos,
                 vertices.get(1).pos,
                 vertices.get(2).pos);
-        this.plane = eu.mihosoft.vvecmath.Plane.
-                fromPointAndNormal(centroid(), _csg_plane.normal);
 
         validateAndInit(vertices);
     }
 
+    /**
+     * Validates this polygon and assigns the plane normal to vertices without
+     * normal. Vertex normals that have been specified are kept.
+     *
+     * @param vertices1 vertices of this polygon
+     */
     private void validateAndInit(List<Vertex> vertices1) {
         for (Vertex v : vertices1) {
-            v.normal = _csg_plane.normal;
+            if (v.normal == null) {
+                v.normal = _csg_plane.normal;
+            }
         }
         if (Vector3d.ZERO.equals(_csg_plane.normal)) {
             valid = false;
             System.err.println(
-                    "Normal is zero! Probably, duplicate points have been specified!\n\n" + toStlString());
+                    "Normal is zero! Probably, duplicate points have been specified!");
 //            throw new RuntimeException(
 //                    "Normal is zero! Probably, duplicate points have been specified!\n\n"+toStlString());
         }
@@ -174,12 +209,67 @@ public final class Polygon {
                 vertices.get(1).pos,
                 vertices.get(2).pos);
 
-        this.plane = eu.mihosoft.vvecmath.Plane.
-                fromPointAndNormal(centroid(), _csg_plane.normal);
-
         validateAndInit(vertices);
     }
 
+    /**
+     * Constructor. Creates a fragment of the specified polygon, e.g., after it
+     * has been split by a plane. The fragment shares the property storage and
+     * inherits the planes and the validity of its parent instead of
+     * recomputing them.
+     *
+     * <b>Note:</b> the vertices must lie on the plane of the parent polygon
+     * and form a convex loop. The vertex normals are not modified.
+     *
+     * @param vertices fragment vertices
+     * @param parent polygon the fragment has been created from
+     */
+    Polygon(List<Vertex> vertices, Polygon parent) {
+        this.vertices = vertices;
+        this.shared = parent.getStorage();
+        this._csg_plane = parent._csg_plane.copy();
+        this.plane = parent.plane;
+        this.valid = parent.valid;
+    }
+
+    /**
+     * Constructor. Creates a polygon with a known plane, e.g., when loading a
+     * polygon whose plane has been stored with its vertices. The plane is not
+     * recomputed and the vertex normals are not modified.
+     *
+     * @param vertices polygon vertices
+     * @param plane plane of the polygon
+     * @param valid whether the polygon is valid
+     */
+    Polygon(List<Vertex> vertices, Plane plane, boolean valid) {
+        this.vertices = vertices;
+        this._csg_plane = plane;
+        this.valid = valid;
+    }
+
+    /**
+     * Constructor. Creates the inverse of the specified polygon, i.e., a
+     * polygon with reversed vertex order, flipped vertex normals and flipped
+     * plane. The vertex positions are shared with the specified polygon.
+     *
+     * @param polygon polygon to invert
+     */
+    private Polygon(Polygon polygon) {
+        List<Vertex> source = polygon.vertices;
+        int numVertices = source.size();
+        this.vertices = new ArrayList<>(numVertices);
+        for (int i = numVertices - 1; i >= 0; i--) {
+            this.vertices.add(source.get(i).flipped());
+        }
+        this.shared = polygon.shared;
+        this._csg_plane = polygon._csg_plane.copy();
+        this._csg_plane.flip();
+        this.valid = polygon.valid;
+        this.inverseOf = polygon;
+        this.centroid = polygon.centroid;
+        this.aabb = polygon.aabb;
+    }
+
     /**
      * Constructor. Creates a new polygon that consists of the specified
      * vertices.
@@ -196,29 +286,89 @@ public final class Polygon {
 
     @Override
     public Polygon clone() {
-        List<Vertex> newVertices = new ArrayList<>();
+        List<Vertex> newVertices = new ArrayList<>(vertices.size());
         this.vertices.forEach((vertex) -> {
             newVertices.add(vertex.clone());
         });
-        return new Polygon(newVertices, getStorage());
+        Polygon result = new Polygon(newVertices, this);
+        result.centroid = centroid;
+        result.aabb = aabb;
+        result.fingerprint = fingerprint;
+        return result;
+    }
+
+    /**
+     * Returns a copy of this polygon that shares the vertices with this
+     * polygon. In contrast to {@link #clone()} the vertices are not copied
+     * here; the in-place methods ({@link #flip()},
+     * {@link #translate(Vector3d)}, {@link #transform(Transform)}) copy them
+     * before they are modified. The property storage is shared as well, it is
+     * not created if this polygon has none (see {@link #peekStorage()}).
+     *
+     * @return a copy of this polygon
+     */
+    Polygon copy() {
+        Polygon result = new Polygon(
+                new ArrayList<>(vertices), _csg_plane.copy(), valid);
+        result.shared = shared;
+        result.plane = plane;
+        result.centroid = centroid;
+        result.aabb = aabb;
+        result.fingerprint = fingerprint;
+        return result;
     }
 
     /**
      * Flips this polygon.
      *
+     * <b>Note:</b> the vertices of this polygon are replaced by flipped
+     * copies, i.e., polygons that share vertices with this polygon (e.g.,
+     * the operands or results of CSG operations) are not modified.
+     *
      * @return this polygon
      */
     public Polygon flip() {
+        detach();
+        return flipVertices();
+    }
+
+    /**
+     * Flips the vertices of this polygon in place.
+     *
+     * @return this polygon
+     */
+    private Polygon flipVertices() {
         vertices.forEach((vertex) -> {
             vertex.flip();
         });
         Collections.reverse(vertices);
 
         _csg_plane.flip();
+        plane = null;
+        inverseOf = null;
+        fingerprint = null;
 
         return this;
     }
 
+    /**
+     * Returns the inverse of this polygon, i.e., a polygon with reversed
+     * orientation. Inverting the inverse returns this polygon again, so
+     * inverting a BSP tree twice does not allocate new polygons for the
+     * polygons that have not been split in between.
+     *
+     * <b>Note:</b> neither this polygon nor its vertices are modified. The
+     * inverse must not be modified in place either.
+     *
+     * @return the inverse of this polygon
+     */
+    Polygon inverse() {
+        if (inverseOf != null) {
+            return inverseOf;
+        }
+        return new Polygon(this);
+    }
+
     /**
      * Returns a flipped copy of this polygon.
      *
@@ -227,7 +377,7 @@ public final class Polygon {
      * @return a flipped copy of this polygon
      */
     public Polygon flipped() {
-        return clone().flip();
+        return clone().flipVertices();
     }
 
     /**
@@ -308,10 +458,25 @@ public final class Polygon {
     /**
      * Translates this polygon.
      *
+     * <b>Note:</b> the vertices of this polygon are replaced by translated
+     * copies, i.e., polygons that share vertices with this polygon (e.g.,
+     * the operands or results of CSG operations) are not modified.
+     *
      * @param v the vector that defines the translation
      * @return this polygon
      */
     public Polygon translate(Vector3d v) {
+        detach();
+        return translateVertices(v);
+    }
+
+    /**
+     * Translates the vertices of this polygon in place.
+     *
+     * @param v the vector that defines the translation
+     * @return this polygon
+     */
+    private Polygon translateVertices(Vector3d v) {
         vertices.forEach((vertex) -> {
             vertex.pos = vertex.pos.plus(v);
         });
@@ -323,8 +488,11 @@ public final class Polygon {
         // TODO plane update correct?
         this._csg_plane.normal = b.minus(a).crossed(c.minus(a));
 
-        this.plane = eu.mihosoft.vvecmath.Plane.
-                fromPointAndNormal(centroid(), _csg_plane.normal);
+        this.plane = null;
+        this.centroid = null;
+        this.inverseOf = null;
+        this.aabb = null;
+        this.fingerprint = null;
 
         return this;
     }
@@ -339,7 +507,7 @@ public final class Polygon {
      * @return a translated copy of this polygon
      */
     public Polygon translated(Vector3d v) {
-        return clone().translate(v);
+        return clone().translateVertices(v);
     }
 
     /**
@@ -348,11 +516,28 @@ public final class Polygon {
      * <b>Note:</b> if the applied transformation performs a mirror operation
      * the vertex order of this polygon is reversed.
      *
+     * <b>Note:</b> the vertices of this polygon are replaced by transformed
+     * copies, i.e., polygons that share vertices with this polygon (e.g.,
+     * the operands or results of CSG operations) are not modified.
+     *
      * @param transform the transformation to apply
      *
      * @return this polygon
      */
     public Polygon transform(Transform transform) {
+        detach();
+        return transformVertices(transform);
+    }
+
+    /**
+     * Applies the specified transformation to the vertices of this polygon
+     * in place.
+     *
+     * @param transform the transformation to apply
+     *
+     * @return this polygon
+     */
+    private Polygon transformVertices(Transform transform) {
 
         this.vertices.stream().forEach(
                 (v) -> {
@@ -367,16 +552,19 @@ public final class Polygon {
         this._csg_plane.normal = b.minus(a).crossed(c.minus(a)).normalized();
         this._csg_plane.dist = this._csg_plane.normal.dot(a);
 
-        this.plane = eu.mihosoft.vvecmath.Plane.
-                fromPointAndNormal(centroid(), _csg_plane.normal);
+        this.plane = null;
+        this.centroid = null;
+        this.inverseOf = null;
+        this.aabb = null;
+        this.fingerprint = null;
 
         vertices.forEach((vertex) -> {
-            vertex.normal = plane.getNormal();
+            vertex.normal = getPlane().getNormal();
         });
 
         if (transform.isMirror()) {
             // the transformation includes mirroring. flip polygon
-            flip();
+            flipVertices();
 
         }
         return this;
@@ -394,7 +582,17 @@ public final class Polygon {
      * @return a transformed copy of this polygon
      */
     public Polygon transformed(Transform transform) {
-        return clone().transform(transform);
+        return clone().transformVertices(transform);
+    }
+
+    /**
+     * Replaces the vertices of this polygon by copies before they are
+     * modified in place. Vertices may be shared by several polygons since the
+     * results of CSG operations share them with their operands. The vertex
+     * list and the plane are never shared.
+     */
+    private void detach() {
+        vertices.replaceAll(Vertex::clone);
     }
 
     /**
@@ -467,53 +665,68 @@ public final class Polygon {
      * @return bouds of this polygon
      */
     public Bounds getBounds() {
-        double minX = Double.POSITIVE_INFINITY;
-        double minY = Double.POSITIVE_INFINITY;
-        double minZ = Double.POSITIVE_INFINITY;
-
-        double maxX = Double.NEGATIVE_INFINITY;
-        double maxY = Double.NEGATIVE_INFINITY;
-        double maxZ = Double.NEGATIVE_INFINITY;
+        return getAabb().toBounds();
+    }
 
-        for (int i = 0; i < vertices.size(); i++) {
+    /**
+     * Returns the bounding box of this polygon. The box is computed on first
+     * use and cached until this polygon is modified by one of its methods.
+     *
+     * @return bounding box of this polygon
+     */
+    Aabb getAabb() {
+        Aabb result = aabb;
+        if (result == null) {
+            result = Aabb.of(vertices);
+            aabb = result;
+        }
+        return result;
+    }
 
-            Vertex vert = vertices.get(i);
+    /**
+     * Returns the centroid of this polygon. The centroid is computed on first
+     * use and cached until this polygon is modified by one of its methods.
+     *
+     * @return centroid of this polygon
+     */
+    public Vector3d centroid() {
+        Vector3d result = centroid;
 
-            if (vert.pos.x() < minX) {
-                minX = vert.pos.x();
-            }
-            if (vert.pos.y() < minY) {
-                minY = vert.pos.y();
-            }
-            if (vert.pos.z() < minZ) {
-                minZ = vert.pos.z();
-            }
+        if (result == null) {
+            double x = 0;
+            double y = 0;
+            double z = 0;
 
-            if (vert.pos.x() > maxX) {
-                maxX = vert.pos.x();
-            }
-            if (vert.pos.y() > maxY) {
-                maxY = vert.pos.y();
-            }
-            if (vert.pos.z() > maxZ) {
-                maxZ = vert.pos.z();
+            for (Vertex v : vertices) {
+                x += v.pos.x();
+                y += v.pos.y();
+                z += v.pos.z();
             }
 
-        } // end for vertices
+            double n = vertices.size();
+            result = Vector3d.xyz(x / n, y / n, z / n);
+            centroid = result;
+        }
 
-        return new Bounds(
-                Vector3d.xyz(minX, minY, minZ),
-                Vector3d.xyz(maxX, maxY, maxZ));
+        return result;
     }
 
-    public Vector3d centroid() {
-        Vector3d sum = Vector3d.zero();
+    /**
+     * Returns the geometric fingerprint of this polygon (see
+     * {@link Fingerprint}). The fingerprint is computed on first use and
+     * cached until this polygon is modified by one of its methods.
+     *
+     * @return fingerprint of this polygon
+     */
+    public Fingerprint fingerprint() {
+        Fingerprint result = fingerprint;
 
-        for (Vertex v : vertices) {
-            sum = sum.plus(v.pos);
+        if (result == null) {
+            result = Fingerprint.of(vertices);
+            fingerprint = result;
         }
 
-        return sum.times(1.0 / vertices.size());
+        return result;
     }
 
     /**
@@ -526,7 +739,7 @@ public final class Polygon {
     public boolean contains(Vector3d p) {
 
         // P not on the plane
-        if (plane.distance(p) > Plane.EPSILON) {
+        if (getPlane().distance(p) > Plane.EPSILON) {
             return false;
         }
 
@@ -562,7 +775,7 @@ public final class Polygon {
         int coordIndex2 = 1;
 
         boolean orthogonalToXY = Math.abs(eu.mihosoft.vvecmath.Plane.XY_PLANE.getNormal()
-                .dot(plane.getNormal())) < Plane.EPSILON;
+                .dot(getPlane().getNormal())) < Plane.EPSILON;
 
         boolean foundProjectionPlane = false;
         if (!orthogonalToXY && !foundProjectionPlane) {
@@ -572,7 +785,7 @@ public final class Polygon {
         }
 
         boolean orthogonalToXZ = Math.abs(eu.mihosoft.vvecmath.Plane.XZ_PLANE.getNormal()
-                .dot(plane.getNormal())) < Plane.EPSILON;
+                .dot(getPlane().getNormal())) < Plane.EPSILON;
 
         if (!orthogonalToXZ && !foundProjectionPlane) {
             coordIndex1 = 0;
@@ -581,7 +794,7 @@ public final class Polygon {
         }
 
         boolean orthogonalToYZ = Math.abs(eu.mihosoft.vvecmath.Plane.YZ_PLANE.getNormal()
-                .dot(plane.getNormal())) < Plane.EPSILON;
+                .dot(getPlane().getNormal())) < Plane.EPSILON;
 
         if (!orthogonalToYZ && !foundProjectionPlane) {
             coordIndex1 = 1;
@@ -614,7 +827,7 @@ public final class Polygon {
 
     @Deprecated
     public boolean intersects(Polygon p) {
-        if (!getBounds().intersects(p.getBounds())) {
+        if (!getAabb().intersects(p.getAabb())) {
             return false;
         }
 
@@ -742,6 +955,16 @@ public final class Polygon {
 //
 ////        return result;
 //    }
+    /**
+     * Returns the shared property storage of this polygon. In contrast to
+     * {@link #getStorage()} no storage is created if this polygon has none.
+     *
+     * @return the shared property storage or {@code null}
+     */
+    PropertyStorage peekStorage() {
+        return shared;
+    }
+
     /**
      * @return the shared
      */
@@ -0,0 +1,473 @@
+/**
+ * PolygonBvh.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Vector3d;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the polygons of a csg. Each node stores the axis aligned bounding
+ * box of its polygons. Leaves store up to {@link #LEAF_SIZE} polygons.
+ *
+ * <p>The hierarchy is used to find the polygons of one csg that may touch the surface of another
+ * csg (see {@link #intersects(Polygon)}, {@link #overlapping(Aabb, IntList)}) and the polygons that
+ * may be hit by a ray (see {@link #raycast(Vector3d, Vector3d, IntList)}). All boxes are enlarged
+ * by {@link Plane#EPSILON}, i.e., polygons that touch within the tolerance of the BSP algorithm are
+ * reported as intersecting.
+ *
+ * <p>A hierarchy can also be built over arbitrary boxes (see {@link #of(List)}), e.g., the bounds of
+ * the operands of a batch operation.
+ */
+final class PolygonBvh {
+
+  /** Maximum number of polygons per leaf. */
+  static final int LEAF_SIZE = 4;
+
+  /** Polygon boxes (minX, minY, minZ, maxX, maxY, maxZ per polygon). */
+  private final double[] polygonBoxes;
+  /** Polygon indices, ordered such that each node references a contiguous range. */
+  private final int[] order;
+  /** Node boxes (minX, minY, minZ, maxX, maxY, maxZ per node). */
+  private final double[] nodeBoxes;
+  /** First child of each inner node, second child is {@code child + 1}. {@code -1} for leaves. */
+  private final int[] children;
+  /** First polygon (index into {@link #order}) of each node. */
+  private final int[] starts;
+  /** Number of polygons of each node. */
+  private final int[] counts;
+  /** Number of nodes. */
+  private int numNodes;
+
+  /**
+   * Constructor. Creates a hierarchy over the specified polygons.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @param polygons polygons
+   */
+  PolygonBvh(List<Polygon> polygons) {
+    this(computeBoxes(polygons));
+  }
+
+  /**
+   * Constructor. Creates a hierarchy over the specified boxes.
+   *
+   * @implNote This method uses loop instead of recursion
+   * @param boxes boxes (minX, minY, minZ, maxX, maxY, maxZ per box)
+   */
+  private PolygonBvh(double[] boxes) {
+    int numPolygons = boxes.length / 6;
+
+    polygonBoxes = boxes;
+    order = new int[numPolygons];
+
+    for (int i = 0; i < numPolygons; i++) {
+      order[i] = i;
+    }
+
+    int maxNodes = Math.max(1, 2 * numPolygons);
+    nodeBoxes = new double[maxNodes * 6];
+    children = new int[maxNodes];
+    starts = new int[maxNodes];
+    counts = new int[maxNodes];
+
+    int[] stack = new int[64];
+    int stackSize = 0;
+
+    addNode(0, numPolygons);
+    stack[stackSize++] = 0;
+
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+
+      int start = starts[node];
+      int count = counts[node];
+
+      if (count <= LEAF_SIZE) {
+        continue;
+      }
+
+      // split at the median of the box centers along the largest extent
+      int axis = largestAxis(node);
+      int mid = start + count / 2;
+      select(start, start + count - 1, mid, axis);
+
+      children[node] = addNode(start, mid - start);
+      addNode(mid, start + count - mid);
+
+      if (stackSize + 2 > stack.length) {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      }
+      stack[stackSize++] = children[node];
+      stack[stackSize++] = children[node] + 1;
+    }
+  }
+
+  /**
+   * Creates a hierarchy over the specified boxes. In contrast to polygon boxes, the boxes are not
+   * enlarged. The indices reported by {@link #overlapping(Aabb, IntList)} refer to the specified
+   * list.
+   *
+   * @param boxes boxes
+   * @return a hierarchy over the specified boxes
+   */
+  static PolygonBvh of(List<Aabb> boxes) {
+    double[] result = new double[boxes.size() * 6];
+
+    for (int i = 0; i < boxes.size(); i++) {
+      Aabb box = boxes.get(i);
+      int offset = i * 6;
+      result[offset] = box.minX;
+      result[offset + 1] = box.minY;
+      result[offset + 2] = box.minZ;
+      result[offset + 3] = box.maxX;
+      result[offset + 4] = box.maxY;
+      result[offset + 5] = box.maxZ;
+    }
+
+    return new PolygonBvh(result);
+  }
+
+  /**
+   * Indicates whether the bounding box of the specified polygon intersects the bounding box of a
+   * polygon of this hierarchy.
+   *
+   * @param polygon polygon to check
+   * @return {@code true} if the polygon may touch the polygons of this hierarchy; {@code false}
+   *     otherwise
+   */
+  boolean intersects(Polygon polygon) {
+    if (order.length == 0) {
+      return false;
+    }
+
+    double[] box = new double[6];
+    computeBox(polygon, box, 0);
+
+    int[] stack = new int[64];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+
+      if (!overlaps(box, 0, nodeBoxes, node * 6)) {
+        continue;
+      }
+
+      if (children[node] < 0) {
+        for (int i = starts[node]; i < starts[node] + counts[node]; i++) {
+          if (overlaps(box, 0, polygonBoxes, order[i] * 6)) {
+            return true;
+          }
+        }
+      } else {
+        if (stackSize + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = children[node];
+        stack[stackSize++] = children[node] + 1;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Finds the polygons of this hierarchy whose bounding boxes intersect the specified box.
+   *
+   * @param box box to check
+   * @param result indices of the polygons (output, in the order of the polygon list)
+   */
+  void overlapping(Aabb box, IntList result) {
+    if (order.length == 0) {
+      return;
+    }
+
+    double[] b = {box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ};
+
+    int[] stack = new int[64];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+
+      if (!overlaps(b, 0, nodeBoxes, node * 6)) {
+        continue;
+      }
+
+      if (children[node] < 0) {
+        for (int i = starts[node]; i < starts[node] + counts[node]; i++) {
+          if (overlaps(b, 0, polygonBoxes, order[i] * 6)) {
+            result.add(order[i]);
+          }
+        }
+      } else {
+        if (stackSize + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = children[node];
+        stack[stackSize++] = children[node] + 1;
+      }
+    }
+  }
+
+  /**
+   * Finds the polygons of this hierarchy whose bounding boxes are hit by the specified ray.
+   * Intersections up to {@link Plane#EPSILON} behind the origin are included.
+   *
+   * @param origin origin of the ray
+   * @param direction direction of the ray
+   * @param result indices of the polygons (output)
+   */
+  void raycast(Vector3d origin, Vector3d direction, IntList result) {
+    if (order.length == 0) {
+      return;
+    }
+
+    double[] o = {origin.x(), origin.y(), origin.z()};
+    double[] inv = {1 / direction.x(), 1 / direction.y(), 1 / direction.z()};
+
+    int[] stack = new int[64];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+
+    while (stackSize > 0) {
+      int node = stack[--stackSize];
+
+      if (!hits(o, inv, nodeBoxes, node * 6)) {
+        continue;
+      }
+
+      if (children[node] < 0) {
+        for (int i = starts[node]; i < starts[node] + counts[node]; i++) {
+          if (hits(o, inv, polygonBoxes, order[i] * 6)) {
+            result.add(order[i]);
+          }
+        }
+      } else {
+        if (stackSize + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = children[node];
+        stack[stackSize++] = children[node] + 1;
+      }
+    }
+  }
+
+  /**
+   * Adds a node that references the specified range of polygons and computes its box.
+   *
+   * @param start first polygon (index into {@link #order})
+   * @param count number of polygons
+   * @return index of the new node
+   */
+  private int addNode(int start, int count) {
+    int node = numNodes++;
+
+    starts[node] = start;
+    counts[node] = count;
+    children[node] = -1;
+
+    int offset = node * 6;
+    for (int k = 0; k < 3; k++) {
+      nodeBoxes[offset + k] = Double.POSITIVE_INFINITY;
+      nodeBoxes[offset + 3 + k] = Double.NEGATIVE_INFINITY;
+    }
+
+    for (int i = start; i < start + count; i++) {
+      int p = order[i] * 6;
+      for (int k = 0; k < 3; k++) {
+        nodeBoxes[offset + k] = Math.min(nodeBoxes[offset + k], polygonBoxes[p + k]);
+        nodeBoxes[offset + 3 + k] = Math.max(nodeBoxes[offset + 3 + k], polygonBoxes[p + 3 + k]);
+      }
+    }
+
+    return node;
+  }
+
+  /**
+   * Returns the axis with the largest extent of the specified node.
+   *
+   * @param node node index
+   * @return axis index ({@code 0..2})
+   */
+  private int largestAxis(int node) {
+    int offset = node * 6;
+    int axis = 0;
+    for (int k = 1; k < 3; k++) {
+      if (nodeBoxes[offset + 3 + k] - nodeBoxes[offset + k]
+          > nodeBoxes[offset + 3 + axis] - nodeBoxes[offset + axis]) {
+        axis = k;
+      }
+    }
+    return axis;
+  }
+
+  /**
+   * Partially sorts the specified range of {@link #order} such that the element at {@code k} is
+   * the one that would be there if the range was sorted by the box centers along the specified
+   * axis (quickselect).
+   *
+   * @param left first index (inclusive)
+   * @param right last index (inclusive)
+   * @param k index to select
+   * @param axis axis
+   */
+  private void select(int left, int right, int k, int axis) {
+    while (right > left) {
+      double pivot = center(order[(left + right) >>> 1], axis);
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (center(order[i], axis) < pivot) {
+          i++;
+        }
+        while (center(order[j], axis) > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          int tmp = order[i];
+          order[i] = order[j];
+          order[j] = tmp;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the doubled box center of the specified polygon along the specified axis.
+   *
+   * @param polygon polygon index
+   * @param axis axis
+   * @return the doubled center (sufficient for comparisons)
+   */
+  private double center(int polygon, int axis) {
+    return polygonBoxes[polygon * 6 + axis] + polygonBoxes[polygon * 6 + 3 + axis];
+  }
+
+  /**
+   * Computes the bounding boxes of the specified polygons enlarged by {@link Plane#EPSILON}.
+   *
+   * @param polygons polygons
+   * @return boxes (minX, minY, minZ, maxX, maxY, maxZ per polygon)
+   */
+  private static double[] computeBoxes(List<Polygon> polygons) {
+    double[] boxes = new double[polygons.size() * 6];
+
+    for (int i = 0; i < polygons.size(); i++) {
+      computeBox(polygons.get(i), boxes, i * 6);
+    }
+
+    return boxes;
+  }
+
+  /**
+   * Computes the bounding box of the specified polygon enlarged by {@link Plane#EPSILON}.
+   *
+   * @param polygon polygon
+   * @param boxes box array
+   * @param offset offset of the box in the array
+   */
+  private static void computeBox(Polygon polygon, double[] boxes, int offset) {
+    Aabb box = polygon.getAabb();
+
+    boxes[offset] = box.minX - Plane.EPSILON;
+    boxes[offset + 1] = box.minY - Plane.EPSILON;
+    boxes[offset + 2] = box.minZ - Plane.EPSILON;
+    boxes[offset + 3] = box.maxX + Plane.EPSILON;
+    boxes[offset + 4] = box.maxY + Plane.EPSILON;
+    boxes[offset + 5] = box.maxZ + Plane.EPSILON;
+  }
+
+  /**
+   * Indicates whether a ray hits a box (slab test). Zero direction components are handled by the
+   * infinite inverse.
+   *
+   * @param origin origin of the ray
+   * @param inverseDirection component-wise inverse of the ray direction
+   * @param boxes box array
+   * @param offset offset of the box in the array
+   * @return {@code true} if the ray hits the box; {@code false} otherwise
+   */
+  private static boolean hits(
+      double[] origin, double[] inverseDirection, double[] boxes, int offset) {
+    double tMin = -Plane.EPSILON;
+    double tMax = Double.POSITIVE_INFINITY;
+    for (int k = 0; k < 3; k++) {
+      double t1 = (boxes[offset + k] - origin[k]) * inverseDirection[k];
+      double t2 = (boxes[offset + 3 + k] - origin[k]) * inverseDirection[k];
+      // NaN (origin on a slab boundary of a parallel ray) does not restrict the interval
+      if (t1 > t2) {
+        double tmp = t1;
+        t1 = t2;
+        t2 = tmp;
+      }
+      if (t1 > tMin) {
+        tMin = t1;
+      }
+      if (t2 < tMax) {
+        tMax = t2;
+      }
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Indicates whether two boxes overlap (check includes box boundary).
+   *
+   * @param a first box array
+   * @param offsetA offset of the first box
+   * @param b second box array
+   * @param offsetB offset of the second box
+   * @return {@code true} if the boxes overlap; {@code false} otherwise
+   */
+  private static boolean overlaps(double[] a, int offsetA, double[] b, int offsetB) {
+    for (int k = 0; k < 3; k++) {
+      if (a[offsetA + k] > b[offsetB + 3 + k] || a[offsetA + 3 + k] < b[offsetB + k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
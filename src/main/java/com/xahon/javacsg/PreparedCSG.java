@@ -0,0 +1,74 @@
+/**
+ * PreparedCSG.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+/**
+ * A csg whose BSP tree has been built in advance (see {@link CSG#prepare()}). Prepared csgs can be
+ * used as the second operand of {@link CSG#union(PreparedCSG)}, {@link
+ * CSG#difference(PreparedCSG)} and {@link CSG#intersect(PreparedCSG)} any number of times. Each
+ * operation works on a copy of the prepared tree, i.e., the tree is never modified and a prepared
+ * csg can be used by several threads at once.
+ */
+public final class PreparedCSG {
+
+  private final CSG csg;
+  private final Node tree;
+
+  /**
+   * Constructor.
+   *
+   * @param csg the prepared csg
+   * @param tree BSP tree of the prepared csg
+   */
+  PreparedCSG(CSG csg, Node tree) {
+    this.csg = csg;
+    // the tree is shared once, copying it does not modify it
+    this.tree = tree.share();
+  }
+
+  /** @return the csg this instance has been prepared from */
+  public CSG getCSG() {
+    return csg;
+  }
+
+  /**
+   * Returns a copy of the prepared BSP tree that may be modified by a CSG operation. The copy is
+   * created in constant time, it shares the branches of the prepared tree until it modifies them.
+   *
+   * @param metrics metrics of the operation
+   * @return a copy of the prepared BSP tree
+   */
+  Node newTree(OperationMetrics metrics) {
+    long start = metrics.start();
+    Node copy = tree.copy(metrics);
+    metrics.lap(OperationMetrics.Phase.CLONE, start);
+    return copy;
+  }
+}
@@ -33,6 +33,7 @@
  */
 package com.xahon.javacsg;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -58,6 +59,16 @@ public class PropertyStorage {
        randomColor(this);
     }
 
+    /**
+     * Constructor. Creates a property storage with the specified properties.
+     * In contrast to {@link #PropertyStorage()} no random color is assigned.
+     *
+     * @param properties properties
+     */
+    PropertyStorage(Map<String, ?> properties) {
+        map.putAll(properties);
+    }
+
     /**
      * Sets a property. Existing properties are overwritten.
      *
@@ -107,6 +118,32 @@ public class PropertyStorage {
         return map.containsKey(key);
     }
 
+    /**
+     * Returns a 64 bit hash of the properties of this storage. Storages with
+     * equal properties have equal hashes, property values are compared by
+     * their string representation.
+     *
+     * @return a hash of the properties of this storage
+     */
+    long contentHash() {
+        long hash = 0;
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            hash += Fingerprint.hash(entry.getKey() + "=" + entry.getValue());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the properties of this storage.
+     *
+     * @return an unmodifiable view of the properties of this storage
+     */
+    Map<String, Object> properties() {
+        return Collections.unmodifiableMap(map);
+    }
+
     static void randomColor(PropertyStorage storage) {
         Color c = colors[(int) (Math.random() * colors.length)];
 
@@ -36,6 +36,7 @@ import com.xahon.javacsg.ext.imagej.STLLoader;
 import eu.mihosoft.vvecmath.Vector3d;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -53,6 +54,8 @@ public class STL {
      * @throws IOException if loading failed
      */
     public static CSG file(Path path) throws IOException {
+        CSGEvents.Span span = CSGEvents.begin(
+                CSGEvents.Kind.STL_IMPORT, path.toString());
         STLLoader loader = new STLLoader();
         
         List<Polygon> polygons = new ArrayList<>();
@@ -65,6 +68,8 @@ public class STL {
             }
         }
         
+        span.end(span.isEnabled() ? Files.size(path) : 0, polygons.size());
+
         return CSG.fromPolygons(new PropertyStorage(),polygons);
     }
 }
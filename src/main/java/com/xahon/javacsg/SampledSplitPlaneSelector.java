@@ -0,0 +1,172 @@
+/**
+ * SampledSplitPlaneSelector.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.List;
+
+/**
+ * Split plane selector that evaluates the planes of a few candidate polygons against a sample of
+ * the polygons to partition and picks the cheapest one.
+ *
+ * <p>The cost of a candidate plane is {@code splitWeight * spanning + balanceWeight * |front -
+ * back|}, i.e., it penalizes polygons that would have to be split as well as unbalanced subtrees.
+ * Candidates and test polygons are picked with a fixed stride, so the resulting tree is
+ * deterministic.
+ */
+public final class SampledSplitPlaneSelector implements SplitPlaneSelector {
+
+  private final int maxCandidates;
+  private final int maxSamples;
+  private final int minPolygons;
+  private final double splitWeight;
+  private final double balanceWeight;
+
+  /** Constructor. Creates a selector with default parameters. */
+  public SampledSplitPlaneSelector() {
+    this(8, 64, 16, 8.0, 1.0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxCandidates maximum number of candidate planes to score
+   * @param maxSamples maximum number of polygons each candidate is tested against
+   * @param minPolygons polygon lists smaller than this use the first polygon
+   * @param splitWeight cost of a polygon that spans a candidate plane
+   * @param balanceWeight cost of the difference between front and back polygons
+   */
+  public SampledSplitPlaneSelector(
+      int maxCandidates, int maxSamples, int minPolygons, double splitWeight, double balanceWeight) {
+    if (maxCandidates < 1 || maxSamples < 1) {
+      throw new IllegalArgumentException(
+          "At least one candidate and one sample required, got: "
+              + maxCandidates
+              + ", "
+              + maxSamples);
+    }
+    this.maxCandidates = maxCandidates;
+    this.maxSamples = maxSamples;
+    this.minPolygons = minPolygons;
+    this.splitWeight = splitWeight;
+    this.balanceWeight = balanceWeight;
+  }
+
+  @Override
+  public int select(List<Polygon> polygons) {
+    int size = polygons.size();
+
+    if (size < minPolygons || size < 3) {
+      return 0;
+    }
+
+    int candidateStride = Math.max(1, size / maxCandidates);
+    int sampleStride = Math.max(1, size / maxSamples);
+
+    int best = 0;
+    double bestCost = Double.POSITIVE_INFINITY;
+
+    for (int c = 0, i = 0; c < size && i < maxCandidates; c += candidateStride, i++) {
+      Plane plane = polygons.get(c)._csg_plane;
+
+      int front = 0;
+      int back = 0;
+      int spanning = 0;
+
+      for (int s = 0, j = 0; s < size && j < maxSamples; s += sampleStride, j++) {
+        switch (plane.classify(polygons.get(s))) {
+          case Plane.FRONT:
+            front++;
+            break;
+          case Plane.BACK:
+            back++;
+            break;
+          case Plane.SPANNING:
+            spanning++;
+            break;
+          default:
+            break;
+        }
+      }
+
+      double cost = splitWeight * spanning + balanceWeight * Math.abs(front - back);
+
+      if (cost < bestCost) {
+        bestCost = cost;
+        best = c;
+        if (cost == 0) {
+          break;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SampledSplitPlaneSelector)) {
+      return false;
+    }
+    SampledSplitPlaneSelector other = (SampledSplitPlaneSelector) obj;
+    return maxCandidates == other.maxCandidates
+        && maxSamples == other.maxSamples
+        && minPolygons == other.minPolygons
+        && Double.compare(splitWeight, other.splitWeight) == 0
+        && Double.compare(balanceWeight, other.balanceWeight) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = Integer.hashCode(maxCandidates);
+    hash = 31 * hash + Integer.hashCode(maxSamples);
+    hash = 31 * hash + Integer.hashCode(minPolygons);
+    hash = 31 * hash + Double.hashCode(splitWeight);
+    hash = 31 * hash + Double.hashCode(balanceWeight);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "[maxCandidates: "
+        + maxCandidates
+        + ", maxSamples: "
+        + maxSamples
+        + ", minPolygons: "
+        + minPolygons
+        + ", splitWeight: "
+        + splitWeight
+        + ", balanceWeight: "
+        + balanceWeight
+        + "]";
+  }
+}
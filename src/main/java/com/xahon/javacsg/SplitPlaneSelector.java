@@ -0,0 +1,61 @@
+/**
+ * SplitPlaneSelector.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg;
+
+import java.util.List;
+
+/**
+ * Chooses the polygon whose plane is used to partition a set of polygons when a BSP tree is built.
+ *
+ * <p>The choice of the split plane determines the depth of the BSP tree and the number of polygons
+ * that have to be split while the tree is built and while polygons are clipped against it.
+ *
+ * @see CSG#setDefaultSplitPlaneSelector(SplitPlaneSelector)
+ */
+@FunctionalInterface
+public interface SplitPlaneSelector {
+
+  /** Always uses the plane of the first polygon (no heuristic is used to pick a good split). */
+  SplitPlaneSelector FIRST_POLYGON = polygons -> 0;
+
+  /**
+   * Default selector. Scores a sample of candidate planes and falls back to {@link #FIRST_POLYGON}
+   * for small polygon lists.
+   */
+  SplitPlaneSelector SAMPLED = new SampledSplitPlaneSelector();
+
+  /**
+   * Returns the index of the polygon whose plane shall be used to partition the specified polygons.
+   *
+   * @param polygons polygons to partition (never empty)
+   * @return index of the splitting polygon
+   */
+  int select(List<Polygon> polygons);
+}
@@ -88,11 +88,25 @@ public class Vertex {
 
     /**
      * Inverts all orientation-specific data. (e.g. vertex normal).
+     *
+     * <b>Note:</b> vertices may be shared by several polygons, e.g., by the
+     * operands and the result of a CSG operation. Use
+     * {@link Polygon#flip()} to flip the vertices of a single polygon.
      */
     public void flip() {
         normal = normal.negated();
     }
 
+    /**
+     * Returns a copy of this vertex with inverted orientation-specific data.
+     * The position is shared with this vertex.
+     *
+     * @return a flipped copy of this vertex
+     */
+    Vertex flipped() {
+        return new Vertex(pos, normal.negated(), weight);
+    }
+
     /**
      * Create a new vertex between this vertex and the specified vertex by
      * linearly interpolating all properties using a parameter t.
@@ -149,6 +163,11 @@ public class Vertex {
     /**
      * Applies the specified transform to this vertex.
      *
+     * <b>Note:</b> vertices may be shared by several polygons, e.g., by the
+     * operands and the result of a CSG operation. Use
+     * {@link Polygon#transform(Transform)} to transform the vertices of a
+     * single polygon.
+     *
      * @param transform the transform to apply
      * @return this vertex
      */
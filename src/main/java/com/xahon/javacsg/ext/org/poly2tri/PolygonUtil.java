@@ -33,6 +33,7 @@
  */
 package com.xahon.javacsg.ext.org.poly2tri;
 
+import com.xahon.javacsg.CSGEvents;
 import com.xahon.javacsg.Edge;
 import com.xahon.javacsg.Polygon;
 import com.xahon.javacsg.Extrude;
@@ -89,9 +90,12 @@ public class PolygonUtil {
     public static List<Polygon> concaveToConvex(
             Polygon concave) {
 
+        CSGEvents.Span span = CSGEvents.begin(
+                CSGEvents.Kind.TRIANGULATION, null);
+
         List<Polygon> result = new ArrayList<>();
 
-        Vector3d normal = concave.vertices.get(0).normal.clone();
+        Vector3d normal = concave.getPlane().getNormal().clone();
 
         boolean cw = !Extrude.isCCW(concave);
 
@@ -130,6 +134,8 @@ public class PolygonUtil {
             }
         }
 
+        span.end(concave.vertices.size(), result.size());
+
         return result;
     }
 }
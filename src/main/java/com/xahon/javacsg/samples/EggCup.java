@@ -25,7 +25,7 @@ public class EggCup {
         FileUtil.write(Paths.get("eggcup.stl"), new EggCup().toCSG().toStlString());
     }
 
-    private CSG toCSG() {
+    CSG toCSG() {
         
         CSG.setDefaultOptType(CSG.OptType.POLYGON_BOUND);
         CSG egg = new Egg().toCSG();
@@ -32,7 +32,7 @@ public class FractalStructureBeam2D {
 
     }
 
-    private CSG toCSG() {
+    CSG toCSG() {
         return createBeam(5, Vector3d.xy(0, 0), Vector3d.xy(10, 0), 2);
     }
 
@@ -31,7 +31,7 @@ public class QuadrocopterLadingGears {
 
     }
 
-    private CSG toCSG() {
+    CSG toCSG() {
 
         double armThickness = 18;
         double armShrinkFactor = 0.640;
@@ -34,7 +34,7 @@ public class QuadrocopterLadingGearsAndHolders {
 
     }
 
-    private CSG toCSG() {
+    CSG toCSG() {
 
         double armThickness = 18;
         double armShrinkFactor = 0.640;
@@ -34,7 +34,7 @@ public class QuadrocopterPlatform {
     }
     
     
-    private CSG toCSG() {
+    CSG toCSG() {
 
         double platformRadius = 84;
         double platformThickness = 3;
@@ -0,0 +1,418 @@
+/**
+ * SampleBenchmark.java
+ *
+ * <p>Copyright 2014-2014 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * <p>1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * <p>2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY Michael Hoffer <info@michaelhoffer.de> "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Michael Hoffer
+ * <info@michaelhoffer.de> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ *
+ * <p>The views and conclusions contained in the software and documentation are those of the authors
+ * and should not be interpreted as representing official policies, either expressed or implied, of
+ * Michael Hoffer <info@michaelhoffer.de>.
+ */
+package com.xahon.javacsg.samples;
+
+import com.xahon.javacsg.CSG;
+import com.xahon.javacsg.CSGListener;
+import com.xahon.javacsg.OperationMetrics;
+import eu.mihosoft.vvecmath.Vector3d;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless macro benchmark that evaluates the samples of this package.
+ *
+ * <p>
+ * Each sample is evaluated a number of times after warm-up runs. For each
+ * sample the wall time (min, median, max), the peak heap usage, the number of
+ * boolean operations and their input polygons (reported by a
+ * {@link CSGListener}), the number of polygons of the result and the size of
+ * its STL representation are recorded.
+ * The results are written as JSON and/or CSV report. If a baseline report is
+ * specified, the median times are compared with the baseline and the runner
+ * exits with status {@code 1} if a sample is slower than the baseline by more
+ * than the threshold or if a sample fails.
+ *
+ * <p>
+ * Usage (all arguments are optional):
+ *
+ * <pre>
+ * SampleBenchmark [--samples Hinge,Egg,...] [--warmup 1] [--runs 3]
+ *                 [--json report.json] [--csv report.csv]
+ *                 [--baseline baseline.json] [--threshold 0.2]
+ * </pre>
+ */
+public class SampleBenchmark {
+
+    private static final Map<String, Callable<CSG>> SAMPLES = new LinkedHashMap<>();
+
+    static {
+        SAMPLES.put("ArduinoMount", () -> new ArduinoMount().toCSG());
+        SAMPLES.put("BatteryHolder", () -> new BatteryHolder().toCSG());
+        SAMPLES.put("BraceletGenerator", () -> BraceletGenerator.toCSG());
+        SAMPLES.put("BreadBoardConnector", () -> new BreadBoardConnector().toCSG());
+        SAMPLES.put("EdgeTest", () -> new EdgeTest().toCSG(true));
+        SAMPLES.put("Egg", () -> new Egg().toCSG());
+        SAMPLES.put("EggCup", () -> new EggCup().toCSG());
+        SAMPLES.put("FractalStructure", () -> new FractalStructure(
+                Vector3d.ZERO, Vector3d.Z_ONE, 4, 15, 2,
+                Vector3d.X_ONE, Vector3d.Y_ONE).toCSG());
+        SAMPLES.put("FractalStructureBeam2D", () -> new FractalStructureBeam2D().toCSG());
+        SAMPLES.put("HexaMail", () -> new HexaMail().toCSG(6, 3, 3));
+        SAMPLES.put("Hinge", () -> new Hinge().toCSG());
+        SAMPLES.put("LeapMotionCase", () -> new LeapMotionCase().toCSG());
+        SAMPLES.put("MicroSDCard", () -> new MicroSDCard().toCSG());
+        SAMPLES.put("MoebiusStairs", () -> new MoebiusStairs().toCSG());
+        SAMPLES.put("Moebiusband", () -> new Moebiusband().toCSG());
+        SAMPLES.put("Naze32Holder", () -> new Naze32Holder().toCSG());
+        SAMPLES.put("PlaneWithHoles", () -> new PlaneWithHoles().toCSG());
+        SAMPLES.put("PolyMailTile",
+                () -> new PolyMailTile().setNumEdges(6).setCombined().toCSG());
+        SAMPLES.put("QuadrocopterArm", () -> new QuadrocopterArm().toCSG());
+        SAMPLES.put("QuadrocopterArmHolder",
+                () -> new QuadrocopterArmHolder().toCSG(18, 0.5, 18, 4, 20, 3));
+        SAMPLES.put("QuadrocopterBottom", () -> new QuadrocopterBottom().toCSG());
+        SAMPLES.put("QuadrocopterCross", () -> new QuadrocopterCross().toCSG2());
+        SAMPLES.put("QuadrocopterLadingGears", () -> new QuadrocopterLadingGears().toCSG());
+        SAMPLES.put("QuadrocopterLadingGearsAndHolders",
+                () -> new QuadrocopterLadingGearsAndHolders().toCSG());
+        SAMPLES.put("QuadrocopterPlatform", () -> new QuadrocopterPlatform().toCSG());
+        SAMPLES.put("RaspberryArduinoConnector", () -> new RaspberryArduinoConnector().toCSG());
+        SAMPLES.put("RaspberryPiBPlusMount", () -> RaspberryPiBPlusMount.boardAndPegs());
+        SAMPLES.put("RaspberryPiMount", () -> RaspberryPiMount.boardAndPegs());
+        SAMPLES.put("RoundedCubeSample", () -> new RoundedCubeSample().toCSG());
+        SAMPLES.put("Sabine", () -> new Sabine().toCSG());
+        SAMPLES.put("ServoHead", () -> new ServoHead().servoHeadFemale()
+                .dumbUnion(new ServoHead().servoHeadMale()));
+        SAMPLES.put("ServoMount", () -> new ServoMount().toCSG());
+        SAMPLES.put("ServoMountPixy", () -> new ServoMountPixy().toCSG());
+        SAMPLES.put("ServoToServoConnector", () -> new ServoToServoConnector().toCSG());
+        SAMPLES.put("ServoWheel", () -> new ServoWheel().toCSG());
+        SAMPLES.put("Spheres", () -> new Spheres().toCSG());
+        SAMPLES.put("SquareMail", () -> new SquareMail().toCSG(12, 4));
+        SAMPLES.put("SurfacePro2PenHolder", () -> new SurfacePro2PenHolder().toCSG());
+        SAMPLES.put("TriMail", () -> new TriMail().toCSG(3, 3, 3));
+        SAMPLES.put("WeightedSphere", () -> new WeightedSphere().toCSG());
+        SAMPLES.put("WeightedTubeSample", () -> new WeightedTubeSample().toCSG());
+    }
+
+    /**
+     * Measurements of one sample.
+     */
+    static final class Result {
+
+        final String name;
+        String error;
+        double minMillis;
+        double medianMillis;
+        double maxMillis;
+        long peakHeapBytes;
+        long operations;
+        long inputPolygons;
+        int polygons;
+        long stlBytes;
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        List<String> names = new ArrayList<>(SAMPLES.keySet());
+        int warmup = 1;
+        int runs = 3;
+        Path json = null;
+        Path csv = null;
+        Path baseline = null;
+        double threshold = 0.2;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--samples":
+                    names = Arrays.asList(value.split(","));
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                case "--json":
+                    json = Paths.get(value);
+                    break;
+                case "--csv":
+                    csv = Paths.get(value);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(value);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+            i++;
+        }
+
+        if (runs < 1) {
+            throw new IllegalArgumentException("At least one run expected, got: " + runs);
+        }
+
+        List<Result> results = new ArrayList<>();
+
+        for (String name : names) {
+            Callable<CSG> sample = SAMPLES.get(name);
+            if (sample == null) {
+                throw new IllegalArgumentException("Unknown sample: " + name
+                        + ", available samples: " + SAMPLES.keySet());
+            }
+            Result result = run(name, sample, warmup, runs);
+            System.out.println(format(result));
+            results.add(result);
+        }
+
+        if (json != null) {
+            write(json, toJson(results));
+        }
+
+        if (csv != null) {
+            write(csv, toCsv(results));
+        }
+
+        boolean failed = false;
+
+        for (Result r : results) {
+            if (r.error != null) {
+                System.err.println("FAILED: " + r.name + ": " + r.error);
+                failed = true;
+            }
+        }
+
+        if (baseline != null) {
+            Map<String, Double> baselineTimes = readMedianMillis(baseline);
+            for (Result r : results) {
+                Double base = baselineTimes.get(r.name);
+                if (r.error == null && base != null
+                        && r.medianMillis > base * (1 + threshold)) {
+                    System.err.println(String.format(Locale.US,
+                            "REGRESSION: %s: %.1f ms, baseline %.1f ms (%+.0f%%, threshold %.0f%%)",
+                            r.name, r.medianMillis, base,
+                            (r.medianMillis / base - 1) * 100, threshold * 100));
+                    failed = true;
+                }
+            }
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Evaluates the specified sample.
+     *
+     * @param name sample name
+     * @param sample sample
+     * @param warmup number of warm-up runs
+     * @param runs number of measured runs
+     * @return the measurements
+     */
+    static Result run(String name, Callable<CSG> sample, int warmup, int runs) {
+        Result result = new Result(name);
+
+        // operations may be executed by several threads
+        LongAdder operations = new LongAdder();
+        LongAdder inputPolygons = new LongAdder();
+        CSGListener listener = (OperationMetrics m) -> {
+            operations.increment();
+            inputPolygons.add(m.getInputPolygons() + m.getOperandPolygons());
+        };
+
+        // several samples print debug output, it is discarded while measuring
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        try {
+            for (int i = 0; i < warmup; i++) {
+                sample.call();
+            }
+
+            double[] millis = new double[runs];
+            CSG csg = null;
+
+            for (int i = 0; i < runs; i++) {
+                System.gc();
+                resetPeakHeap();
+                operations.reset();
+                inputPolygons.reset();
+                CSG.setDefaultListener(listener);
+                long start = System.nanoTime();
+                csg = sample.call();
+                millis[i] = (System.nanoTime() - start) / 1e6;
+                CSG.setDefaultListener(null);
+                result.peakHeapBytes = Math.max(result.peakHeapBytes, peakHeap());
+            }
+
+            Arrays.sort(millis);
+            result.minMillis = millis[0];
+            result.maxMillis = millis[runs - 1];
+            result.medianMillis = runs % 2 == 1
+                    ? millis[runs / 2]
+                    : (millis[runs / 2 - 1] + millis[runs / 2]) / 2;
+            result.operations = operations.sum();
+            result.inputPolygons = inputPolygons.sum();
+            result.polygons = csg.getPolygons().size();
+            result.stlBytes = csg.toStlString().length();
+        } catch (Exception | StackOverflowError ex) {
+            result.error = ex.toString();
+        } finally {
+            CSG.setDefaultListener(null);
+            System.setOut(out);
+        }
+
+        return result;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static String format(Result r) {
+        if (r.error != null) {
+            return String.format("%-34s FAILED: %s", r.name, r.error);
+        }
+        return String.format(Locale.US,
+                "%-34s median %10.1f ms  min %10.1f ms  heap %6d MB  ops %5d  "
+                + "polygons in %9d  out %7d  stl %9d bytes",
+                r.name, r.medianMillis, r.minMillis, r.peakHeapBytes >> 20,
+                r.operations, r.inputPolygons, r.polygons, r.stlBytes);
+    }
+
+    /**
+     * Converts the specified results to JSON. Each sample is written to a
+     * separate line (see {@link #readMedianMillis(Path)}).
+     */
+    static String toJson(List<Result> results) {
+        StringBuilder sb = new StringBuilder("{\"samples\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append("  {\"name\": \"").append(r.name).append('"');
+            if (r.error != null) {
+                sb.append(", \"error\": \"").append(r.error
+                        .replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else {
+                sb.append(String.format(Locale.US,
+                        ", \"minMillis\": %.3f, \"medianMillis\": %.3f, \"maxMillis\": %.3f"
+                        + ", \"peakHeapBytes\": %d, \"operations\": %d"
+                        + ", \"inputPolygons\": %d, \"polygons\": %d, \"stlBytes\": %d",
+                        r.minMillis, r.medianMillis, r.maxMillis, r.peakHeapBytes,
+                        r.operations, r.inputPolygons, r.polygons, r.stlBytes));
+            }
+            sb.append(i + 1 < results.size() ? "},\n" : "}\n");
+        }
+        return sb.append("]}\n").toString();
+    }
+
+    static String toCsv(List<Result> results) {
+        StringBuilder sb = new StringBuilder(
+                "name,minMillis,medianMillis,maxMillis,peakHeapBytes,operations,"
+                + "inputPolygons,polygons,stlBytes,error\n");
+        for (Result r : results) {
+            sb.append(String.format(Locale.US, "%s,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%s\n",
+                    r.name, r.minMillis, r.medianMillis, r.maxMillis,
+                    r.peakHeapBytes, r.operations, r.inputPolygons,
+                    r.polygons, r.stlBytes,
+                    r.error != null ? "\"" + r.error.replace("\"", "\"\"") + "\"" : ""));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the median times of a report written by this class.
+     *
+     * @param report report file (JSON)
+     * @return median time by sample name
+     * @throws IOException if the report cannot be read
+     */
+    static Map<String, Double> readMedianMillis(Path report) throws IOException {
+        Pattern pattern = Pattern.compile(
+                "\"name\": \"([^\"]+)\".*\"medianMillis\": ([-0-9.eE]+)");
+        Map<String, Double> result = new HashMap<>();
+        for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+            Matcher m = pattern.matcher(line);
+            if (m.find()) {
+                result.put(m.group(1), Double.parseDouble(m.group(2)));
+            }
+        }
+        return result;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
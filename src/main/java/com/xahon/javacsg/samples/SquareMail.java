@@ -19,7 +19,7 @@ import java.nio.file.Paths;
  */
 public class SquareMail {
 
-    private CSG toCSG(int numX, int numY) {
+    CSG toCSG(int numX, int numY) {
 
 //        CSG.setDefaultOptType(CSG.OptType.POLYGON_BOUND);
         double w = 10;
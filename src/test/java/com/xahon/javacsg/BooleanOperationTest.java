@@ -0,0 +1,968 @@
+package com.xahon.javacsg;
+
+import eu.mihosoft.vvecmath.Transform;
+import eu.mihosoft.vvecmath.Vector3d;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javafx.scene.paint.Color;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the volume of boolean operations on simple primitives.
+ */
+public class BooleanOperationTest {
+
+    private static final double TOL = 1e-6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitPlaneSelectorTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+
+        double cubeVolume = volume(cube);
+        double sphereVolume = volume(sphere);
+
+        for (SplitPlaneSelector selector : new SplitPlaneSelector[]{
+            SplitPlaneSelector.FIRST_POLYGON,
+            SplitPlaneSelector.SAMPLED,
+            new SampledSplitPlaneSelector(2, 4, 0, 1.0, 1.0)}) {
+
+            CSG a = cube.clone().splitPlaneSelector(selector);
+
+            double union = volume(a.union(sphere));
+            double difference = volume(a.difference(sphere));
+            double intersection = volume(a.intersect(sphere));
+
+            assertVolume(cubeVolume + sphereVolume - intersection, union);
+            assertVolume(cubeVolume - intersection, difference);
+        }
+    }
+
+    @Test
+    public void parallelBuildTest() {
+        CSG sphere = new Sphere(1.25, 64, 32).toCSG();
+        CSG holes = new Cube(0.5).toCSG();
+        for (int i = 0; i < 4; i++) {
+            holes = holes.union(new Cylinder(0.2, 3, 128).toCSG().transformed(
+                    Transform.unity().translate(-0.5 + 0.3 * i, 0, -1.5)));
+        }
+
+        // both trees are built by parallel tasks
+        assertTrue(sphere.getPolygons().size()
+                >= Node.PARALLEL_BUILD_THRESHOLD);
+        assertTrue(holes.getPolygons().size()
+                >= Node.PARALLEL_BUILD_THRESHOLD);
+
+        CSG sequential = sphere.clone().parallel(false).difference(holes);
+        CSG parallel = sphere.clone().parallel(true).difference(holes);
+
+        assertEquals(sequential.getPolygons().size(),
+                parallel.getPolygons().size());
+        assertVolume(volume(sequential), volume(parallel));
+
+        // the parallel build creates the same tree as the sequential one
+        Node sequentialTree = new Node(sphere.getPolygons(),
+                SplitPlaneSelector.FIRST_POLYGON, false);
+        Node parallelTree = new Node(sphere.getPolygons(),
+                SplitPlaneSelector.FIRST_POLYGON, true);
+        assertEquals(
+                CSG.fromPolygons(sequentialTree.allPolygons()).fingerprint(),
+                CSG.fromPolygons(parallelTree.allPolygons()).fingerprint());
+    }
+
+    @Test
+    public void parallelClipTest() {
+        CSG cube = new Cube(2).toCSG();
+        List<Polygon> polygons = new Sphere(1.25, 64, 32).toCSG()
+                .getPolygons();
+
+        // the polygons are clipped by parallel tasks
+        assertTrue(polygons.size() >= Node.PARALLEL_CLIP_THRESHOLD);
+
+        Node sequentialTree = new Node(cube.getPolygons(),
+                SplitPlaneSelector.FIRST_POLYGON, false);
+        Node parallelTree = new Node(cube.getPolygons(),
+                SplitPlaneSelector.FIRST_POLYGON, true);
+
+        for (int i = 0; i < 2; i++) {
+            List<Polygon> sequential = sequentialTree.clipPolygons(polygons);
+            List<Polygon> parallel = parallelTree.clipPolygons(polygons);
+
+            assertTrue(sequential.size() < polygons.size());
+            assertEquals(sequential.size(), parallel.size());
+            assertEquals(CSG.fromPolygons(sequential).fingerprint(),
+                    CSG.fromPolygons(parallel).fingerprint());
+
+            sequentialTree.invert();
+            parallelTree.invert();
+        }
+    }
+
+    @Test
+    public void packedMeshTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+
+        PackedMesh a = PackedMesh.fromCSG(cube);
+        PackedMesh b = PackedMesh.fromCSG(sphere);
+
+        assertEquals(cube.getPolygons().size(), a.getNumberOfPolygons());
+        assertVolume(volume(cube), volume(a.toCSG()));
+
+        assertVolume(volume(cube.union(sphere)), volume(a.union(b).toCSG()));
+        assertVolume(volume(cube.difference(sphere)), volume(a.difference(b).toCSG()));
+        assertVolume(volume(cube.intersect(sphere)), volume(a.intersect(b).toCSG()));
+    }
+
+    @Test
+    public void weldedMeshTest() {
+        CSG union = new Cube(2).toCSG().union(new Sphere(1.25, 32, 16).toCSG());
+
+        PackedMesh raw = PackedMesh.fromCSG(union);
+        PackedMesh welded = union.toMesh();
+
+        assertEquals(union.getPolygons().size(), welded.getNumberOfPolygons());
+        assertTrue(welded.getNumberOfVertices() < raw.getNumberOfVertices() / 2);
+        assertVolume(volume(union), volume(welded.toCSG()));
+
+        // each edge of the triangles is shared with exactly one other triangle
+        int[] triangles = welded.getTriangleIndices();
+        List<Long> edges = new ArrayList<>();
+        for (int t = 0; t < triangles.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                edges.add((long) triangles[t + k] << 32 | triangles[t + (k + 1) % 3]);
+            }
+        }
+        Collections.sort(edges);
+        for (long edge : edges) {
+            long opposite = (edge & 0xFFFFFFFFL) << 32 | edge >>> 32;
+            assertTrue(Collections.binarySearch(edges, opposite) >= 0);
+        }
+
+        try {
+            union.weldTolerance(0);
+            fail("Non-positive tolerance accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void weldedMeshTJunctionTest() {
+        // the T-junction (1, 0, 0) is inserted at the start of the square
+        Polygon square = Polygon.fromPoints(Arrays.asList(
+                Vector3d.xyz(0, 0, 0), Vector3d.xyz(2, 0, 0),
+                Vector3d.xyz(2, 2, 0), Vector3d.xyz(0, 2, 0)));
+        Polygon left = Polygon.fromPoints(Arrays.asList(
+                Vector3d.xyz(0, -1, 0), Vector3d.xyz(1, -1, 0),
+                Vector3d.xyz(1, 0, 0), Vector3d.xyz(0, 0, 0)));
+        Polygon right = Polygon.fromPoints(Arrays.asList(
+                Vector3d.xyz(1, -1, 0), Vector3d.xyz(2, -1, 0),
+                Vector3d.xyz(2, 0, 0), Vector3d.xyz(1, 0, 0)));
+
+        CSG csg = CSG.fromPolygons(square, left, right).toMesh().toCSG();
+
+        assertEquals(3, csg.getPolygons().size());
+        assertEquals(5, csg.getPolygons().get(0).vertices.size());
+        for (Polygon p : csg.getPolygons()) {
+            assertTrue(p.isValid());
+            assertEquals(Vector3d.Z_ONE, p._csg_plane.normal);
+            assertEquals(0, p._csg_plane.dist, 0);
+        }
+    }
+
+    @Test
+    public void operandsUnchangedTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+
+        String cubeStl = cube.toStlString();
+        String sphereStl = sphere.toStlString();
+
+        cube.union(sphere);
+        cube.difference(sphere);
+        sphere.difference(cube);
+        cube.intersect(sphere);
+
+        assertEquals(cubeStl, cube.toStlString());
+        assertEquals(sphereStl, sphere.toStlString());
+    }
+
+    @Test
+    public void resultModificationTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+        CSG far = new Cube(2).toCSG()
+                .transformed(Transform.unity().translateX(10));
+        CSGCache cache = new CSGCache(10000);
+
+        String cubeStl = cube.toStlString();
+        String sphereStl = sphere.toStlString();
+
+        CSG cached = cube.clone().cache(cache).union(sphere);
+        String cachedStl = cached.toStlString();
+
+        List<CSG> results = new ArrayList<>();
+        results.add(cube.union(sphere));
+        results.add(cube.union(far));
+        results.add(cube.difference(sphere));
+        results.add(cube.dumbUnion(far));
+        results.add(cached);
+
+        Transform t = Transform.unity().translateZ(1).rotZ(30);
+        for (CSG result : results) {
+            result.getPolygons().forEach(p -> p.translate(Vector3d.x(1)));
+            result.getPolygons().forEach(p -> p.transform(t));
+            result.getPolygons().forEach(Polygon::flip);
+        }
+
+        assertEquals(cubeStl, cube.toStlString());
+        assertEquals(sphereStl, sphere.toStlString());
+        assertEquals(cachedStl,
+                cube.clone().cache(cache).union(sphere).toStlString());
+    }
+
+    @Test
+    public void preparedCSGTest() {
+        CSG tool = new Cylinder(0.4, 3, 16).toCSG()
+                .transformed(Transform.unity().translateZ(-1.5));
+        PreparedCSG prepared = tool.prepare();
+
+        List<CSG> targets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            targets.add(new Cube(2).toCSG()
+                    .transformed(Transform.unity().translateX(0.25 * i)));
+        }
+
+        targets.parallelStream().forEach(target -> {
+            assertVolume(volume(target.union(tool)),
+                    volume(target.union(prepared)));
+            assertVolume(volume(target.difference(tool)),
+                    volume(target.difference(prepared)));
+            assertVolume(volume(target.intersect(tool)),
+                    volume(target.intersect(prepared)));
+        });
+
+        assertSame(tool, prepared.getCSG());
+    }
+
+    @Test
+    public void persistentTreeTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25).toCSG();
+        Node tree = new Node(cube.getPolygons());
+        Node tool = new Node(sphere.getPolygons());
+        List<Polygon> polygons = tree.allPolygons();
+        List<Polygon> toolPolygons = tool.allPolygons();
+
+        // inverting twice returns the same polygon instances
+        tree.invert();
+        tree.invert();
+        assertEquals(polygons, tree.allPolygons());
+
+        // union of copies, the original trees are shared but not modified
+        Node a = tree.clone();
+        Node b = tool.clone();
+        a.clipTo(b);
+        b.clipTo(a);
+        b.invert();
+        b.clipTo(a);
+        b.invert();
+        a.build(b);
+
+        assertVolume(volume(cube.union(sphere)),
+                volume(CSG.fromPolygons(a.allPolygons())));
+        assertEquals(polygons, tree.allPolygons());
+        assertEquals(toolPolygons, tool.allPolygons());
+
+        // modifying the original tree does not affect its copies
+        List<Polygon> result = a.allPolygons();
+        Node c = tree.clone();
+        tree.invert();
+        tree.clipTo(tool);
+        assertEquals(result, a.allPolygons());
+        assertEquals(polygons, c.allPolygons());
+    }
+
+    @Test
+    public void unionListTest() {
+        List<CSG> parts = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            parts.add(new Cube(1).toCSG()
+                    .transformed(Transform.unity().translate(0.5 * i, 0.25 * (i % 2), 0)));
+        }
+
+        CSG first = parts.get(0);
+        CSG fold = first;
+        for (CSG part : parts.subList(1, parts.size())) {
+            fold = fold.union(part);
+        }
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            CSG a = first.clone().parallel(parallel);
+            assertVolume(volume(fold), volume(a.union(parts.subList(1, parts.size()))));
+
+            CSG plate = new Cube(Vector3d.xyz(1.5, 0, 0), Vector3d.xyz(5, 2, 0.5)).toCSG()
+                    .parallel(parallel);
+            assertVolume(volume(plate.difference(fold)), volume(plate.difference(parts)));
+            assertVolume(volume(plate.intersect(fold)), volume(plate.intersect(parts)));
+        }
+    }
+
+    @Test
+    public void batchDifferenceTest() {
+        CSG plate = new Cube(Vector3d.xyz(0, 0, 0), Vector3d.xyz(6, 4, 1)).toCSG();
+
+        List<CSG> tools = new ArrayList<>();
+        // disjoint holes
+        for (int i = 0; i < 4; i++) {
+            tools.add(new Cylinder(0.3, 2, 8).toCSG().transformed(
+                    Transform.unity().translate(-2.25 + 1.5 * i, -1, -1)));
+        }
+        // overlapping slots, one of them with coplanar faces
+        tools.add(new Cube(Vector3d.xyz(0, 1, 0), Vector3d.xyz(3, 0.5, 2)).toCSG());
+        tools.add(new Cube(Vector3d.xyz(1, 1, 0), Vector3d.xyz(3, 0.5, 2)).toCSG());
+        // tool outside of the plate
+        tools.add(new Cube(Vector3d.xyz(10, 0, 0), Vector3d.xyz(1, 1, 1)).toCSG());
+
+        CSG toolUnion = tools.get(0);
+        for (CSG tool : tools.subList(1, tools.size())) {
+            toolUnion = toolUnion.union(tool);
+        }
+
+        double expected = volume(plate.difference(toolUnion));
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            CSG result = plate.clone().parallel(parallel).difference(tools);
+            assertVolume(expected, volume(result));
+        }
+    }
+
+    @Test
+    public void csgBoundsUnionTest() {
+        CSG plate = new Cube(Vector3d.xyz(0, 0, 0), Vector3d.xyz(6, 4, 1)).toCSG();
+        CSG post = new Cylinder(0.5, 2, 16).toCSG()
+                .transformed(Transform.unity().translate(2, 1, 0));
+        CSG far = new Cube(1).toCSG()
+                .transformed(Transform.unity().translate(10, 0, 0));
+
+        for (CSG other : new CSG[]{post, far, plate}) {
+            double expected = volume(plate.clone()
+                    .optimization(CSG.OptType.NONE).union(other));
+            double actual = volume(plate.clone()
+                    .optimization(CSG.OptType.CSG_BOUND).union(other));
+            assertVolume(expected, actual);
+        }
+    }
+
+    @Test
+    public void polygonBoundsTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 16, 8).toCSG();
+        // completely inside of the cube, no polygon touches the cube
+        CSG inner = new Sphere(0.5, 16, 8).toCSG();
+        CSG post = new Cylinder(0.25, 3, 16).toCSG()
+                .transformed(Transform.unity().translate(0.5, 0.5, -1));
+
+        for (CSG other : new CSG[]{sphere, inner, post, cube}) {
+            CSG none = cube.clone().optimization(CSG.OptType.NONE);
+            CSG polygonBound = cube.clone().optimization(CSG.OptType.POLYGON_BOUND);
+
+            assertVolume(volume(none.union(other)), volume(polygonBound.union(other)));
+            assertVolume(volume(none.difference(other)),
+                    volume(polygonBound.difference(other)));
+            assertVolume(volume(other.union(none)),
+                    volume(other.clone().optimization(CSG.OptType.POLYGON_BOUND).union(cube)));
+        }
+    }
+
+    @Test
+    public void meshEngineTest() {
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 16, 8).toCSG();
+        CSG inner = new Sphere(0.5, 16, 8).toCSG();
+        // flush with the top face of the cube
+        CSG post = new Cylinder(0.25, 2, 16).toCSG()
+                .transformed(Transform.unity().translate(0.5, 0.5, -1));
+        CSG rotated = new Cube(2).toCSG()
+                .transformed(Transform.unity().rot(30, 40, 50).translate(0.7, 0.3, 0.2));
+        CSG far = new Cube(1).toCSG()
+                .transformed(Transform.unity().translate(5, 0, 0));
+
+        for (CSG other : new CSG[]{sphere, inner, post, rotated, far, cube}) {
+            CSG none = cube.clone().optimization(CSG.OptType.NONE);
+            CSG mesh = cube.clone().optimization(CSG.OptType.MESH);
+
+            assertVolume(volume(none.union(other)), volume(mesh.union(other)));
+            assertVolume(volume(none.difference(other)), volume(mesh.difference(other)));
+            assertVolume(volume(none.intersect(other)), volume(mesh.intersect(other)));
+            assertVolume(volume(other.difference(none)),
+                    volume(other.clone().optimization(CSG.OptType.MESH).difference(cube)));
+        }
+
+        List<OperationMetrics> metrics = new ArrayList<>();
+        cube.clone().optimization(CSG.OptType.MESH).listener(metrics::add).union(sphere);
+        assertEquals(OperationMetrics.Path.MESH, metrics.get(0).getPath());
+        assertEquals(0, metrics.get(0).getTreeCount());
+    }
+
+    @Test
+    public void lazyCSGTest() {
+        CSG plate = new Cube(Vector3d.xyz(0, 0, 0), Vector3d.xyz(6, 4, 1)).toCSG();
+        CSG hole = new Cylinder(0.3, 2, 8).toCSG()
+                .transformed(Transform.unity().translate(0, 0, -1));
+        CSG far = new Cube(1).toCSG()
+                .transformed(Transform.unity().translate(10, 0, 0));
+
+        Transform t1 = Transform.unity().translate(1, 0, 0);
+        Transform t2 = Transform.unity().rotZ(30);
+
+        CSG eager = plate.difference(hole.transformed(t1).transformed(t2), far)
+                .union(plate.transformed(Transform.unity().translate(0, 0, 0.5)), far);
+        LazyCSG lazyFar = far.lazy();
+        LazyCSG lazy = plate.lazy()
+                .difference(hole.lazy().transformed(t1).transformed(t2), lazyFar)
+                .union(plate.lazy().transformed(Transform.unity().translate(0, 0, 0.5)),
+                        lazyFar);
+
+        assertFalse(lazy.isEvaluated());
+        assertVolume(volume(eager), volume(lazy.evaluate()));
+        assertSame(lazy.evaluate(), lazy.evaluate());
+        assertSame(far, lazyFar.evaluate());
+
+        // disjoint operands of an intersection are never evaluated
+        LazyCSG unused = hole.lazy().transformed(t1);
+        assertEquals(0, plate.lazy().intersect(far.lazy(), unused).getPolygons().size());
+        assertFalse(unused.isEvaluated());
+    }
+
+    @Test
+    public void cacheTest() {
+        CSGCache cache = new CSGCache(10000);
+        CSG plate = new Cube(Vector3d.xyz(0, 0, 0), Vector3d.xyz(6, 4, 1)).toCSG();
+        CSG hole = new Cylinder(0.3, 2, 8).toCSG()
+                .transformed(Transform.unity().translate(0, 0, -1));
+
+        double expected = volume(plate.difference(hole));
+
+        // geometrically identical operands hit the cache
+        CSG first = plate.clone().cache(cache).difference(hole);
+        CSG second = plate.clone().cache(cache).difference(hole.clone());
+        assertVolume(expected, volume(first));
+        assertVolume(expected, volume(second));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // different operation
+        CSG union = plate.clone().cache(cache).union(hole);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+
+        // results exceeding the maximum size evict the least recently used results
+        CSGCache small = new CSGCache(
+                Math.max(first.getPolygons().size(), union.getPolygons().size()));
+        plate.clone().cache(small).difference(hole);
+        plate.clone().cache(small).union(hole);
+        assertEquals(1, small.size());
+        assertEquals(1, small.getEvictions());
+    }
+
+    @Test
+    public void cacheOptimizationTest() {
+        // face-touching operands
+        CSG x = new Cube(1).toCSG();
+        CSG y = new Cube(1).toCSG()
+                .transformed(Transform.unity().translateX(1));
+        CSGCache cache = new CSGCache(10000);
+
+        for (CSG.OptType type : CSG.OptType.values()) {
+            Fingerprint expected = x.clone().optimization(type)
+                    .difference(y).fingerprint();
+            Fingerprint actual = x.clone().optimization(type).cache(cache)
+                    .difference(y).fingerprint();
+            assertEquals(type.name(), expected, actual);
+        }
+
+        for (SplitPlaneSelector selector : new SplitPlaneSelector[]{
+            SplitPlaneSelector.FIRST_POLYGON,
+            SplitPlaneSelector.SAMPLED}) {
+            Fingerprint expected = x.clone().splitPlaneSelector(selector)
+                    .difference(y).fingerprint();
+            Fingerprint actual = x.clone().splitPlaneSelector(selector)
+                    .cache(cache).difference(y).fingerprint();
+            assertEquals(expected, actual);
+        }
+
+        // SAMPLED is the default selector, equal selectors share results
+        x.clone().splitPlaneSelector(new SampledSplitPlaneSelector())
+                .cache(cache).difference(y);
+        assertEquals(2, cache.getHits());
+        assertEquals(CSG.OptType.values().length + 1, cache.getMisses());
+    }
+
+    @Test
+    public void cachePropertiesTest() {
+        CSGCache cache = new CSGCache(10000);
+        CSG hole = new Cylinder(0.3, 4, 8).toCSG()
+                .transformed(Transform.unity().translate(0, 0, -2))
+                .color(Color.GREEN);
+        CSG red = new Cube(2).toCSG().color(Color.RED);
+        CSG blue = new Cube(2).toCSG().color(Color.BLUE);
+
+        // geometrically identical operands with different colors miss the cache
+        red.cache(cache).difference(hole);
+        CSG result = blue.cache(cache).difference(hole);
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+
+        String redColor = colorOf(red.getPolygons().get(0));
+        String blueColor = colorOf(blue.getPolygons().get(0));
+        assertNotEquals(redColor, blueColor);
+
+        int blueFaces = 0;
+        for (Polygon p : result.getPolygons()) {
+            assertNotEquals(redColor, colorOf(p));
+            if (blueColor.equals(colorOf(p))) {
+                blueFaces++;
+            }
+        }
+        assertTrue(blueFaces > 0);
+
+        // equal colors hit the cache
+        new Cube(2).toCSG().color(Color.BLUE).cache(cache).difference(hole);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void metricsTest() {
+        List<OperationMetrics> reported = new ArrayList<>();
+        CSG cube = new Cube(2).toCSG().listener(reported::add);
+        CSG sphere = new Sphere(1.25).toCSG();
+
+        CSG union = cube.union(sphere);
+        assertVolume(volume(new Cube(2).toCSG().union(sphere)), volume(union));
+        assertEquals(1, reported.size());
+
+        OperationMetrics m = reported.get(0);
+        assertEquals(OperationMetrics.Operation.UNION, m.getOperation());
+        assertEquals(OperationMetrics.Path.NO_OPT, m.getPath());
+        assertEquals(cube.getPolygons().size(), m.getInputPolygons());
+        assertEquals(sphere.getPolygons().size(), m.getOperandPolygons());
+        assertEquals(union.getPolygons().size(), m.getOutputPolygons());
+        assertEquals(2, m.getTreeCount());
+        assertTrue(m.getNodeCount() >= m.getMaxDepth() && m.getMaxDepth() > 1);
+        assertTrue(m.getSplitPolygons() > 0);
+        assertTrue(m.getFragments() >= m.getSplitPolygons());
+        assertEquals(3, m.getClipPassNanos().length);
+        assertTrue(m.getTotalNanos() >= m.getNanos(OperationMetrics.Phase.CLIP));
+
+        // results inherit the listener, disjoint bounds skip the trees
+        union.optimization(CSG.OptType.CSG_BOUND)
+                .union(sphere.transformed(Transform.unity().translateX(10)));
+        assertEquals(2, reported.size());
+        assertEquals(OperationMetrics.Path.DISJOINT, reported.get(1).getPath());
+        assertEquals(0, reported.get(1).getTreeCount());
+
+        // cached results
+        cube.cache(new CSGCache(10000));
+        cube.intersect(sphere);
+        cube.intersect(sphere);
+        assertEquals(OperationMetrics.Path.NO_OPT, reported.get(2).getPath());
+        assertEquals(OperationMetrics.Path.CACHED, reported.get(3).getPath());
+
+        // no metrics without listener
+        cube.listener(null).difference(sphere);
+        assertEquals(4, reported.size());
+    }
+
+    @Test
+    public void flightRecorderTest() throws IOException {
+        assumeTrue(CSGEvents.isAvailable());
+
+        Path file = folder.newFile("csg.jfr").toPath();
+
+        try (Recording recording = new Recording()) {
+            recording.enable("com.xahon.javacsg.BooleanOperation");
+            recording.enable("com.xahon.javacsg.BspBuild");
+            recording.enable("com.xahon.javacsg.StlExport");
+            recording.start();
+            new Cube(2).toCSG().difference(new Sphere(1.25).toCSG()).toStlString();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<String> names = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            names.add(event.getEventType().getName());
+            if (event.getEventType().getName().endsWith("BooleanOperation")) {
+                assertEquals("DIFFERENCE", event.getString("operation"));
+                assertEquals(6, event.getInt("inputPolygons"));
+                assertTrue(event.getLong("splitPolygons") > 0);
+            }
+        }
+        assertEquals(1, Collections.frequency(names, "com.xahon.javacsg.BooleanOperation"));
+        assertEquals(1, Collections.frequency(names, "com.xahon.javacsg.StlExport"));
+        // both operand trees and the final build of the first tree
+        assertEquals(3, Collections.frequency(names, "com.xahon.javacsg.BspBuild"));
+    }
+
+    @Test
+    public void coplanarMergeTest() {
+        CSG plate = new Cube(Vector3d.xyz(0, 0, 0), Vector3d.xyz(12, 12, 1)).toCSG();
+        CSG merged = plate.clone().coplanarMerge(true);
+
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                CSG hole = new Cube(Vector3d.xyz(-4.5 + 3 * i, -4.5 + 3 * j, 0),
+                        Vector3d.xyz(1, 1.5, 2)).toCSG();
+                plate = plate.difference(hole);
+                merged = merged.difference(hole);
+            }
+        }
+
+        assertVolume(volume(plate), volume(merged));
+        assertTrue(merged.getPolygons().size() < plate.getPolygons().size());
+
+        CSG postMerged = plate.mergeCoplanarPolygons();
+        assertVolume(volume(plate), volume(postMerged));
+        assertTrue(postMerged.getPolygons().size() < plate.getPolygons().size());
+
+        // merged polygons are convex
+        for (Polygon p : postMerged.getPolygons()) {
+            Vector3d normal = p.getPlane().getNormal();
+            int n = p.vertices.size();
+            for (int k = 0; k < n; k++) {
+                Vector3d prev = p.vertices.get((k + n - 1) % n).pos;
+                Vector3d v = p.vertices.get(k).pos;
+                Vector3d next = p.vertices.get((k + 1) % n).pos;
+                assertTrue(v.minus(prev).crossed(next.minus(v)).dot(normal) > -TOL);
+            }
+        }
+
+        // merged and unmerged results are cached separately
+        CSGCache cache = new CSGCache(10000);
+        CSG cube = new Cube(2).toCSG();
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+        CSG unmerged = cube.clone().cache(cache).union(sphere);
+        CSG cachedMerged = cube.clone().cache(cache).coplanarMerge(true).union(sphere);
+        assertEquals(cube.union(sphere).getPolygons().size(), unmerged.getPolygons().size());
+        assertEquals(cube.clone().coplanarMerge(true).union(sphere).getPolygons().size(),
+                cachedMerged.getPolygons().size());
+        assertTrue(cachedMerged.getPolygons().size() < unmerged.getPolygons().size());
+    }
+
+    @Test
+    public void coplanarMergeMaterialTest() {
+        List<Vector3d> lower = Arrays.asList(Vector3d.xyz(0, 0, 0),
+                Vector3d.xyz(1, 0, 0), Vector3d.xyz(1, 1, 0));
+        List<Vector3d> upper = Arrays.asList(Vector3d.xyz(0, 0, 0),
+                Vector3d.xyz(1, 1, 0), Vector3d.xyz(0, 1, 0));
+
+        // separately constructed storages with equal properties
+        PropertyStorage red = new PropertyStorage();
+        PropertyStorage otherRed = new PropertyStorage();
+        PropertyStorage blue = new PropertyStorage();
+        red.set("material:color", "1.0 0.0 0.0");
+        otherRed.set("material:color", "1.0 0.0 0.0");
+        blue.set("material:color", "0.0 0.0 1.0");
+
+        assertEquals(1, CSG.fromPolygons(
+                Polygon.fromPoints(lower, red),
+                Polygon.fromPoints(upper, otherRed))
+                .mergeCoplanarPolygons().getPolygons().size());
+        assertEquals(2, CSG.fromPolygons(
+                Polygon.fromPoints(lower, red),
+                Polygon.fromPoints(upper, blue))
+                .mergeCoplanarPolygons().getPolygons().size());
+
+        // polygons without storage are merged and keep having no storage
+        List<Polygon> polygons = new ArrayList<>();
+        for (List<Vector3d> points : Arrays.asList(lower, upper)) {
+            List<Vertex> vertices = new ArrayList<>();
+            for (Vector3d point : points) {
+                vertices.add(new Vertex(point, null));
+            }
+            polygons.add(new Polygon(vertices));
+        }
+        List<Polygon> merged = CSG.fromPolygons(polygons)
+                .mergeCoplanarPolygons().getPolygons();
+        assertEquals(1, merged.size());
+        assertNull(merged.get(0).peekStorage());
+        for (Polygon p : polygons) {
+            assertNull(p.peekStorage());
+        }
+    }
+
+    @Test
+    public void aabbTest() {
+        Aabb a = new Aabb(0, 0, 0, 2, 2, 2);
+        Aabb b = new Aabb(1, 1, 1, 3, 3, 3);
+        Aabb touching = new Aabb(2, 0, 0, 4, 1, 1);
+        Aabb disjoint = new Aabb(3, 3, 3, 4, 4, 4);
+
+        assertAabb(0, 0, 0, 3, 3, 3, a.union(b));
+        assertAabb(0, 0, 0, 4, 4, 4, a.union(disjoint));
+        assertAabb(-0.5, -0.5, -0.5, 2.5, 2.5, 2.5, a.expand(0.5));
+
+        // the check includes the boundary
+        assertTrue(a.intersects(b) && b.intersects(a));
+        assertTrue(a.intersects(touching) && touching.intersects(a));
+        assertFalse(a.intersects(disjoint) || disjoint.intersects(a));
+
+        assertAabb(1, 1, 1, 2, 2, 2, a.intersection(b));
+        assertAabb(2, 0, 0, 2, 1, 1, a.intersection(touching));
+        assertNull(a.intersection(disjoint));
+
+        // box of the rotated corners (vvecmath rotates x towards -y)
+        assertAabb(0, -2, 0, 1, 0, 1, new Aabb(0, 0, 0, 2, 1, 1)
+                .transformed(Transform.unity().rotZ(90)));
+        assertAabb(1, 2, 3, 3, 4, 5,
+                a.transformed(Transform.unity().translate(1, 2, 3)));
+        assertEquals(Vector3d.xyz(1, 1, 1), a.getCenter());
+
+        // csgs and polygons
+        CSG cube = new Cube(2).toCSG();
+        assertAabb(-1, -1, -1, 1, 1, 1, cube.getAabb());
+        assertAabb(-1, -1, -1, 1, 1, 1, cube.clone().getAabb());
+        assertSame(Aabb.ZERO,
+                CSG.fromPolygons(new ArrayList<>()).getAabb());
+
+        Polygon p = cube.clone().getPolygons().get(0);
+        Aabb before = p.getAabb();
+        p.translate(Vector3d.x(1));
+        assertAabb(before.minX + 1, before.minY, before.minZ,
+                before.maxX + 1, before.maxY, before.maxZ, p.getAabb());
+        // inverses reuse the box of their polygon
+        assertSame(p.getAabb(), p.inverse().getAabb());
+    }
+
+    @Test
+    public void boundsTest() {
+        Bounds bounds = new Cube(Vector3d.xyz(1, 2, 3), Vector3d.xyz(2, 4, 6))
+                .toCSG().getBounds();
+
+        assertEquals(Vector3d.xyz(0, 0, 0), bounds.getMin());
+        assertEquals(Vector3d.xyz(2, 4, 6), bounds.getMax());
+        assertEquals(Vector3d.xyz(1, 2, 3), bounds.getCenter());
+        assertEquals(Vector3d.xyz(2, 4, 6), bounds.getBounds());
+
+        // the cube and its csg are created once
+        assertSame(bounds.toCube(), bounds.toCube());
+        assertSame(bounds.toCSG(), bounds.toCSG());
+        assertVolume(48, volume(bounds.toCSG()));
+
+        assertTrue(bounds.contains(Vector3d.xyz(2, 4, 6)));
+        assertFalse(bounds.contains(Vector3d.xyz(2, 4, 6.5)));
+        assertTrue(bounds.intersects(new Bounds(
+                Vector3d.xyz(2, 4, 6), Vector3d.xyz(3, 5, 7))));
+        assertFalse(bounds.intersects(new Bounds(
+                Vector3d.xyz(2.5, 0, 0), Vector3d.xyz(3, 5, 7))));
+
+        Bounds empty = CSG.fromPolygons(new ArrayList<>()).getBounds();
+        assertEquals(Vector3d.ZERO, empty.getMin());
+        assertEquals(Vector3d.ZERO, empty.getMax());
+    }
+
+    @Test
+    public void fingerprintTest() {
+        CSG sphere = new Sphere(1.25, 32, 16).toCSG();
+
+        List<Polygon> reversed = new ArrayList<>(sphere.clone().getPolygons());
+        Collections.reverse(reversed);
+        CSG reordered = CSG.fromPolygons(reversed);
+
+        assertEquals(sphere.fingerprint(), sphere.clone().fingerprint());
+        assertEquals(sphere.fingerprint(), reordered.fingerprint());
+        assertNotEquals(sphere.fingerprint(), sphere.transformed(
+                Transform.unity().translateX(1e-6)).fingerprint());
+        assertNotEquals(sphere.fingerprint(), CSG.fromPolygons(
+                reversed.subList(1, reversed.size())).fingerprint());
+
+        Polygon p = sphere.getPolygons().get(0);
+        assertNotEquals(p.fingerprint(), p.inverse().fingerprint());
+        assertEquals(p.fingerprint(), p.inverse().inverse().fingerprint());
+    }
+
+    @Test
+    public void diskCacheTest() throws IOException {
+        CSG sphere = new Sphere(1.25, 16, 8).toCSG();
+        CSG cube = new Cube(2).toCSG();
+        CSG expected = cube.difference(sphere);
+
+        CSGDiskCache disk = new CSGDiskCache(folder.getRoot().toPath(), 1 << 20);
+        CSG first = cube.clone().cache(new CSGCache(10000, disk)).difference(sphere);
+        assertEquals(1, disk.getMisses());
+        assertTrue(disk.getSize() > 0);
+
+        // a new process starts with an empty memory cache
+        disk = new CSGDiskCache(folder.getRoot().toPath(), 1 << 20);
+        CSG second = cube.clone().cache(new CSGCache(10000, disk)).difference(sphere);
+        assertEquals(1, disk.getHits());
+        assertEquals(first.fingerprint(), second.fingerprint());
+        assertEquals(expected.fingerprint(), second.fingerprint());
+        assertVolume(volume(expected), volume(second));
+
+        // size limit, the translated result has the same size
+        Transform t = Transform.unity().translateX(5);
+        CSGDiskCache small = new CSGDiskCache(
+                folder.newFolder().toPath(), disk.getSize() * 3 / 2);
+        CSGCache cache = new CSGCache(10000, small);
+        cube.clone().cache(cache).difference(sphere);
+        cube.transformed(t).cache(cache).difference(sphere.transformed(t));
+        assertEquals(1, small.getEvictions());
+        assertEquals(disk.getSize(), small.getSize());
+    }
+
+    @Test
+    public void diskCacheCorruptFileTest() throws IOException {
+        CSG sphere = new Sphere(1.25, 16, 8).toCSG();
+        CSG cube = new Cube(2).toCSG();
+        CSG expected = cube.union(sphere);
+        Path directory = folder.getRoot().toPath();
+
+        cube.clone().cache(new CSGCache(10000,
+                new CSGDiskCache(directory, 1 << 20))).union(sphere);
+
+        // valid header followed by no storages and a negative polygon count
+        byte[][] contents = {
+            ByteBuffer.allocate(16).putInt(0x4a435347).putInt(2)
+                    .putInt(0).putInt(-1).array(),
+            ByteBuffer.allocate(16).putInt(0x4a435347).putInt(2)
+                    .putInt(0).putInt(Integer.MAX_VALUE).array(),
+            ByteBuffer.allocate(6).putInt(0x4a435347).array()};
+
+        for (byte[] content : contents) {
+            File[] files = folder.getRoot().listFiles(
+                    (dir, name) -> name.endsWith(".csg"));
+            assertEquals(1, files.length);
+            Files.write(files[0].toPath(), content);
+
+            CSGDiskCache disk = new CSGDiskCache(directory, 1 << 20);
+            CSG result = cube.clone().cache(new CSGCache(10000, disk))
+                    .union(sphere);
+            assertEquals(1, disk.getMisses());
+            assertEquals(expected.fingerprint(), result.fingerprint());
+
+            // the corrupt file has been replaced by the computed result
+            disk = new CSGDiskCache(directory, 1 << 20);
+            cube.clone().cache(new CSGCache(10000, disk)).union(sphere);
+            assertEquals(1, disk.getHits());
+        }
+    }
+
+    @Test
+    public void diskCachePropertiesTest() throws IOException {
+        CSG hole = new Cylinder(0.5, 3, 16).toCSG()
+                .transformed(Transform.unity().translateZ(-1.5))
+                .color(Color.GREEN);
+        CSG plate = new Cube(2).toCSG().color(Color.RED);
+        plate.getPolygons().forEach(
+                p -> p.vertices.forEach(v -> v.setWeight(0.25)));
+
+        Path directory = folder.getRoot().toPath();
+        CSG first = plate.clone().cache(new CSGCache(10000,
+                new CSGDiskCache(directory, 1 << 20))).difference(hole);
+
+        CSGDiskCache disk = new CSGDiskCache(directory, 1 << 20);
+        CSG second = plate.clone().cache(new CSGCache(10000, disk))
+                .difference(hole);
+        assertEquals(1, disk.getHits());
+
+        assertEquals(first.getPolygons().size(),
+                second.getPolygons().size());
+        for (int i = 0; i < first.getPolygons().size(); i++) {
+            Polygon expected = first.getPolygons().get(i);
+            Polygon actual = second.getPolygons().get(i);
+            assertEquals(colorOf(expected), colorOf(actual));
+            for (int j = 0; j < expected.vertices.size(); j++) {
+                assertEquals(expected.vertices.get(j).getWeight(),
+                        actual.vertices.get(j).getWeight(), 0);
+            }
+        }
+        String red = colorOf(plate.getPolygons().get(0));
+        String green = colorOf(hole.getPolygons().get(0));
+        assertTrue(second.getPolygons().stream()
+                .anyMatch(p -> red.equals(colorOf(p))));
+        assertTrue(second.getPolygons().stream()
+                .anyMatch(p -> green.equals(colorOf(p))));
+
+        // replacing a stored result does not change the total size
+        long size = disk.getSize();
+        CSGCache.Key key = new CSGCache.Key(CSGCache.Operation.UNION,
+                plate.fingerprint(), Fingerprint.EMPTY, null,
+                Fingerprint.EMPTY, false, null, null, Plane.EPSILON);
+        disk.store(key, second);
+        long stored = disk.getSize() - size;
+        disk.store(key, second);
+        assertEquals(size + stored, disk.getSize());
+
+        // results with properties that are not strings are not stored
+        second.getPolygons().get(0).getStorage().set("id", 42);
+        disk.store(new CSGCache.Key(CSGCache.Operation.INTERSECTION,
+                plate.fingerprint(), Fingerprint.EMPTY, null,
+                Fingerprint.EMPTY, false, null, null, Plane.EPSILON), second);
+        assertEquals(size + stored, disk.getSize());
+    }
+
+    static void assertAabb(double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ, Aabb actual) {
+        String message = "Unexpected box " + actual;
+        assertEquals(message, minX, actual.minX, TOL);
+        assertEquals(message, minY, actual.minY, TOL);
+        assertEquals(message, minZ, actual.minZ, TOL);
+        assertEquals(message, maxX, actual.maxX, TOL);
+        assertEquals(message, maxY, actual.maxY, TOL);
+        assertEquals(message, maxZ, actual.maxZ, TOL);
+    }
+
+    static void assertVolume(double expected, double actual) {
+        assertTrue("Expected volume " + expected + ", got " + actual,
+                Math.abs(expected - actual) < TOL);
+    }
+
+    /**
+     * Computes the volume of the specified closed csg.
+     *
+     * @param csg csg
+     * @return volume of the csg
+     */
+    static double volume(CSG csg) {
+        double volume = 0;
+        for (Polygon p : csg.getPolygons()) {
+            Vector3d a = p.vertices.get(0).pos;
+            for (int i = 1; i < p.vertices.size() - 1; i++) {
+                Vector3d b = p.vertices.get(i).pos;
+                Vector3d c = p.vertices.get(i + 1).pos;
+                volume += a.dot(b.crossed(c)) / 6.0;
+            }
+        }
+        return volume;
+    }
+
+    /**
+     * Returns the color property of the specified polygon.
+     *
+     * @param p polygon
+     * @return the color or {@code null} if the polygon has no color
+     */
+    static String colorOf(Polygon p) {
+        return p.getStorage().<String>getValue("material:color").orElse(null);
+    }
+}